@@ -1,11 +1,13 @@
-import React, { useState, useEffect, useCallback } from "react";
+import React, { useState, useEffect, useCallback, useRef } from "react";
 
 /**
  * GitPanel — IDE-grade source control panel for TeamCode.
  * Supports Clone, Pull, Push, Checkout, Branch Creation, and Token Auth.
- * Communicates with sync-service's /api/git/{sessionId}/* REST endpoints.
+ * Communicates with sync-service's /api/git/{sessionId}/* REST endpoints; status changes
+ * are pushed on /topic/git/{sessionId} (SNAPSHOT or DELTA, each with the epoch and version
+ * of the cached status that produced it).
  */
-export default function GitPanel({ sessionId, getAuthHeaders, publishTreeEvent, loadTree }) {
+export default function GitPanel({ sessionId, getAuthHeaders, publishTreeEvent, loadTree, stompClient, connectionEpoch }) {
   const [initialized, setInitialized] = useState(false);
   const [loading, setLoading] = useState(true);
   const [files, setFiles] = useState([]);
@@ -28,6 +30,9 @@ export default function GitPanel({ sessionId, getAuthHeaders, publishTreeEvent,
   const [branchModalOpen, setBranchModalOpen] = useState(false);
   const [newBranchName, setNewBranchName] = useState("");
   const [showBranchDropdown, setShowBranchDropdown] = useState(false);
+  // Status shown: epoch of the server-side cache it came from (one per session per node) and version
+  const statusVersionRef = useRef({ epoch: null, version: 0 });
+  const subscribedOnceRef = useRef(false);
 
   useEffect(() => {
     if (!cloneModalOpen && !branchModalOpen) return;
@@ -50,6 +55,7 @@ export default function GitPanel({ sessionId, getAuthHeaders, publishTreeEvent,
       const data = await res.json();
       setInitialized(data.initialized ?? false);
       setFiles(data.files ?? []);
+      statusVersionRef.current = { epoch: data.epoch ?? null, version: data.version ?? 0 };
       setError(null);
     } catch (e) {
       setError("Erro ao obter status git");
@@ -104,6 +110,58 @@ export default function GitPanel({ sessionId, getAuthHeaders, publishTreeEvent,
     initLoad();
   }, [fetchStatus, fetchBranches]);
 
+  // Status pushed by the server: a DELTA is applied only on top of the exact status it was
+  // computed from (same epoch and baseVersion). Every node relays its own deltas to all
+  // clients, so one from another node's cache, or after a gap, means fetching the full status
+  // again. connectionEpoch changes on every (re)connect, so the subscription is made again
+  // on the new connection
+  useEffect(() => {
+    if (!stompClient || !stompClient.connected) return;
+
+    const subscription = stompClient.subscribe(`/topic/git/${sessionId}`, (message) => {
+      try {
+        const data = JSON.parse(message.body);
+        const current = statusVersionRef.current;
+        if (data.type === "SNAPSHOT") {
+          statusVersionRef.current = { epoch: data.epoch, version: data.version };
+          setInitialized(data.initialized ?? false);
+          setFiles(data.files ?? []);
+        } else if (data.type === "DELTA") {
+          const sameStatus = data.epoch === current.epoch;
+          if (sameStatus && data.version <= current.version) return; // already applied
+          if (!sameStatus || data.baseVersion !== current.version) {
+            fetchStatus();
+            return;
+          }
+          statusVersionRef.current = { epoch: data.epoch, version: data.version };
+          const changed = new Map((data.files ?? []).map((f) => [f.path, f]));
+          const removed = new Set(data.removed ?? []);
+          setFiles((prev) => {
+            const next = prev
+              .filter((f) => !removed.has(f.path))
+              .map((f) => changed.get(f.path) ?? f);
+            const known = new Set(next.map((f) => f.path));
+            changed.forEach((f, path) => {
+              if (!known.has(path)) next.push(f);
+            });
+            return next;
+          });
+        }
+      } catch (e) {
+        console.error("Git status sync error", e);
+      }
+    });
+    // after a reconnect the pushes sent while disconnected are lost: start from a fresh status
+    if (subscribedOnceRef.current) fetchStatus();
+    subscribedOnceRef.current = true;
+
+    return () => {
+      try {
+        subscription.unsubscribe();
+      } catch (_) { } // the connection is already gone
+    };
+  }, [stompClient, connectionEpoch, sessionId, fetchStatus]);
+
   // Sync branches when tab switches to changes/commits
   useEffect(() => {
     if (initialized) {
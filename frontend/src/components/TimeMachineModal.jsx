@@ -34,7 +34,9 @@ export default function TimeMachineModal({ isOpen, onClose, sessionId, activeFil
         const data = await res.json();
         setHistory(data);
         if (data.length > 0) {
-          setSelectedSnapshot(data[0]);
+          selectSnapshot(data[0]);
+        } else {
+          setSelectedSnapshot(null);
         }
       }
     } catch (e) {
@@ -44,6 +46,22 @@ export default function TimeMachineModal({ isOpen, onClose, sessionId, activeFil
     }
   };
 
+  // A listagem só traz metadados; o conteúdo de cada snapshot é pedido ao selecioná-lo
+  const selectSnapshot = async (snap) => {
+    setSelectedSnapshot({ ...snap, content: null });
+    try {
+      const res = await fetch(`/api/tree/${sessionId}/history/${snap.id}`, {
+        headers: getAuthHeaders()
+      });
+      if (res.ok) {
+        const data = await res.json();
+        setSelectedSnapshot((current) => (current?.id === snap.id ? data : current));
+      }
+    } catch (e) {
+      console.error("Erro ao buscar snapshot", e);
+    }
+  };
+
   const handleSnapshot = async () => {
     try {
       await fetch(`/api/tree/${sessionId}/snapshot`, {
@@ -103,7 +121,7 @@ export default function TimeMachineModal({ isOpen, onClose, sessionId, activeFil
               history.map((snap) => (
                 <div
                   key={snap.id}
-                  onClick={() => setSelectedSnapshot(snap)}
+                  onClick={() => selectSnapshot(snap)}
                   className={`p-3 cursor-pointer border-b border-opacity-20 flex flex-col hover:bg-black/10 transition-colors ${selectedSnapshot?.id === snap.id ? 'bg-black/10 font-bold' : ''}`}
                 >
                   <span className="text-sm">{new Date(snap.createdAt).toLocaleString()}</span>
@@ -121,6 +139,7 @@ export default function TimeMachineModal({ isOpen, onClose, sessionId, activeFil
                   <span>Esquerda: Snapshot ({new Date(selectedSnapshot.createdAt).toLocaleTimeString()}) | Direita: Atual</span>
                   <button
                     onClick={() => { onRestore(selectedSnapshot.content); onClose(); }}
+                    disabled={selectedSnapshot.content == null}
                     className="px-3 py-1 bg-red-600 hover:bg-red-500 font-bold text-white rounded-sm"
                   >
                     Reverter para este Snapshot
@@ -128,7 +147,7 @@ export default function TimeMachineModal({ isOpen, onClose, sessionId, activeFil
                 </div>
                 <DiffEditor
                   height="100%"
-                  original={selectedSnapshot.content}
+                  original={selectedSnapshot.content ?? ''}
                   modified={currentContent}
                   language={activeFile.split('.').pop()}
                   theme="vs-dark"
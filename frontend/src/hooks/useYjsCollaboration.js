@@ -7,9 +7,19 @@
  * Arquitetura:
  *   Monaco Editor <-> y-monaco binding <-> Yjs Y.Doc <-> STOMP transport
  * 
- * O backend recebe mensagens no tópico /app/yjs/{sessionId} e repassa
- * para /topic/yjs/{sessionId}. Não requer nenhuma mudança no backend
- * além de adicionar esse endpoint de passagem (pass-through).
+ * O backend recebe mensagens no tópico /app/yjs/{sessionId}, repassa
+ * para /topic/yjs/{sessionId} e guarda o estado do ficheiro. Ao abrir um
+ * ficheiro o hook pede esse estado em /app/yjs.sync/{sessionId} (resposta em
+ * /topic/yjs.sync/{sessionId}/{userId}); o conteúdo do Monaco só semeia o
+ * documento quando o servidor ainda não tem estado.
+ *
+ * O servidor devolve os updates guardados sem os fundir: é o yjs daqui que os
+ * junta (Y.mergeUpdates). Quando o log do servidor já vai longo, a resposta
+ * traz compact e o hook devolve essa fusão em /app/yjs.compact/{sessionId}.
+ *
+ * O pedido leva o SHA-256 do conteúdo carregado do banco: se o ficheiro mudou
+ * por fora do Yjs (git pull, Time Machine, recriado no mesmo caminho), o
+ * servidor descarta o estado antigo em vez de o devolver.
  * 
  * Se o backend não suportar o endpoint Yjs, o sistema degrada graciosamente
  * para o comportamento atual de broadcast de strings.
@@ -18,6 +28,16 @@ import { useEffect, useRef, useCallback } from 'react';
 import * as Y from 'yjs';
 import { MonacoBinding } from 'y-monaco';
 
+// Tempo máximo à espera do estado do servidor antes de ligar o editor
+const SYNC_TIMEOUT_MS = 1500;
+
+// SHA-256 em hex, como o servidor calcula; null sem Web Crypto (contexto não seguro)
+async function contentHash(content) {
+  if (!globalThis.crypto?.subtle) return null;
+  const digest = await crypto.subtle.digest('SHA-256', new TextEncoder().encode(content));
+  return Array.from(new Uint8Array(digest), (b) => b.toString(16).padStart(2, '0')).join('');
+}
+
 /**
  * @param {Object} params
  * @param {string|null} params.activeFile - Caminho do arquivo ativo
@@ -25,6 +45,7 @@ import { MonacoBinding } from 'y-monaco';
  * @param {string} params.userId - ID do usuário atual
  * @param {React.MutableRefObject} params.editorRef - Ref do Monaco Editor
  * @param {React.MutableRefObject} params.stompClientRef - Ref do cliente STOMP
+ * @param {(path: string) => string|null} params.getFileContent - Conteúdo do arquivo carregado do banco
  * @param {boolean} params.enabled - Se o Yjs está habilitado (flag opt-in)
  * @returns {{ isYjsActive: boolean, destroyYjs: () => void }}
  */
@@ -34,15 +55,25 @@ export function useYjsCollaboration({
   userId,
   editorRef,
   stompClientRef,
+  getFileContent,
   enabled = true,
 }) {
   const ydocRef = useRef(null);
   const bindingRef = useRef(null);
   const stompSubRef = useRef(null);
+  const syncSubRef = useRef(null);
   const isApplyingRemoteRef = useRef(false);
+  const getFileContentRef = useRef(getFileContent);
+  getFileContentRef.current = getFileContent;
 
   // Cleanup function
   const destroyYjs = useCallback(() => {
+    try {
+      if (syncSubRef.current) {
+        syncSubRef.current.unsubscribe();
+        syncSubRef.current = null;
+      }
+    } catch (_) { }
     try {
       if (stompSubRef.current) {
         stompSubRef.current.unsubscribe();
@@ -75,37 +106,15 @@ export function useYjsCollaboration({
     ydocRef.current = ydoc;
 
     const ytext = ydoc.getText('content');
-
-    // Sync initial content from Monaco to Yjs
-    const currentContent = editorRef.current.getValue() || '';
-    if (currentContent) {
-      ydoc.transact(() => {
-        ytext.delete(0, ytext.length);
-        ytext.insert(0, currentContent);
-      });
-    }
-
-    // Bind Y.Text to Monaco model only if it matches activeFile
-    try {
-      const model = editorRef.current.getModel();
-      if (!model) return;
-      const modelUri = model.uri ? model.uri.toString() : '';
-      if (modelUri && !modelUri.includes(activeFile) && !modelUri.includes(encodeURIComponent(activeFile))) {
-        // Model not yet switched to activeFile, skip to prevent cross-file contamination
-        return;
+    const toBytes = (b64) => Uint8Array.from(atob(b64), c => c.charCodeAt(0));
+    // Em blocos: um estado grande passado inteiro como argumentos esgota a pilha
+    const toBase64 = (bytes) => {
+      let binary = '';
+      for (let i = 0; i < bytes.length; i += 0x8000) {
+        binary += String.fromCharCode(...bytes.subarray(i, i + 0x8000));
       }
-
-      const binding = new MonacoBinding(
-        ytext,
-        model,
-        new Set([editorRef.current]),
-      );
-      bindingRef.current = binding;
-    } catch (e) {
-      console.warn('[Yjs] MonacoBinding failed, falling back to string mode:', e);
-      destroyYjs();
-      return;
-    }
+      return btoa(binary);
+    };
 
     // Send Yjs updates via STOMP
     const updateHandler = (update, origin) => {
@@ -114,13 +123,12 @@ export function useYjsCollaboration({
       if (!stompClientRef.current?.connected) return;
 
       try {
-        const encoded = btoa(String.fromCharCode(...update));
         stompClientRef.current.publish({
           destination: `/app/yjs/${sessionId}`,
           body: JSON.stringify({
             fileId: activeFile,
             userId,
-            update: encoded,
+            update: toBase64(update),
           }),
         });
       } catch (e) {
@@ -140,9 +148,8 @@ export function useYjsCollaboration({
             // Ignore our own updates or updates for other files
             if (data.userId === userId || data.fileId !== activeFile) return;
 
-            const update = Uint8Array.from(atob(data.update), c => c.charCodeAt(0));
             isApplyingRemoteRef.current = true;
-            Y.applyUpdate(ydoc, update, 'remote');
+            Y.applyUpdate(ydoc, toBytes(data.update), 'remote');
             isApplyingRemoteRef.current = false;
           } catch (e) {
             console.warn('[Yjs] Failed to apply remote update:', e);
@@ -154,9 +161,106 @@ export function useYjsCollaboration({
       // Backend doesn't support Yjs endpoint — degrade gracefully
       console.warn('[Yjs] Backend does not support /topic/yjs — Yjs disabled for this session', e);
       destroyYjs();
+      return;
     }
 
+    // Bind Y.Text to Monaco once the server state (or the timeout) has arrived
+    let bound = false;
+    let syncTimer = null;
+    const bind = () => {
+      if (bound || ydocRef.current !== ydoc || !editorRef.current) return;
+      bound = true;
+      clearTimeout(syncTimer);
+      try {
+        if (syncSubRef.current) {
+          syncSubRef.current.unsubscribe();
+          syncSubRef.current = null;
+        }
+      } catch (_) { }
+
+      // Server has no state for this file yet: seed it from Monaco
+      const currentContent = editorRef.current.getValue() || '';
+      if (ytext.length === 0 && currentContent) {
+        ydoc.transact(() => {
+          ytext.insert(0, currentContent);
+        });
+      }
+
+      try {
+        const model = editorRef.current.getModel();
+        if (!model) return;
+        const modelUri = model.uri ? model.uri.toString() : '';
+        if (modelUri && !modelUri.includes(activeFile) && !modelUri.includes(encodeURIComponent(activeFile))) {
+          // Model not yet switched to activeFile, skip to prevent cross-file contamination
+          return;
+        }
+
+        const binding = new MonacoBinding(
+          ytext,
+          model,
+          new Set([editorRef.current]),
+        );
+        bindingRef.current = binding;
+      } catch (e) {
+        console.warn('[Yjs] MonacoBinding failed, falling back to string mode:', e);
+        destroyYjs();
+      }
+    };
+
+    // Catch up from the server's copy instead of waiting for peers
+    const requestSync = async () => {
+      let hash = null;
+      try {
+        const loaded = getFileContentRef.current?.(activeFile);
+        if (loaded != null) hash = await contentHash(loaded);
+      } catch (_) { }
+      if (ydocRef.current !== ydoc) return;
+      try {
+        syncSubRef.current = stompClientRef.current.subscribe(
+          `/topic/yjs.sync/${sessionId}/${userId}`,
+          (message) => {
+            try {
+              const data = JSON.parse(message.body);
+              if (data.fileId !== activeFile) return;
+              if (data.updates?.length) {
+                const merged = Y.mergeUpdates(data.updates.map(toBytes));
+                Y.applyUpdate(ydoc, merged, 'remote');
+                if (data.compact) {
+                  stompClientRef.current?.publish({
+                    destination: `/app/yjs.compact/${sessionId}`,
+                    body: JSON.stringify({
+                      fileId: activeFile,
+                      state: toBase64(merged),
+                      generation: String(data.generation),
+                      logEntries: String(data.logEntries),
+                    }),
+                  });
+                }
+              }
+            } catch (e) {
+              console.warn('[Yjs] Failed to apply server state:', e);
+            }
+            bind();
+          }
+        );
+        stompClientRef.current.publish({
+          destination: `/app/yjs.sync/${sessionId}`,
+          body: JSON.stringify({
+            fileId: activeFile,
+            userId,
+            contentHash: hash,
+          }),
+        });
+        // Older backend without /yjs.sync: fall back to seeding from Monaco
+        syncTimer = setTimeout(bind, SYNC_TIMEOUT_MS);
+      } catch (e) {
+        bind();
+      }
+    };
+    requestSync();
+
     return () => {
+      clearTimeout(syncTimer);
       ydoc.off('update', updateHandler);
       destroyYjs();
     };
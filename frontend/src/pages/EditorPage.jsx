@@ -50,6 +50,8 @@ import ThemeSwitcher from "../components/ThemeSwitcher";
 export default function EditorPage({ sessionId }) {
   const toast = useToast();
   const [status, setStatus] = useState("Carregando...");
+  // Incrementado em cada (re)ligação do STOMP: quem subscreve tópicos fora do onConnect volta a fazê-lo
+  const [connectionEpoch, setConnectionEpoch] = useState(0);
   const [participants, setParticipants] = useState([]);
   const prevParticipantsRef = useRef([]);
   const [messages, setMessages] = useState([]);
@@ -239,8 +241,15 @@ export default function EditorPage({ sessionId }) {
     userId: myUserIdRef.current,
     editorRef,
     stompClientRef,
+    getFileContent: (path) => {
+      const node = findNodeInTree(treeRoot, path);
+      if (node) return node.content ?? "";
+      return files.find((f) => f.name === path)?.content ?? null;
+    },
     enabled: yjsEnabled,
   });
+  const yjsActiveRef = useRef(false);
+  yjsActiveRef.current = isYjsActive;
 
   const handleSearch = async (query) => {
     try {
@@ -766,6 +775,7 @@ export default function EditorPage({ sessionId }) {
             body: JSON.stringify({
               fileName: debouncedSaveData.path,
               content: debouncedSaveData.content,
+              yjs: yjsActiveRef.current,
             }),
           });
 
@@ -1204,12 +1214,16 @@ export default function EditorPage({ sessionId }) {
 
   const handleCursorEvent = (message) => {
     try {
-      const cursorData = JSON.parse(message.body);
-      if (cursorData.userId === myUserIdRef.current) return;
-      setCursors((prev) => ({
-        ...prev,
-        [cursorData.userId]: cursorData,
-      }));
+      // O servidor envia uma lista por tick (um cursor por utilizador); aceita também o formato antigo
+      const data = JSON.parse(message.body);
+      const updates = (Array.isArray(data) ? data : [data])
+        .filter((c) => c && c.userId && c.userId !== myUserIdRef.current);
+      if (updates.length === 0) return;
+      setCursors((prev) => {
+        const next = { ...prev };
+        updates.forEach((c) => { next[c.userId] = c; });
+        return next;
+      });
     } catch (e) {
       console.error("Error parsing cursor message", e);
     }
@@ -1257,6 +1271,7 @@ export default function EditorPage({ sessionId }) {
       connectHeaders: token ? { Authorization: `Bearer ${token}` } : {},
       onConnect: () => {
         setStatus("Sincronizado!");
+        setConnectionEpoch((epoch) => epoch + 1);
         client.subscribe(`/topic/user/${sessionId}`, handleUserEvent);
         client.subscribe(`/topic/chat/${sessionId}`, handleChatMessage);
         client.subscribe(`/topic/file/${sessionId}`, handleFileEvent);
@@ -1354,6 +1369,13 @@ export default function EditorPage({ sessionId }) {
             }
           } catch (_) { }
         })();
+        // Até chegar o scrollback o output fica retido: o que chegar antes já vem incluído nele
+        let pendingTerminal = [];
+        const flushPendingTerminal = () => {
+          if (!pendingTerminal) return;
+          pendingTerminal.forEach((c) => terminalApiRef.current?.write(c));
+          pendingTerminal = null;
+        };
         client.subscribe(`/topic/terminal/${sessionId}`, (message) => {
           let content = message.body;
           try {
@@ -1362,8 +1384,26 @@ export default function EditorPage({ sessionId }) {
               content = json.output;
             }
           } catch (_) { }
-          terminalApiRef.current?.write(content ?? "");
+          if (pendingTerminal) pendingTerminal.push(content ?? "");
+          else terminalApiRef.current?.write(content ?? "");
+        });
+        client.subscribe(`/topic/terminal.replay/${sessionId}/${myUserIdRef.current}`, (message) => {
+          if (!pendingTerminal) return;
+          if (!message.body) {
+            // sem scrollback (vazio ou desligado): o output retido não vem incluído
+            flushPendingTerminal();
+            return;
+          }
+          pendingTerminal = null;
+          // numa reconexão o ecrã ainda tem o output antigo: limpa antes de repor
+          terminalApiRef.current?.write("\x1bc" + message.body);
+        });
+        client.publish({
+          destination: `/app/terminal.replay/${sessionId}`,
+          body: JSON.stringify({ userId: myUserIdRef.current }),
         });
+        // backend sem replay: liberta o que ficou retido
+        setTimeout(flushPendingTerminal, 1500);
         client.publish({
           destination: `/app/user.join/${sessionId}`,
           body: JSON.stringify({
@@ -1762,6 +1802,8 @@ export default function EditorPage({ sessionId }) {
                 getAuthHeaders={getAuthHeaders}
                 publishTreeEvent={publishTreeEvent}
                 loadTree={loadTree}
+                stompClient={stompClientRef.current}
+                connectionEpoch={connectionEpoch}
               />
             )}
             <ConfirmDialog
@@ -0,0 +1,145 @@
+#!/usr/bin/env node
+// Load test do broker STOMP do sync-service.
+//
+// Para cada nível de concorrência abre N sessões TeamCode com K clientes cada (todos
+// subscritos a /topic/code/{sessão}); um cliente por sessão publica em /app/code/{sessão}
+// ao ritmo pedido. No fim imprime mensagens entregues/s e latência (p50/p99) por nível,
+// para comparar broker.mode=simple com broker.mode=relay.
+//
+// Uso (Node 22+, ou Node 20 com --experimental-websocket):
+//   node --experimental-websocket scripts/broker-load-test.mjs \
+//     --url ws://localhost:8082/ws-connect/websocket --levels 100,1000,5000 \
+//     --clients 2 --rate 5 --duration 30
+
+const args = Object.fromEntries(
+  process.argv.slice(2).reduce((pairs, arg, i, all) => {
+    if (arg.startsWith('--')) pairs.push([arg.slice(2), all[i + 1]]);
+    return pairs;
+  }, []),
+);
+
+const url = args.url || 'ws://localhost:8082/ws-connect/websocket';
+const levels = (args.levels || '100,1000,5000').split(',').map(Number);
+const clientsPerSession = Number(args.clients || 2);
+const ratePerSession = Number(args.rate || 5);
+const durationSec = Number(args.duration || 30);
+const connectBatch = Number(args['connect-batch'] || 200);
+
+if (typeof WebSocket === 'undefined') {
+  console.error('WebSocket global em falta: use Node 22+ ou node --experimental-websocket');
+  process.exit(1);
+}
+
+const frame = (command, headers, body = '') =>
+  command + '\n' + Object.entries(headers).map(([k, v]) => `${k}:${v}`).join('\n') + '\n\n' + body + '\0';
+
+function percentile(sorted, p) {
+  if (sorted.length === 0) return 0;
+  return sorted[Math.min(sorted.length - 1, Math.floor(sorted.length * p))];
+}
+
+function openClient(sessionId, stats) {
+  return new Promise((resolve, reject) => {
+    const ws = new WebSocket(url);
+    let buffer = '';
+    const timer = setTimeout(() => reject(new Error('timeout a ligar')), 15000);
+
+    ws.onopen = () => ws.send(frame('CONNECT', { 'accept-version': '1.2', host: 'teamcode', 'heart-beat': '0,0' }));
+    ws.onerror = (e) => {
+      clearTimeout(timer);
+      reject(e.error || new Error('erro no WebSocket'));
+    };
+    ws.onclose = () => stats.closed++;
+    ws.onmessage = (event) => {
+      buffer += typeof event.data === 'string' ? event.data : Buffer.from(event.data).toString();
+      let end;
+      while ((end = buffer.indexOf('\0')) >= 0) {
+        const raw = buffer.slice(0, end).replace(/^\n+/, '');
+        buffer = buffer.slice(end + 1);
+        const command = raw.slice(0, raw.indexOf('\n'));
+        if (command === 'CONNECTED') {
+          ws.send(frame('SUBSCRIBE', { id: 'sub-0', destination: `/topic/code/${sessionId}` }));
+          clearTimeout(timer);
+          // sem recibo do SUBSCRIBE: dá-lhe um instante antes de contar como pronto
+          setTimeout(() => resolve(ws), 50);
+        } else if (command === 'MESSAGE') {
+          const body = raw.slice(raw.indexOf('\n\n') + 2);
+          try {
+            const sentAt = Number(JSON.parse(body).content);
+            stats.delivered++;
+            if (stats.recording) stats.latencies.push(Date.now() - sentAt);
+          } catch (_) { }
+        } else if (command === 'ERROR') {
+          stats.errors++;
+        }
+      }
+    };
+  });
+}
+
+async function runLevel(sessions) {
+  const stats = { delivered: 0, sent: 0, errors: 0, closed: 0, latencies: [], recording: false };
+  const publishers = [];
+  const sockets = [];
+  const runId = Math.random().toString(36).slice(2, 8);
+
+  const started = Date.now();
+  for (let i = 0; i < sessions; i += connectBatch) {
+    const batch = [];
+    for (let s = i; s < Math.min(sessions, i + connectBatch); s++) {
+      const sessionId = `load-${runId}-${s}`;
+      for (let c = 0; c < clientsPerSession; c++) {
+        batch.push(openClient(sessionId, stats).then((ws) => {
+          sockets.push(ws);
+          if (c === 0) publishers.push({ ws, sessionId });
+        }));
+      }
+    }
+    await Promise.allSettled(batch);
+  }
+  const connectMs = Date.now() - started;
+
+  stats.delivered = 0;
+  stats.recording = true;
+  const intervalMs = 1000 / ratePerSession;
+  const timers = publishers.map(({ ws, sessionId }, i) => setTimeout(() => {
+    const tick = setInterval(() => {
+      if (ws.readyState !== WebSocket.OPEN) return;
+      ws.send(frame('SEND', { destination: `/app/code/${sessionId}`, 'content-type': 'application/json' },
+        JSON.stringify({ content: String(Date.now()), filePath: 'load.txt', userId: 'load' })));
+      stats.sent++;
+    }, intervalMs);
+    timers.push(tick);
+  }, (i * intervalMs) / publishers.length)); // espalha as publicações pelo intervalo
+
+  await new Promise((r) => setTimeout(r, durationSec * 1000));
+  timers.forEach((t) => { clearTimeout(t); clearInterval(t); });
+  await new Promise((r) => setTimeout(r, 1000)); // deixa chegar o que está em trânsito
+  stats.recording = false;
+
+  sockets.forEach((ws) => { try { ws.close(); } catch (_) { } });
+  const sorted = stats.latencies.sort((a, b) => a - b);
+  return {
+    sessions,
+    connected: sockets.length,
+    expectedClients: sessions * clientsPerSession,
+    connectMs,
+    sent: stats.sent,
+    delivered: stats.delivered,
+    expectedDeliveries: stats.sent * clientsPerSession,
+    deliveredPerSec: Math.round(stats.delivered / durationSec),
+    p50Ms: percentile(sorted, 0.5),
+    p99Ms: percentile(sorted, 0.99),
+    maxMs: sorted.length ? sorted[sorted.length - 1] : 0,
+    errors: stats.errors,
+  };
+}
+
+const results = [];
+for (const level of levels) {
+  console.error(`A testar ${level} sessões x ${clientsPerSession} clientes...`);
+  results.push(await runLevel(level));
+  await new Promise((r) => setTimeout(r, 2000));
+}
+console.table(results);
+process.exit(0);
@@ -0,0 +1,96 @@
+#!/usr/bin/env node
+// Soak test de terminais do sync-service: abre N terminais (um por sessão), mantém-nos vivos
+// com um comando periódico e compara /metrics/terminal antes e depois para estimar o custo
+// por terminal (heap da JVM e threads). O RSS do contentor pode ser lido à parte com
+// `docker stats`.
+//
+// Uso (Node 22+, ou Node 20 com --experimental-websocket):
+//   node --experimental-websocket scripts/terminal-soak-test.mjs \
+//     --url ws://localhost:8082/ws-connect/websocket --http http://localhost:8082 \
+//     --terminals 50 --duration 120
+
+const args = Object.fromEntries(
+  process.argv.slice(2).reduce((pairs, arg, i, all) => {
+    if (arg.startsWith('--')) pairs.push([arg.slice(2), all[i + 1]]);
+    return pairs;
+  }, []),
+);
+
+const url = args.url || 'ws://localhost:8082/ws-connect/websocket';
+const http = args.http || 'http://localhost:8082';
+const terminals = Number(args.terminals || 50);
+const durationSec = Number(args.duration || 120);
+
+if (typeof WebSocket === 'undefined') {
+  console.error('WebSocket global em falta: use Node 22+ ou node --experimental-websocket');
+  process.exit(1);
+}
+
+const frame = (command, headers, body = '') =>
+  command + '\n' + Object.entries(headers).map(([k, v]) => `${k}:${v}`).join('\n') + '\n\n' + body + '\0';
+
+const metrics = async () => (await fetch(`${http}/metrics/terminal`)).json();
+
+function openTerminal(sessionId, stats) {
+  return new Promise((resolve, reject) => {
+    const ws = new WebSocket(url);
+    const timer = setTimeout(() => reject(new Error('timeout a ligar')), 15000);
+    ws.onerror = (e) => reject(e.error || new Error('erro no WebSocket'));
+    ws.onopen = () => ws.send(frame('CONNECT', { 'accept-version': '1.2', host: 'teamcode', 'heart-beat': '0,0' }));
+    ws.onmessage = (event) => {
+      const data = typeof event.data === 'string' ? event.data : Buffer.from(event.data).toString();
+      if (data.startsWith('CONNECTED')) {
+        clearTimeout(timer);
+        ws.send(frame('SUBSCRIBE', { id: 'term', destination: `/topic/terminal/${sessionId}` }));
+        ws.send(frame('SEND', { destination: `/app/terminal.start/${sessionId}`, 'content-type': 'application/json' },
+          JSON.stringify({ cols: 80, rows: 24 })));
+        resolve(ws);
+      } else if (data.startsWith('MESSAGE')) {
+        stats.frames++;
+      }
+    };
+  });
+}
+
+const stats = { frames: 0 };
+const before = await metrics();
+const runId = Math.random().toString(36).slice(2, 8);
+const sockets = [];
+for (let i = 0; i < terminals; i++) {
+  const sessionId = `soak-${runId}-${i}`;
+  try {
+    sockets.push({ ws: await openTerminal(sessionId, stats), sessionId });
+  } catch (e) {
+    console.error(`Terminal ${i} falhou: ${e.message}`);
+  }
+}
+
+// tráfego leve e contínuo em cada terminal
+const tick = setInterval(() => {
+  for (const { ws, sessionId } of sockets) {
+    if (ws.readyState !== WebSocket.OPEN) continue;
+    ws.send(frame('SEND', { destination: `/app/terminal.in/${sessionId}`, 'content-type': 'application/json' },
+      JSON.stringify({ input: 'echo soak $RANDOM\n' })));
+  }
+}, 2000);
+
+await new Promise((r) => setTimeout(r, durationSec * 1000));
+const during = await metrics();
+clearInterval(tick);
+
+for (const { ws, sessionId } of sockets) {
+  ws.send(frame('SEND', { destination: `/app/terminal.in/${sessionId}`, 'content-type': 'application/json' },
+    JSON.stringify({ input: 'exit\n' })));
+  ws.close();
+}
+
+const started = during.activeTerminals - before.activeTerminals;
+console.table([{
+  requested: terminals,
+  started,
+  framesReceived: stats.frames,
+  heapDeltaMB: ((during.jvmUsedBytes - before.jvmUsedBytes) / 1048576).toFixed(1),
+  heapPerTerminalKB: started > 0 ? Math.round((during.jvmUsedBytes - before.jvmUsedBytes) / started / 1024) : 0,
+  threadsPerTerminal: started > 0 ? ((during.jvmThreads - before.jvmThreads) / started).toFixed(2) : 0,
+}]);
+process.exit(0);
@@ -0,0 +1,131 @@
+package com.codesync.sessionservice.service;
+
+import com.codesync.sessionservice.dto.TreeNode;
+import com.codesync.sessionservice.model.SessionFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Custo de gravar uma edição de {@code changedFiles} ficheiros num workspace de {@code files}
+ * ficheiros. Compara o flush incremental (só as linhas dos caminhos tocados), a substituição
+ * completa com diff (PUT /api/tree) e o delete-all/insert-all anterior. No fim de cada
+ * benchmark são impressas as linhas de session_file lidas e escritas por operação, que é o que
+ * domina o custo no Postgres; o tempo medido cobre o trabalho em memória.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistDiffBenchmark {
+
+    private static final String PUBLIC_ID = "bench";
+
+    @Param({"10000"})
+    public int files;
+
+    @Param({"1", "100", "1000"})
+    public int changedFiles;
+
+    // "banco": linhas atuais por caminho, e o estado desejado (árvore achatada) por caminho
+    private Map<String, SessionFile> rowsByPath;
+    private Map<String, TreeNode> desired;
+    private List<String> changedPaths;
+    private long edit;
+
+    /** Linhas lidas e escritas pela última operação (todas fazem o mesmo trabalho). */
+    @State(Scope.Thread)
+    public static class Rows {
+        long rowsRead;
+        long rowsWritten;
+
+        @TearDown(Level.Trial)
+        public void report() {
+            System.out.printf("%nsession_file rows per operation: read=%d written=%d%n", rowsRead, rowsWritten);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        List<SessionFile> rows = TreeBuildBenchmark.syntheticRows(PUBLIC_ID, files, 1000);
+        rowsByPath = new LinkedHashMap<>();
+        desired = new LinkedHashMap<>();
+        changedPaths = new ArrayList<>();
+        long id = 1;
+        for (SessionFile row : rows) {
+            row.setId(id++);
+            rowsByPath.put(row.getFilePath(), row);
+            String name = row.getFilePath().substring(row.getFilePath().lastIndexOf('/') + 1);
+            desired.put(row.getFilePath(), new TreeNode(name, row.getType(), row.getContent(), null));
+            if ("file".equals(row.getType()) && changedPaths.size() < changedFiles) {
+                changedPaths.add(row.getFilePath());
+            }
+        }
+    }
+
+    // Cada operação grava uma edição nova nos mesmos ficheiros
+    private void editChangedFiles() {
+        edit++;
+        for (String path : changedPaths) {
+            desired.get(path).setContent("// edit " + edit + "\n");
+        }
+    }
+
+    /** Flush do WorkspaceCache: carrega e reconcilia só os caminhos sujos. */
+    @Benchmark
+    public SessionFileDiff.Plan incrementalFlush(Rows rows) {
+        editChangedFiles();
+        Map<String, TreeNode> dirty = new LinkedHashMap<>();
+        List<SessionFile> loaded = new ArrayList<>(changedPaths.size());
+        for (String path : changedPaths) {
+            dirty.put(path, desired.get(path));
+            loaded.add(rowsByPath.get(path));
+        }
+        List<SessionFile> stale = new ArrayList<>();
+        SessionFileDiff.Plan plan = SessionFileDiff.plan(PUBLIC_ID,
+                SessionFileDiff.indexRows(loaded, stale), dirty, stale);
+        rows.rowsRead = loaded.size();
+        rows.rowsWritten = plan.rowsWritten();
+        return plan;
+    }
+
+    /** Substituição completa com diff: lê todas as linhas, escreve só as que mudaram. */
+    @Benchmark
+    public SessionFileDiff.Plan fullReplaceDiff(Rows rows) {
+        editChangedFiles();
+        List<SessionFile> stale = new ArrayList<>();
+        SessionFileDiff.Plan plan = SessionFileDiff.plan(PUBLIC_ID,
+                SessionFileDiff.indexRows(new ArrayList<>(rowsByPath.values()), stale), desired, stale);
+        rows.rowsRead = rowsByPath.size();
+        rows.rowsWritten = plan.rowsWritten();
+        return plan;
+    }
+
+    /** Persistência anterior: apaga todas as linhas da sessão e volta a inserir a árvore inteira. */
+    @Benchmark
+    public List<SessionFile> legacyDeleteAllInsertAll(Rows rows) {
+        editChangedFiles();
+        List<SessionFile> inserts = new ArrayList<>(desired.size());
+        desired.forEach((path, node) -> inserts.add(SessionFileDiff.newRow(PUBLIC_ID, path, node)));
+        rows.rowsWritten = rowsByPath.size() + inserts.size();
+        return inserts;
+    }
+}
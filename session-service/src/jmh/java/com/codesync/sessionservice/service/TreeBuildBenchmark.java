@@ -0,0 +1,121 @@
+package com.codesync.sessionservice.service;
+
+import com.codesync.sessionservice.dto.TreeNode;
+import com.codesync.sessionservice.model.SessionFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconstrução da árvore a partir de session_file: o builder indexado por caminho
+ * ({@link WorkspaceTreeBuilder}) contra o anterior, que varria os filhos do pai em cada nível.
+ * Workspaces sintéticos com {@code files} ficheiros em pastas de {@code filesPerFolder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeBuildBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int files;
+
+    @Param({"1000"})
+    public int filesPerFolder;
+
+    private List<SessionFile> rows;
+
+    @Setup
+    public void setUp() {
+        rows = syntheticRows("bench", files, filesPerFolder);
+    }
+
+    @Benchmark
+    public TreeNode indexedBuilder() {
+        return WorkspaceTreeBuilder.build(rows);
+    }
+
+    @Benchmark
+    public TreeNode legacyBuilder() {
+        return legacyBuild(rows);
+    }
+
+    /** Linhas de um workspace "src/dirN/fileM.txt", como vêm do banco (pastas e ficheiros). */
+    static List<SessionFile> syntheticRows(String publicId, int files, int filesPerFolder) {
+        List<SessionFile> rows = new ArrayList<>(files + files / filesPerFolder + 2);
+        rows.add(new SessionFile(null, publicId, "src", "folder", "", null));
+        for (int i = 0; i < files; i++) {
+            String folder = "src/dir" + (i / filesPerFolder);
+            if (i % filesPerFolder == 0) {
+                rows.add(new SessionFile(null, publicId, folder, "folder", "", null));
+            }
+            rows.add(new SessionFile(null, publicId, folder + "/file" + i + ".txt", "file",
+                    "// file " + i + "\n", null));
+        }
+        return rows;
+    }
+
+    // Builder anterior: ensureFolder e o teste de duplicados percorrem os filhos do pai
+    private static TreeNode legacyBuild(List<SessionFile> files) {
+        TreeNode root = TreeNode.folder("");
+        for (SessionFile f : files) {
+            List<String> parts = legacySplitPath(f.getFilePath());
+            if (parts.isEmpty()) continue;
+
+            String name = parts.get(parts.size() - 1);
+            TreeNode parent = legacyEnsureFolder(root, parts.subList(0, parts.size() - 1));
+
+            TreeNode node = new TreeNode();
+            node.setName(name);
+            node.setType(f.getType());
+            node.setContent(f.getContent());
+            if ("folder".equals(f.getType())) {
+                node.setChildren(new ArrayList<>());
+            }
+            if (parent.getChildren() == null) parent.setChildren(new ArrayList<>());
+
+            if (parent.getChildren().stream().noneMatch(c -> c.getName().equals(name))) {
+                parent.getChildren().add(node);
+            }
+        }
+        return root;
+    }
+
+    private static List<String> legacySplitPath(String path) {
+        String p = path.replaceAll("/+", "/").replaceAll("^/+|/+$", "");
+        if (p.isEmpty()) return new ArrayList<>();
+        return Arrays.asList(p.split("/"));
+    }
+
+    private static TreeNode legacyEnsureFolder(TreeNode root, List<String> parts) {
+        TreeNode current = root;
+        for (String part : parts) {
+            TreeNode next = null;
+            if (current.getChildren() == null) current.setChildren(new ArrayList<>());
+            for (TreeNode c : current.getChildren()) {
+                if (c.getName().equals(part) && "folder".equals(c.getType())) { next = c; break; }
+            }
+            if (next == null) {
+                next = TreeNode.folder(part);
+                current.getChildren().add(next);
+            }
+            current = next;
+        }
+        return current;
+    }
+}
@@ -2,8 +2,10 @@ package com.codesync.sessionservice;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class SessionServiceApplication {
     public static void main(String[] args) {
         SpringApplication.run(SessionServiceApplication.class, args);
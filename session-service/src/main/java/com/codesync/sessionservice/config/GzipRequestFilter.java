@@ -0,0 +1,185 @@
+package com.codesync.sessionservice.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Aceita corpos de pedido com Content-Encoding: gzip (o sync-service comprime as árvores e
+ * patches grandes que envia para /api/tree). O corpo é descomprimido em streaming e limitado a
+ * {@code server.gzip-request.max-inflated-bytes}, para um pedido pequeno não se expandir sem fim.
+ * Todas as respostas a estes pedidos levam o cabeçalho {@value #HANDLED_HEADER}: com ele o
+ * sync-service sabe que um 400 vem do pedido (ex.: limite excedido) e não da falta de suporte
+ * a gzip, e não desliga a compressão.
+ *
+ * Só há leitura bloqueante do corpo descomprimido, que é o que os controllers fazem com
+ * {@code @RequestBody}. O inflater pode precisar de mais bytes comprimidos do que os disponíveis
+ * sem que haja forma de o saber antes de ler, por isso não é possível cumprir o contrato de
+ * {@code isReady()} do I/O não bloqueante: {@code setReadListener} falha com
+ * IllegalStateException, a mesma exceção que o contentor lança num pedido que não está em
+ * modo assíncrono.
+ */
+@Component
+public class GzipRequestFilter extends OncePerRequestFilter {
+
+    public static final String HANDLED_HEADER = "X-Gzip-Request";
+
+    private final long maxInflatedBytes;
+
+    public GzipRequestFilter(@Value("${server.gzip-request.max-inflated-bytes:67108864}") long maxInflatedBytes) {
+        this.maxInflatedBytes = maxInflatedBytes;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"gzip".equalsIgnoreCase(request.getHeader("Content-Encoding"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        response.setHeader(HANDLED_HEADER, "inflated");
+        GZIPInputStream body;
+        try {
+            body = new GZIPInputStream(request.getInputStream());
+        } catch (IOException e) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), "Corpo gzip inválido");
+            return;
+        }
+        chain.doFilter(new InflatedRequest(request, new LimitedInputStream(body, maxInflatedBytes)), response);
+    }
+
+    private static final class InflatedRequest extends HttpServletRequestWrapper {
+
+        private final ServletInputStream body;
+
+        InflatedRequest(HttpServletRequest request, InputStream inflated) {
+            super(request);
+            this.body = new ServletInputStream() {
+                private boolean finished;
+
+                @Override
+                public int read() throws IOException {
+                    int b = inflated.read();
+                    if (b < 0) finished = true;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buf, int off, int len) throws IOException {
+                    int n = inflated.read(buf, off, len);
+                    if (n < 0) finished = true;
+                    return n;
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return finished;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                // Ver a nota da classe: o corpo comprimido só se lê em modo bloqueante
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    throw new IllegalStateException("Leitura não bloqueante não suportada em corpos de pedido gzip");
+                }
+            };
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            return body;
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String charset = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(body,
+                    charset != null ? java.nio.charset.Charset.forName(charset) : StandardCharsets.UTF_8));
+        }
+
+        // O tamanho descomprimido só se sabe no fim
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if ("Content-Encoding".equalsIgnoreCase(name)) return null;
+            if ("Content-Length".equalsIgnoreCase(name)) return null;
+            return super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            if ("Content-Encoding".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name)) {
+                return Collections.emptyEnumeration();
+            }
+            return super.getHeaders(name);
+        }
+    }
+
+    private static final class LimitedInputStream extends InputStream {
+
+        private final InputStream in;
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) consume(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int n = in.read(buf, off, len);
+            if (n > 0) consume(n);
+            return n;
+        }
+
+        private void consume(int n) throws IOException {
+            remaining -= n;
+            if (remaining < 0) {
+                throw new IOException("Corpo gzip do pedido excede o limite de tamanho descomprimido");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.codesync.sessionservice.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Timeout assíncrono escolhido pelo handler para o seu pedido, em vez de um
+ * spring.mvc.async.request-timeout global. O handler chama {@link #set} antes de devolver o
+ * corpo assíncrono (ex.: StreamingResponseBody); o timeout é aplicado antes de o processamento
+ * assíncrono começar, que é o último momento em que ainda pode mudar.
+ */
+public class RequestAsyncTimeout implements CallableProcessingInterceptor {
+
+    private static final String ATTRIBUTE = RequestAsyncTimeout.class.getName() + ".timeoutMs";
+
+    public static void set(HttpServletRequest request, long timeoutMs) {
+        request.setAttribute(ATTRIBUTE, timeoutMs);
+    }
+
+    @Override
+    public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+        Object timeout = request.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (timeout instanceof Long ms && request instanceof AsyncWebRequest asyncRequest) {
+            asyncRequest.setTimeout(ms);
+        }
+    }
+}
@@ -5,6 +5,8 @@ import com.codesync.sessionservice.model.CodingSession;
 import com.codesync.sessionservice.repository.AIUsageLogRepository;
 import com.codesync.sessionservice.repository.CodingSessionRepository;
 import com.codesync.sessionservice.repository.SessionFileRepository;
+import com.codesync.sessionservice.service.LegacyFilesJsonMigrationJob;
+import com.codesync.sessionservice.service.WorkspaceCache;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -22,13 +24,19 @@ public class AdminMetricsController {
     private final AIUsageLogRepository aiUsageLogRepository;
     private final CodingSessionRepository codingSessionRepository;
     private final SessionFileRepository sessionFileRepository;
+    private final WorkspaceCache workspaceCache;
+    private final LegacyFilesJsonMigrationJob legacyMigrationJob;
 
     public AdminMetricsController(AIUsageLogRepository aiUsageLogRepository,
             CodingSessionRepository codingSessionRepository,
-            SessionFileRepository sessionFileRepository) {
+            SessionFileRepository sessionFileRepository,
+            WorkspaceCache workspaceCache,
+            LegacyFilesJsonMigrationJob legacyMigrationJob) {
         this.aiUsageLogRepository = aiUsageLogRepository;
         this.codingSessionRepository = codingSessionRepository;
         this.sessionFileRepository = sessionFileRepository;
+        this.workspaceCache = workspaceCache;
+        this.legacyMigrationJob = legacyMigrationJob;
     }
 
     /**
@@ -74,6 +82,7 @@ public class AdminMetricsController {
         response.put("jvmMemory", jvmMemory);
         response.put("disk", diskMetrics);
         response.put("system", system);
+        response.put("workspaceCache", workspaceCache.stats());
         response.put("timestamp", Instant.now().toString());
 
         return ResponseEntity.ok(response);
@@ -150,6 +159,15 @@ public class AdminMetricsController {
         }
 
         codingSessionRepository.delete(sessionOpt.get());
+        workspaceCache.invalidate(publicId);
         return ResponseEntity.ok(Map.of("message", "Sessão removida com sucesso!"));
     }
+
+    /**
+     * One-off migration of legacy files_json sessions into session_file.
+     */
+    @PostMapping("/migrate-legacy-files")
+    public ResponseEntity<Map<String, Object>> migrateLegacyFiles() {
+        return ResponseEntity.ok(legacyMigrationJob.run());
+    }
 }
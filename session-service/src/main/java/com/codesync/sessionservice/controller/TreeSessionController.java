@@ -1,13 +1,20 @@
 package com.codesync.sessionservice.controller;
 
 import com.codesync.sessionservice.dto.TreeNode;
+import com.codesync.sessionservice.service.FileHistoryService;
 import com.codesync.sessionservice.service.TreeSessionService;
+import com.codesync.sessionservice.config.RequestAsyncTimeout;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.http.HttpHeaders;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
@@ -16,9 +23,15 @@ import java.util.NoSuchElementException;
 public class TreeSessionController {
 
     private final TreeSessionService treeService;
+    private final FileHistoryService historyService;
 
-    public TreeSessionController(TreeSessionService treeService) {
+    // Tempo máximo de um download de zip em streaming (clientes lentos em projetos grandes)
+    @Value("${workspace.export.download-timeout-ms:600000}")
+    private long downloadTimeoutMs;
+
+    public TreeSessionController(TreeSessionService treeService, FileHistoryService historyService) {
         this.treeService = treeService;
+        this.historyService = historyService;
     }
 
     @GetMapping("/{publicId}")
@@ -126,17 +139,27 @@ public class TreeSessionController {
     }
 
     @GetMapping("/{publicId}/download")
-    @SuppressWarnings("null")
-    public ResponseEntity<?> download(@PathVariable String publicId) throws Exception {
-        try {
-            byte[] zipBytes = treeService.downloadProject(publicId);
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"project-" + publicId + ".zip\"")
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(zipBytes);
-        } catch (Exception ex) {
-            return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
+    public ResponseEntity<?> download(@PathVariable String publicId, HttpServletRequest request) {
+        if (!treeService.sessionExists(publicId)) {
+            return ResponseEntity.status(404).body(Map.of("error", "Sessão não encontrada"));
         }
+        // o zip é escrito diretamente na resposta: os primeiros bytes saem antes de o projeto ser
+        // todo lido, e cada página de linhas é lida numa transação própria (nenhuma ligação ao
+        // banco fica presa enquanto o cliente consome). O timeout longo vale só para este pedido.
+        RequestAsyncTimeout.set(request, downloadTimeoutMs);
+        StreamingResponseBody body = out -> {
+            try {
+                treeService.writeProjectZip(publicId, out);
+            } catch (IOException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IOException(ex.getMessage(), ex);
+            }
+        };
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"project-" + publicId + ".zip\"")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(body);
     }
 
     @PostMapping(path = "/{publicId}/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -151,11 +174,24 @@ public class TreeSessionController {
         }
     }
 
+    /**
+     * Pesquisa no projeto. O corpo continua a ser a lista de ocorrências; quando há mais
+     * resultados, o header X-Next-Offset indica o offset da página seguinte.
+     */
     @GetMapping("/{publicId}/search")
-    public ResponseEntity<?> search(@PathVariable String publicId, @RequestParam String query) throws Exception {
+    public ResponseEntity<?> search(@PathVariable String publicId, @RequestParam String query,
+            @RequestParam(defaultValue = "false") boolean caseSensitive,
+            @RequestParam(defaultValue = "false") boolean wholeWord,
+            @RequestParam(defaultValue = "false") boolean regex,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "100") int limit) throws Exception {
         try {
-            var results = treeService.searchProject(publicId, query);
-            return ResponseEntity.ok(results);
+            var page = treeService.searchProject(publicId, query, caseSensitive, wholeWord, regex, offset, limit);
+            var response = ResponseEntity.ok();
+            if (page.hasMore()) {
+                response.header("X-Next-Offset", String.valueOf(offset + page.results().size()));
+            }
+            return response.body(page.results());
         } catch (Exception ex) {
             return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
         }
@@ -167,19 +203,81 @@ public class TreeSessionController {
         String content = body.get("content");
         String username = body.get("username");
         try {
-            treeService.createSnapshot(publicId, path, content, username);
-            return ResponseEntity.ok().build();
+            return ResponseEntity.ok(historyService.createSnapshot(publicId, path, content, username));
         } catch (Exception ex) {
             return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
         }
     }
 
+    // Só metadados; o conteúdo de cada snapshot vem de /history/{snapshotId}
     @GetMapping("/{publicId}/history")
     public ResponseEntity<?> getHistory(@PathVariable String publicId, @RequestParam String path) {
         try {
-            return ResponseEntity.ok(treeService.getFileHistory(publicId, path));
+            return ResponseEntity.ok(historyService.listSnapshots(publicId, path));
+        } catch (Exception ex) {
+            return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
+        }
+    }
+
+    @GetMapping("/{publicId}/history/{snapshotId}")
+    public ResponseEntity<?> getSnapshot(@PathVariable String publicId, @PathVariable Long snapshotId) {
+        try {
+            return ResponseEntity.ok(historyService.getSnapshot(publicId, snapshotId));
+        } catch (NoSuchElementException ex) {
+            return ResponseEntity.status(404).body(Map.of("error", ex.getMessage()));
         } catch (Exception ex) {
             return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
         }
     }
+
+    /**
+     * Caminho -> SHA-256 do conteúdo de cada ficheiro, para o sync-service sincronizar o disco
+     * só com o que mudou. Com If-None-Match igual ao ETag atual responde 304 sem corpo.
+     */
+    @GetMapping("/{publicId}/manifest")
+    public ResponseEntity<?> getManifest(@PathVariable String publicId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws Exception {
+        try {
+            var manifest = treeService.getManifest(publicId, ifNoneMatch);
+            if (manifest.files() == null) {
+                return ResponseEntity.status(304).eTag(manifest.etag()).build();
+            }
+            return ResponseEntity.ok().eTag(manifest.etag())
+                    .body(Map.of("publicId", publicId, "files", manifest.files()));
+        } catch (NoSuchElementException ex) {
+            return ResponseEntity.status(404).body(Map.of("error", ex.getMessage()));
+        }
+    }
+
+    // Conteúdo de vários ficheiros de uma vez (body: {"paths": [...]}, no máximo 1000)
+    @PostMapping(path = "/{publicId}/contents", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getContents(@PathVariable String publicId, @RequestBody Map<String, List<String>> body)
+            throws Exception {
+        try {
+            return ResponseEntity.ok(Map.of("files", treeService.getContents(publicId, body.get("paths"))));
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
+        } catch (NoSuchElementException ex) {
+            return ResponseEntity.status(404).body(Map.of("error", ex.getMessage()));
+        }
+    }
+
+    /**
+     * Alterações em lote vindas do sync-service depois de pull/checkout/clone
+     * (body: {"upserts": {caminho: conteúdo}, "deletes": [caminhos]}, no máximo 1000 caminhos).
+     */
+    @PostMapping(path = "/{publicId}/patch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<?> patch(@PathVariable String publicId, @RequestBody Map<String, Object> body)
+            throws Exception {
+        try {
+            int changed = treeService.applyPatch(publicId,
+                    (Map<String, String>) body.get("upserts"), (List<String>) body.get("deletes"));
+            return ResponseEntity.ok(Map.of("changed", changed));
+        } catch (IllegalArgumentException | ClassCastException ex) {
+            return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
+        } catch (NoSuchElementException ex) {
+            return ResponseEntity.status(404).body(Map.of("error", ex.getMessage()));
+        }
+    }
 }
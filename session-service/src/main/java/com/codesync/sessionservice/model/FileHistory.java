@@ -4,7 +4,10 @@ import jakarta.persistence.*;
 import java.util.Date;
 
 @Entity
-@Table(name = "file_history")
+@Table(name = "file_history", indexes = {
+    @Index(name = "idx_file_history_file", columnList = "session_public_id, file_name"),
+    @Index(name = "idx_file_history_blob", columnList = "blob_id")
+})
 public class FileHistory {
 
     @Id
@@ -17,9 +20,19 @@ public class FileHistory {
     @Column(name = "file_name", nullable = false)
     private String fileName;
 
+    // Só preenchido nos snapshots antigos; os novos guardam o conteúdo em history_blob
     @Column(name = "content", columnDefinition = "text")
     private String content;
 
+    @Column(name = "blob_id")
+    private Long blobId;
+
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    @Column(name = "content_length")
+    private Integer contentLength;
+
     @Column(name = "created_at", nullable = false)
     @Temporal(TemporalType.TIMESTAMP)
     private Date createdAt = new Date();
@@ -71,6 +84,30 @@ public class FileHistory {
         this.content = content;
     }
 
+    public Long getBlobId() {
+        return blobId;
+    }
+
+    public void setBlobId(Long blobId) {
+        this.blobId = blobId;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public Integer getContentLength() {
+        return contentLength;
+    }
+
+    public void setContentLength(Integer contentLength) {
+        this.contentLength = contentLength;
+    }
+
     public Date getCreatedAt() {
         return createdAt;
     }
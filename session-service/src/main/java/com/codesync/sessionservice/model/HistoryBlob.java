@@ -0,0 +1,140 @@
+package com.codesync.sessionservice.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Conteúdo de um snapshot, endereçado pelo hash (SHA-256) e partilhado pelos snapshots
+ * com o mesmo conteúdo na sessão. Um blob "key" guarda o conteúdo inteiro; um blob "delta"
+ * guarda as diferenças em relação ao keyframe {@code baseBlobId}.
+ */
+@Entity
+@Table(name = "history_blob",
+       uniqueConstraints = @UniqueConstraint(name = "uk_history_blob_hash", columnNames = {"session_public_id", "content_hash"}),
+       indexes = @Index(name = "idx_history_blob_base", columnList = "base_blob_id"))
+public class HistoryBlob {
+
+    public static final String KIND_KEY = "key";
+    public static final String KIND_DELTA = "delta";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "session_public_id", nullable = false)
+    private String sessionPublicId;
+
+    @Column(name = "content_hash", nullable = false, length = 64)
+    private String contentHash;
+
+    @Column(name = "kind", nullable = false, length = 8)
+    private String kind;
+
+    @Column(name = "base_blob_id")
+    private Long baseBlobId;
+
+    // Número de deltas gravados contra o mesmo keyframe até este (0 para keyframes)
+    @Column(name = "chain_depth", nullable = false)
+    private int chainDepth;
+
+    @Column(name = "content_length", nullable = false)
+    private int contentLength;
+
+    @Column(name = "data", columnDefinition = "text")
+    private String data;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    // Último snapshot que o gravou ou reutilizou (ou que o usou como keyframe); a recolha de
+    // blobs órfãos só os apaga passado o prazo de graça
+    @Column(name = "last_used_at")
+    private LocalDateTime lastUsedAt;
+
+    public HistoryBlob() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getSessionPublicId() {
+        return sessionPublicId;
+    }
+
+    public void setSessionPublicId(String sessionPublicId) {
+        this.sessionPublicId = sessionPublicId;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public void setKind(String kind) {
+        this.kind = kind;
+    }
+
+    public boolean isKeyframe() {
+        return KIND_KEY.equals(kind);
+    }
+
+    public Long getBaseBlobId() {
+        return baseBlobId;
+    }
+
+    public void setBaseBlobId(Long baseBlobId) {
+        this.baseBlobId = baseBlobId;
+    }
+
+    public int getChainDepth() {
+        return chainDepth;
+    }
+
+    public void setChainDepth(int chainDepth) {
+        this.chainDepth = chainDepth;
+    }
+
+    public int getContentLength() {
+        return contentLength;
+    }
+
+    public void setContentLength(int contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public void setData(String data) {
+        this.data = data;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    public void setLastUsedAt(LocalDateTime lastUsedAt) {
+        this.lastUsedAt = lastUsedAt;
+    }
+}
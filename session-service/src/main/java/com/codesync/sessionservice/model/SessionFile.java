@@ -5,7 +5,8 @@ import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "session_file", indexes = {
-    @Index(name = "idx_session_file_public_id", columnList = "session_public_id")
+    @Index(name = "idx_session_file_public_id", columnList = "session_public_id"),
+    @Index(name = "idx_session_file_public_id_path", columnList = "session_public_id, file_path")
 })
 public class SessionFile {
 
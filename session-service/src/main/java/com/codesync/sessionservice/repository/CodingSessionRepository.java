@@ -2,6 +2,9 @@ package com.codesync.sessionservice.repository;
 
 import com.codesync.sessionservice.model.CodingSession;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -13,4 +16,18 @@ public interface CodingSessionRepository extends JpaRepository<CodingSession, Lo
     
     // Buscar sessões de um usuário específico
     java.util.List<CodingSession> findByOwnerUsername(String ownerUsername);
+
+    boolean existsByPublicId(String publicId);
+
+    // Sessões que ainda têm o files_json legado (candidatas à migração para session_file)
+    @Query("SELECT s.publicId FROM CodingSession s WHERE s.filesJson IS NOT NULL")
+    java.util.List<String> findPublicIdsWithFilesJson();
+
+    @Modifying
+    @Query("UPDATE CodingSession s SET s.filesJson = :filesJson WHERE s.publicId = :publicId")
+    int updateFilesJson(@Param("publicId") String publicId, @Param("filesJson") String filesJson);
+
+    @Modifying
+    @Query("UPDATE CodingSession s SET s.filesJson = NULL WHERE s.publicId = :publicId AND s.filesJson IS NOT NULL")
+    int clearFilesJson(@Param("publicId") String publicId);
 }
\ No newline at end of file
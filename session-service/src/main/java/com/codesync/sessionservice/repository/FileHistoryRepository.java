@@ -2,11 +2,41 @@ package com.codesync.sessionservice.repository;
 
 import com.codesync.sessionservice.model.FileHistory;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface FileHistoryRepository extends JpaRepository<FileHistory, Long> {
+
+    /** Metadados de um snapshot, sem o conteúdo. */
+    interface SnapshotSummary {
+        Long getId();
+        Date getCreatedAt();
+        String getCreatedBy();
+        String getContentHash();
+        Integer getContentLength();
+    }
+
     List<FileHistory> findBySessionPublicIdAndFileNameOrderByCreatedAtDesc(String sessionPublicId, String fileName);
+
+    @Query("select h.id as id, h.createdAt as createdAt, h.createdBy as createdBy, h.contentHash as contentHash, " +
+           "coalesce(h.contentLength, length(h.content)) as contentLength " +
+           "from FileHistory h where h.sessionPublicId = :publicId and h.fileName = :fileName " +
+           "order by h.createdAt desc, h.id desc")
+    List<SnapshotSummary> findSummaries(@Param("publicId") String sessionPublicId, @Param("fileName") String fileName);
+
+    Optional<FileHistory> findFirstBySessionPublicIdAndFileNameOrderByCreatedAtDescIdDesc(String sessionPublicId, String fileName);
+
+    Optional<FileHistory> findByIdAndSessionPublicId(Long id, String sessionPublicId);
+
+    @Query("select distinct h.sessionPublicId from FileHistory h")
+    List<String> findSessionPublicIds();
+
+    @Query("select distinct h.fileName from FileHistory h where h.sessionPublicId = :publicId")
+    List<String> findFileNames(@Param("publicId") String sessionPublicId);
 }
@@ -0,0 +1,42 @@
+package com.codesync.sessionservice.repository;
+
+import com.codesync.sessionservice.model.HistoryBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface HistoryBlobRepository extends JpaRepository<HistoryBlob, Long> {
+    Optional<HistoryBlob> findBySessionPublicIdAndContentHash(String sessionPublicId, String contentHash);
+
+    // Snapshots concorrentes com o mesmo conteúdo: quem perde a corrida não insere nada e relê
+    @Modifying
+    @Query(value = "insert into history_blob (session_public_id, content_hash, kind, base_blob_id, chain_depth, " +
+                   "content_length, data, created_at, last_used_at) " +
+                   "values (:publicId, :hash, :kind, cast(:baseBlobId as bigint), :chainDepth, :length, :data, :now, :now) " +
+                   "on conflict (session_public_id, content_hash) do nothing", nativeQuery = true)
+    int insertIfAbsent(@Param("publicId") String sessionPublicId, @Param("hash") String contentHash,
+                       @Param("kind") String kind, @Param("baseBlobId") Long baseBlobId,
+                       @Param("chainDepth") int chainDepth, @Param("length") int contentLength,
+                       @Param("data") String data, @Param("now") LocalDateTime now);
+
+    // Marca o blob como usado agora; 0 se já foi recolhido. O lock da linha faz a recolha
+    // concorrente esperar e reavaliar o prazo de graça
+    @Modifying
+    @Query("update HistoryBlob b set b.lastUsedAt = :now where b.id = :id")
+    int touch(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    // Blobs que nenhum snapshot referencia, que não servem de keyframe a outro blob e que não
+    // foram usados desde o cutoff (um snapshot ainda por gravar pode estar a reutilizá-los)
+    @Modifying
+    @Query("delete from HistoryBlob b where b.sessionPublicId = :publicId " +
+           "and coalesce(b.lastUsedAt, b.createdAt) < :cutoff " +
+           "and not exists (select 1 from FileHistory h where h.blobId = b.id) " +
+           "and not exists (select 1 from HistoryBlob d where d.baseBlobId = b.id)")
+    int deleteUnreferenced(@Param("publicId") String sessionPublicId, @Param("cutoff") LocalDateTime cutoff);
+}
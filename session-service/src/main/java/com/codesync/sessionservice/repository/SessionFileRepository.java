@@ -1,9 +1,13 @@
 package com.codesync.sessionservice.repository;
 
 import com.codesync.sessionservice.model.SessionFile;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,8 +16,17 @@ public interface SessionFileRepository extends JpaRepository<SessionFile, Long>
     List<SessionFile> findBySessionPublicId(String sessionPublicId);
     
     Optional<SessionFile> findBySessionPublicIdAndFilePath(String sessionPublicId, String filePath);
+
+    List<SessionFile> findBySessionPublicIdAndFilePathIn(String sessionPublicId, Collection<String> filePaths);
     
     void deleteBySessionPublicIdAndFilePathStartingWith(String sessionPublicId, String prefix);
     
     void deleteBySessionPublicId(String sessionPublicId);
+
+    boolean existsBySessionPublicId(String sessionPublicId);
+
+    // Página da exportação por keyset: caminhos depois de 'after', por ordem (índice session+path)
+    @Query("select f from SessionFile f where f.sessionPublicId = :publicId and f.filePath > :after order by f.filePath")
+    List<SessionFile> findExportPage(@Param("publicId") String sessionPublicId, @Param("after") String after,
+                                     Pageable page);
 }
@@ -0,0 +1,246 @@
+package com.codesync.sessionservice.service;
+
+import com.codesync.sessionservice.model.FileHistory;
+import com.codesync.sessionservice.model.HistoryBlob;
+import com.codesync.sessionservice.repository.FileHistoryRepository;
+import com.codesync.sessionservice.repository.HistoryBlobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Histórico de snapshots (Time Machine). O conteúdo é endereçado pelo hash e deduplicado por
+ * sessão; versões sucessivas de um ficheiro são gravadas como delta contra o último keyframe,
+ * com um keyframe novo a cada {@code history.keyframe-interval} versões ou quando o delta deixa
+ * de compensar. A listagem devolve só metadados; o conteúdo é reconstruído a pedido.
+ *
+ * Os blobs que deixam de ser referenciados só são apagados pela compactação agendada, numa
+ * transação própria e passado {@code history.gc.grace-minutes} desde o último uso, para não
+ * apagar um blob que um snapshot concorrente ainda por gravar acabou de reutilizar.
+ */
+@Service
+public class FileHistoryService {
+
+    private static final Logger log = LoggerFactory.getLogger(FileHistoryService.class);
+
+    // Acima desta fração do conteúdo o delta não compensa e grava-se um keyframe
+    private static final double MAX_DELTA_RATIO = 0.5;
+
+    private final FileHistoryRepository historyRepo;
+    private final HistoryBlobRepository blobRepo;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${history.keyframe-interval:32}")
+    private int keyframeInterval;
+
+    // 0 = sem limite
+    @Value("${history.retention.max-snapshots-per-file:0}")
+    private int maxSnapshotsPerFile;
+
+    // 0 = sem limite de idade
+    @Value("${history.retention.max-age-days:0}")
+    private int maxAgeDays;
+
+    @Value("${history.gc.grace-minutes:60}")
+    private long gcGraceMinutes;
+
+    public FileHistoryService(FileHistoryRepository historyRepo, HistoryBlobRepository blobRepo,
+                              TransactionTemplate transactionTemplate) {
+        this.historyRepo = historyRepo;
+        this.blobRepo = blobRepo;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @Transactional
+    public Map<String, Object> createSnapshot(String publicId, String path, String content, String username) {
+        if (path == null || path.isBlank()) throw new IllegalArgumentException("Caminho obrigatório");
+        String text = content == null ? "" : content;
+        String hash = sha256(text);
+
+        HistoryBlob blob = findOrStoreBlob(publicId, path, text, hash);
+
+        FileHistory history = new FileHistory();
+        history.setSessionPublicId(publicId);
+        history.setFileName(path);
+        history.setBlobId(blob.getId());
+        history.setContentHash(hash);
+        history.setContentLength(text.length());
+        history.setCreatedBy(username);
+        historyRepo.save(history);
+
+        trimFile(publicId, path);
+        return summary(history.getId(), history.getCreatedAt(), username, hash, text.length());
+    }
+
+    private HistoryBlob findOrStoreBlob(String publicId, String path, String content, String hash) {
+        LocalDateTime now = LocalDateTime.now();
+        Optional<HistoryBlob> existing = blobRepo.findBySessionPublicIdAndContentHash(publicId, hash);
+        if (existing.isPresent() && blobRepo.touch(existing.get().getId(), now) > 0) {
+            return existing.get();
+        }
+        HistoryBlob blob = newBlob(publicId, path, content, hash, now);
+        // outro snapshot pode ter gravado o mesmo conteúdo entretanto: fica o blob dele
+        blobRepo.insertIfAbsent(publicId, hash, blob.getKind(), blob.getBaseBlobId(), blob.getChainDepth(),
+                blob.getContentLength(), blob.getData(), now);
+        return blobRepo.findBySessionPublicIdAndContentHash(publicId, hash)
+                .orElseThrow(() -> new IllegalStateException("Blob de histórico em falta: " + hash));
+    }
+
+    private HistoryBlob newBlob(String publicId, String path, String content, String hash, LocalDateTime now) {
+        HistoryBlob blob = new HistoryBlob();
+        blob.setSessionPublicId(publicId);
+        blob.setContentHash(hash);
+        blob.setContentLength(content.length());
+
+        Keyframe keyframe = latestKeyframe(publicId, path);
+        String delta = null;
+        // o keyframe também é marcado como usado, para não ser recolhido debaixo do novo delta
+        if (keyframe != null && keyframe.depthForNext() < keyframeInterval
+                && blobRepo.touch(keyframe.blob().getId(), now) > 0) {
+            String candidate = HistoryDelta.encode(keyframe.blob().getData(), content);
+            if (candidate.length() < content.length() * MAX_DELTA_RATIO) {
+                delta = candidate;
+                blob.setBaseBlobId(keyframe.blob().getId());
+                blob.setChainDepth(keyframe.depthForNext());
+            }
+        }
+        if (delta != null) {
+            blob.setKind(HistoryBlob.KIND_DELTA);
+            blob.setData(delta);
+        } else {
+            blob.setKind(HistoryBlob.KIND_KEY);
+            blob.setChainDepth(0);
+            blob.setData(content);
+        }
+        return blob;
+    }
+
+    private record Keyframe(HistoryBlob blob, int depthForNext) {
+    }
+
+    // Keyframe do snapshot mais recente do ficheiro (base do próximo delta)
+    private Keyframe latestKeyframe(String publicId, String path) {
+        FileHistory latest = historyRepo.findFirstBySessionPublicIdAndFileNameOrderByCreatedAtDescIdDesc(publicId, path)
+                .orElse(null);
+        if (latest == null || latest.getBlobId() == null) return null;
+        HistoryBlob blob = blobRepo.findById(latest.getBlobId()).orElse(null);
+        if (blob == null) return null;
+        if (blob.isKeyframe()) return new Keyframe(blob, 1);
+        return blobRepo.findById(blob.getBaseBlobId())
+                .map(key -> new Keyframe(key, blob.getChainDepth() + 1))
+                .orElse(null);
+    }
+
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> listSnapshots(String publicId, String path) {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (FileHistoryRepository.SnapshotSummary s : historyRepo.findSummaries(publicId, path)) {
+            out.add(summary(s.getId(), s.getCreatedAt(), s.getCreatedBy(), s.getContentHash(), s.getContentLength()));
+        }
+        return out;
+    }
+
+    @Transactional(readOnly = true)
+    public Map<String, Object> getSnapshot(String publicId, Long snapshotId) {
+        FileHistory history = historyRepo.findByIdAndSessionPublicId(snapshotId, publicId)
+                .orElseThrow(() -> new NoSuchElementException("Snapshot não encontrado"));
+        String content = history.getBlobId() == null
+                ? Objects.requireNonNullElse(history.getContent(), "") // snapshot antigo, conteúdo inline
+                : contentOf(loadBlob(history.getBlobId()));
+        Map<String, Object> out = summary(history.getId(), history.getCreatedAt(), history.getCreatedBy(),
+                history.getContentHash(), content.length());
+        out.put("fileName", history.getFileName());
+        out.put("content", content);
+        return out;
+    }
+
+    // -------- Retention / compaction --------
+
+    /**
+     * Aplica a retenção a todas as sessões com histórico e remove os blobs que ficaram órfãos
+     * há mais do que o prazo de graça.
+     */
+    @Scheduled(cron = "${history.compaction.cron:0 30 3 * * *}")
+    public void compactAll() {
+        for (String publicId : historyRepo.findSessionPublicIds()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> compactSession(publicId));
+            } catch (Exception e) {
+                log.error("Falha ao compactar histórico da sessão {}: {}", publicId, e.getMessage());
+            }
+        }
+    }
+
+    @Transactional
+    public void compactSession(String publicId) {
+        for (String fileName : historyRepo.findFileNames(publicId)) {
+            trimFile(publicId, fileName);
+        }
+        deleteUnreferencedBlobs(publicId);
+    }
+
+    // Mantém os snapshots mais recentes do ficheiro dentro dos limites (o mais recente fica sempre)
+    private void trimFile(String publicId, String fileName) {
+        List<FileHistoryRepository.SnapshotSummary> snapshots = historyRepo.findSummaries(publicId, fileName);
+        Date cutoff = maxAgeDays > 0 ? new Date(System.currentTimeMillis() - maxAgeDays * 86_400_000L) : null;
+        List<Long> expired = new ArrayList<>();
+        for (int i = 1; i < snapshots.size(); i++) {
+            FileHistoryRepository.SnapshotSummary s = snapshots.get(i);
+            boolean tooMany = maxSnapshotsPerFile > 0 && i >= maxSnapshotsPerFile;
+            boolean tooOld = cutoff != null && s.getCreatedAt().before(cutoff);
+            if (tooMany || tooOld) expired.add(s.getId());
+        }
+        if (expired.isEmpty()) return;
+        historyRepo.deleteAllByIdInBatch(expired);
+    }
+
+    private void deleteUnreferencedBlobs(String publicId) {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(gcGraceMinutes);
+        // cada passagem liberta os keyframes cujos deltas órfãos saíram na anterior
+        int deleted;
+        do {
+            deleted = blobRepo.deleteUnreferenced(publicId, cutoff);
+        } while (deleted > 0);
+    }
+
+    // -------- Helpers --------
+
+    private HistoryBlob loadBlob(Long id) {
+        return blobRepo.findById(id).orElseThrow(() -> new IllegalStateException("Blob de histórico em falta: " + id));
+    }
+
+    private String contentOf(HistoryBlob blob) {
+        if (blob.isKeyframe()) return blob.getData();
+        HistoryBlob keyframe = loadBlob(blob.getBaseBlobId());
+        return HistoryDelta.apply(keyframe.getData(), blob.getData());
+    }
+
+    private static Map<String, Object> summary(Long id, Date createdAt, String createdBy, String hash, Integer length) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("id", id);
+        out.put("createdAt", createdAt);
+        out.put("createdBy", createdBy);
+        out.put("contentHash", hash);
+        out.put("size", length);
+        return out;
+    }
+
+    private static String sha256(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.codesync.sessionservice.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delta por linhas entre duas versões de um ficheiro, em texto:
+ * {@code =<linha>,<n>\n} copia n linhas da base a partir de linha e
+ * {@code +<chars>\n<texto>} insere texto literal.
+ */
+final class HistoryDelta {
+
+    // Posições guardadas por linha da base (linhas repetidas como "}" não precisam de mais)
+    private static final int MAX_CANDIDATES_PER_LINE = 16;
+    // Uma cópia de uma só linha curta custa mais a codificar do que a inserir
+    private static final int MIN_SINGLE_LINE_COPY = 12;
+
+    private HistoryDelta() {
+    }
+
+    static String encode(String base, String target) {
+        List<String> b = lines(base);
+        List<String> t = lines(target);
+        Map<String, List<Integer>> positions = new HashMap<>();
+        for (int j = 0; j < b.size(); j++) {
+            List<Integer> list = positions.computeIfAbsent(b.get(j), k -> new ArrayList<>(1));
+            if (list.size() < MAX_CANDIDATES_PER_LINE) list.add(j);
+        }
+
+        StringBuilder out = new StringBuilder();
+        StringBuilder pending = new StringBuilder();
+        int expected = -1;
+        int i = 0;
+        while (i < t.size()) {
+            int bestStart = -1;
+            int bestLen = 0;
+            if (expected >= 0 && expected < b.size() && b.get(expected).equals(t.get(i))) {
+                bestStart = expected; // continuar a cópia anterior é o caso comum
+                bestLen = runLength(b, t, expected, i);
+            } else {
+                for (int candidate : positions.getOrDefault(t.get(i), List.of())) {
+                    int len = runLength(b, t, candidate, i);
+                    if (len > bestLen) {
+                        bestStart = candidate;
+                        bestLen = len;
+                    }
+                }
+            }
+            if (bestLen == 0 || (bestLen == 1 && t.get(i).length() < MIN_SINGLE_LINE_COPY)) {
+                pending.append(t.get(i));
+                i++;
+                continue;
+            }
+            flushInsert(out, pending);
+            out.append('=').append(bestStart).append(',').append(bestLen).append('\n');
+            i += bestLen;
+            expected = bestStart + bestLen;
+        }
+        flushInsert(out, pending);
+        return out.toString();
+    }
+
+    static String apply(String base, String delta) {
+        List<String> b = lines(base);
+        StringBuilder out = new StringBuilder();
+        int pos = 0;
+        while (pos < delta.length()) {
+            char op = delta.charAt(pos++);
+            int nl = delta.indexOf('\n', pos);
+            if (nl < 0) throw new IllegalStateException("Delta de histórico inválido");
+            String header = delta.substring(pos, nl);
+            pos = nl + 1;
+            if (op == '=') {
+                int comma = header.indexOf(',');
+                int start = Integer.parseInt(header.substring(0, comma));
+                int count = Integer.parseInt(header.substring(comma + 1));
+                for (int k = start; k < start + count; k++) out.append(b.get(k));
+            } else if (op == '+') {
+                int len = Integer.parseInt(header);
+                out.append(delta, pos, pos + len);
+                pos += len;
+            } else {
+                throw new IllegalStateException("Delta de histórico inválido");
+            }
+        }
+        return out.toString();
+    }
+
+    private static void flushInsert(StringBuilder out, StringBuilder pending) {
+        if (pending.length() == 0) return;
+        out.append('+').append(pending.length()).append('\n').append(pending);
+        pending.setLength(0);
+    }
+
+    private static int runLength(List<String> b, List<String> t, int bStart, int tStart) {
+        int k = 0;
+        while (bStart + k < b.size() && tStart + k < t.size() && b.get(bStart + k).equals(t.get(tStart + k))) k++;
+        return k;
+    }
+
+    // Linhas com o terminador incluído, para a reconstrução ser exata (\r\n, falta de \n final)
+    private static List<String> lines(String s) {
+        List<String> out = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '\n') {
+                out.add(s.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < s.length()) out.add(s.substring(start));
+        return out;
+    }
+}
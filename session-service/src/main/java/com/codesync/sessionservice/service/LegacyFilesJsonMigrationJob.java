@@ -0,0 +1,74 @@
+package com.codesync.sessionservice.service;
+
+import com.codesync.sessionservice.repository.CodingSessionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Job pontual que move as sessões que ainda só existem em coding_session.files_json para
+ * session_file (uma transação por sessão). Corre no arranque se
+ * {@code workspace.legacy-json.migrate-on-startup=true} ou via endpoint de admin.
+ */
+@Component
+public class LegacyFilesJsonMigrationJob {
+
+    private static final Logger log = LoggerFactory.getLogger(LegacyFilesJsonMigrationJob.class);
+
+    private final CodingSessionRepository sessionRepository;
+    private final TreeSessionService treeSessionService;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    @Value("${workspace.legacy-json.migrate-on-startup:false}")
+    private boolean migrateOnStartup;
+
+    public LegacyFilesJsonMigrationJob(CodingSessionRepository sessionRepository,
+                                       TreeSessionService treeSessionService) {
+        this.sessionRepository = sessionRepository;
+        this.treeSessionService = treeSessionService;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (!migrateOnStartup) return;
+        Thread worker = new Thread(this::run, "legacy-files-json-migration");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public Map<String, Object> run() {
+        Map<String, Object> result = new HashMap<>();
+        if (!running.compareAndSet(false, true)) {
+            result.put("error", "Migração já em curso");
+            return result;
+        }
+        int migrated = 0;
+        int failed = 0;
+        try {
+            List<String> publicIds = sessionRepository.findPublicIdsWithFilesJson();
+            log.info("Migração filesJson -> session_file: {} sessão(ões) candidatas", publicIds.size());
+            for (String publicId : publicIds) {
+                try {
+                    if (treeSessionService.migrateLegacyFilesJson(publicId)) migrated++;
+                } catch (Exception e) {
+                    failed++;
+                    log.error("Falha ao migrar filesJson da sessão {}: {}", publicId, e.getMessage());
+                }
+            }
+            log.info("Migração filesJson concluída: {} migrada(s), {} falha(s)", migrated, failed);
+        } finally {
+            running.set(false);
+        }
+        result.put("migrated", migrated);
+        result.put("failed", failed);
+        return result;
+    }
+}
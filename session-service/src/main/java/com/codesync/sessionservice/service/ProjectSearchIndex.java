@@ -0,0 +1,375 @@
+package com.codesync.sessionservice.service;
+
+import com.codesync.sessionservice.dto.TreeNode;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Índice de trigramas (case-insensitive) do conteúdo dos ficheiros de um workspace.
+ * Vive junto da árvore no {@link WorkspaceCache} e é atualizado incrementalmente com os
+ * caminhos marcados pelas mutações. As postings guardam ids de documento crescentes:
+ * atualizar um ficheiro cria um id novo e deixa o antigo como tombstone, e o índice é
+ * compactado quando os ids mortos passam a ser maioria.
+ */
+public class ProjectSearchIndex {
+
+    // Abaixo disto não compensa compactar
+    private static final int MIN_DEAD_DOCS_TO_COMPACT = 64;
+    // Orçamento de tempo por pesquisa regex (protege contra backtracking catastrófico)
+    private static final long REGEX_BUDGET_NANOS = 2_000_000_000L;
+
+    /** Página de resultados: linhas na ordem dos caminhos e se há mais a partir de offset+limit. */
+    public record SearchPage(List<Map<String, Object>> results, boolean hasMore) {
+    }
+
+    /** Consulta compilada: padrão para verificar linhas e literais (minúsculos) para filtrar candidatos. */
+    public record Query(Pattern pattern, List<String> literals, boolean regex) {
+    }
+
+    private record Doc(String path, String content) {
+    }
+
+    private static final class IntList {
+        private int[] items = new int[4];
+        private int size;
+
+        void add(int v) {
+            if (size == items.length) items = Arrays.copyOf(items, size * 2);
+            items[size++] = v;
+        }
+    }
+
+    private final List<Doc> docs = new ArrayList<>(); // id -> doc (null = removido)
+    private final Map<String, Integer> idsByPath = new HashMap<>();
+    private final Map<Integer, IntList> postings = new HashMap<>();
+    private int deadDocs;
+    private long postingEntries;
+
+    public static ProjectSearchIndex build(TreeNode root) {
+        ProjectSearchIndex index = new ProjectSearchIndex();
+        index.addTree(root, "");
+        return index;
+    }
+
+    private void addTree(TreeNode node, String path) {
+        if ("folder".equals(node.getType())) {
+            if (node.getChildren() == null) return;
+            for (TreeNode c : node.getChildren()) {
+                addTree(c, path.isEmpty() ? c.getName() : path + "/" + c.getName());
+            }
+        } else if (!path.isEmpty()) {
+            put(path, node.getContent());
+        }
+    }
+
+    /** Reindexa um caminho: {@code node} é o estado atual na árvore (null se já não existe). */
+    public void refresh(String path, TreeNode node) {
+        if (node != null && !"folder".equals(node.getType())) {
+            put(path, node.getContent());
+        } else {
+            remove(path);
+        }
+    }
+
+    public void put(String path, String content) {
+        String text = content == null ? "" : content;
+        Integer current = idsByPath.get(path);
+        if (current != null && docs.get(current).content() == text) return; // mesma instância, nada mudou
+        remove(path);
+        int id = docs.size();
+        docs.add(new Doc(path, text));
+        idsByPath.put(path, id);
+        for (int t : trigrams(text)) {
+            postings.computeIfAbsent(t, k -> new IntList()).add(id);
+            postingEntries++;
+        }
+    }
+
+    public void remove(String path) {
+        Integer id = idsByPath.remove(path);
+        if (id == null) return;
+        docs.set(id, null);
+        deadDocs++;
+        if (deadDocs >= MIN_DEAD_DOCS_TO_COMPACT && deadDocs > idsByPath.size()) compact();
+    }
+
+    private void compact() {
+        List<Doc> live = new ArrayList<>(idsByPath.size());
+        for (Doc d : docs) {
+            if (d != null) live.add(d);
+        }
+        docs.clear();
+        idsByPath.clear();
+        postings.clear();
+        postingEntries = 0;
+        deadDocs = 0;
+        for (Doc d : live) put(d.path(), d.content());
+    }
+
+    public long estimatedBytes() {
+        return postingEntries * 4 + postings.size() * 64L + docs.size() * 48L;
+    }
+
+    // -------- Query --------
+
+    public static Query compile(String query, boolean caseSensitive, boolean wholeWord, boolean regex) {
+        int flags = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        if (regex) {
+            return new Query(Pattern.compile(query, flags), regexLiterals(query), true);
+        }
+        String quoted = Pattern.quote(query);
+        Pattern p = Pattern.compile(wholeWord ? "(?<!\\w)" + quoted + "(?!\\w)" : quoted, flags);
+        return new Query(p, List.of(lower(query)), false);
+    }
+
+    /**
+     * Percorre os candidatos por ordem de caminho e devolve uma linha por ocorrência,
+     * parando assim que a página (mais um resultado, para saber se há mais) está completa.
+     */
+    public SearchPage search(Query query, int offset, int limit) {
+        List<Doc> candidates = candidates(query.literals());
+        candidates.sort(Comparator.comparing(Doc::path));
+
+        long deadline = System.nanoTime() + REGEX_BUDGET_NANOS;
+        List<Map<String, Object>> results = new ArrayList<>();
+        int seen = 0;
+        for (Doc doc : candidates) {
+            CharSequence text = query.regex() ? new DeadlineCharSequence(doc.content(), deadline) : doc.content();
+            Matcher m = query.pattern().matcher(text);
+            int line = 1;
+            int scanned = 0;
+            int from = 0;
+            while (from <= text.length() && m.find(from)) {
+                int start = m.start();
+                for (int i = scanned; i < start; i++) {
+                    if (doc.content().charAt(i) == '\n') line++;
+                }
+                int lineStart = doc.content().lastIndexOf('\n', start - 1) + 1;
+                int lineEnd = doc.content().indexOf('\n', start);
+                if (lineEnd < 0) lineEnd = doc.content().length();
+
+                if (seen++ >= offset) {
+                    if (results.size() == limit) return new SearchPage(results, true);
+                    Map<String, Object> match = new HashMap<>();
+                    match.put("path", doc.path());
+                    match.put("line", line);
+                    match.put("content", doc.content().substring(lineStart, lineEnd).trim());
+                    results.add(match);
+                }
+                // uma entrada por linha, como na pesquisa anterior
+                scanned = start;
+                from = lineEnd + 1;
+            }
+        }
+        return new SearchPage(results, false);
+    }
+
+    private List<Doc> candidates(List<String> literals) {
+        int[] ids = null;
+        for (String literal : literals) {
+            for (int t : trigrams(literal)) {
+                IntList list = postings.get(t);
+                if (list == null) return new ArrayList<>();
+                ids = ids == null ? Arrays.copyOf(list.items, list.size) : intersect(ids, list);
+                if (ids.length == 0) return new ArrayList<>();
+            }
+        }
+
+        List<Doc> out = new ArrayList<>();
+        if (ids == null) { // sem literais utilizáveis: todos os ficheiros
+            for (Doc d : docs) {
+                if (d != null) out.add(d);
+            }
+            return out;
+        }
+        for (int id : ids) {
+            Doc d = docs.get(id);
+            if (d != null) out.add(d);
+        }
+        return out;
+    }
+
+    private static int[] intersect(int[] a, IntList b) {
+        int[] out = new int[Math.min(a.length, b.size)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.size) {
+            if (a[i] < b.items[j]) i++;
+            else if (a[i] > b.items[j]) j++;
+            else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // Trigramas únicos e ordenados do texto em minúsculas; trigramas com quebra de linha não
+    // servem a nenhuma consulta (os resultados são por linha) e ficam de fora
+    private static int[] trigrams(String text) {
+        if (text.length() < 3) return new int[0];
+        int[] keys = new int[text.length() - 2];
+        int n = 0;
+        char c0 = Character.toLowerCase(text.charAt(0));
+        char c1 = Character.toLowerCase(text.charAt(1));
+        for (int i = 2; i < text.length(); i++) {
+            char c2 = Character.toLowerCase(text.charAt(i));
+            if (c0 != '\n' && c1 != '\n' && c2 != '\n') {
+                // 10 bits por char: exato para Latin/Latin-1, colisões (só falsos positivos) acima disso
+                keys[n++] = ((c0 & 0x3FF) << 20) | ((c1 & 0x3FF) << 10) | (c2 & 0x3FF);
+            }
+            c0 = c1;
+            c1 = c2;
+        }
+        Arrays.sort(keys, 0, n);
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) keys[unique++] = keys[i];
+        }
+        return Arrays.copyOf(keys, unique);
+    }
+
+    private static String lower(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) sb.append(Character.toLowerCase(s.charAt(i)));
+        return sb.toString();
+    }
+
+    // Grupo de flags inline com x (comentários): espaços e '#...' deixam de ser literais
+    private static final Pattern COMMENTS_FLAG = Pattern.compile("\\(\\?[a-wyzA-Z-]*x[a-zA-Z-]*[:)]");
+
+    /**
+     * Literais que qualquer ocorrência do regex tem de conter (só fora de grupos e sem
+     * alternação). Na dúvida devolve menos literais: o filtro só pode alargar os candidatos.
+     * Com {@code \Q...\E} ou o modo de comentários ({@code (?x)}) não devolve nenhum.
+     */
+    static List<String> regexLiterals(String regex) {
+        List<String> out = new ArrayList<>();
+        if (regex.indexOf('|') >= 0 || regex.contains("\\Q") || COMMENTS_FLAG.matcher(regex).find()) return out;
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    run.append(regex.charAt(++i)); // metacaractere escapado = literal
+                } else {
+                    flushLiteral(run, out, depth); // \d, \w, \b, \x41, ...
+                    i = escapeEnd(regex, i + 1);
+                }
+            } else if (c == '?' || c == '*' || c == '{') {
+                if (run.length() > 0) run.setLength(run.length() - 1); // o char anterior é opcional
+                flushLiteral(run, out, depth);
+                if (c == '{') {
+                    int close = regex.indexOf('}', i);
+                    i = close < 0 ? regex.length() : close;
+                }
+            } else if (c == '[') {
+                flushLiteral(run, out, depth);
+                i++;
+                if (i < regex.length() && regex.charAt(i) == ']') i++; // ']' logo no início é literal
+                while (i < regex.length() && regex.charAt(i) != ']') {
+                    if (regex.charAt(i) == '\\') i++;
+                    i++;
+                }
+            } else if (c == '(') {
+                flushLiteral(run, out, depth);
+                depth++;
+            } else if (c == ')') {
+                run.setLength(0); // o grupo pode ser opcional/repetido: não conta
+                depth = Math.max(0, depth - 1);
+            } else if (c == '+' || c == '.' || c == '^' || c == '$') {
+                flushLiteral(run, out, depth);
+            } else {
+                run.append(c);
+            }
+        }
+        flushLiteral(run, out, depth);
+        return out;
+    }
+
+    /**
+     * Índice do último char de um escape cuja letra/dígito está em {@code i}: os operandos dos
+     * escapes x, u, 0, c, k, p/P, N e das referências numéricas fazem parte do escape.
+     */
+    private static int escapeEnd(String regex, int i) {
+        if (i >= regex.length()) return i;
+        switch (regex.charAt(i)) {
+            case 'x':
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '{') return closing(regex, i + 1, '}');
+                return Math.min(i + 2, regex.length() - 1);
+            case 'u':
+                return Math.min(i + 4, regex.length() - 1);
+            case '0': {
+                // 0n, 0nn ou 0mnn, em octal (m <= 3)
+                int end = i;
+                int max = i + 1 < regex.length() && regex.charAt(i + 1) <= '3' ? 3 : 2;
+                while (end - i < max && end + 1 < regex.length()
+                        && regex.charAt(end + 1) >= '0' && regex.charAt(end + 1) <= '7') end++;
+                return end;
+            }
+            case 'c':
+                return Math.min(i + 1, regex.length() - 1);
+            case 'k':
+                return i + 1 < regex.length() && regex.charAt(i + 1) == '<' ? closing(regex, i + 1, '>') : i;
+            case 'p':
+            case 'P':
+            case 'N':
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '{') return closing(regex, i + 1, '}');
+                return Math.min(i + 1, regex.length() - 1); // pL
+            default:
+                if (Character.isDigit(regex.charAt(i))) {
+                    // referência: na dúvida sobre quantos dígitos conta, todos ficam no escape
+                    while (i + 1 < regex.length() && Character.isDigit(regex.charAt(i + 1))) i++;
+                }
+                return i;
+        }
+    }
+
+    private static int closing(String regex, int from, char close) {
+        int end = regex.indexOf(close, from);
+        return end < 0 ? regex.length() - 1 : end;
+    }
+
+    private static void flushLiteral(StringBuilder run, List<String> out, int depth) {
+        if (depth == 0 && run.length() >= 3) out.add(lower(run.toString()));
+        run.setLength(0);
+    }
+
+    /** CharSequence que aborta a correspondência de regex depois do prazo. */
+    private static final class DeadlineCharSequence implements CharSequence {
+        private final CharSequence inner;
+        private final long deadline;
+        private int calls;
+
+        DeadlineCharSequence(CharSequence inner, long deadline) {
+            this.inner = inner;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if ((++calls & 0xFFFF) == 0 && System.nanoTime() > deadline) {
+                throw new IllegalArgumentException("Regex demorou demasiado; refine a pesquisa");
+            }
+            return inner.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return inner.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new DeadlineCharSequence(inner.subSequence(start, end), deadline);
+        }
+
+        @Override
+        public String toString() {
+            return inner.toString();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.codesync.sessionservice.service;
+
+import com.codesync.sessionservice.dto.TreeNode;
+import com.codesync.sessionservice.model.SessionFile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Diferença entre as linhas de session_file carregadas e o estado desejado da árvore (por
+ * caminho). Só produz escritas para o que mudou: existe no desejado e não no banco -> insert;
+ * existe nos dois e mudou -> update; existe só no banco -> delete.
+ */
+final class SessionFileDiff {
+
+    /** Linhas a gravar (inserts e updates) e a apagar. */
+    record Plan(List<SessionFile> toSave, List<SessionFile> toDelete, int inserts, int updates) {
+        int rowsWritten() {
+            return toSave.size() + toDelete.size();
+        }
+    }
+
+    private SessionFileDiff() {
+    }
+
+    // Linhas duplicadas para o mesmo caminho (legado) vão para 'stale' e são apagadas
+    static Map<String, SessionFile> indexRows(List<SessionFile> rows, List<SessionFile> stale) {
+        Map<String, SessionFile> byPath = new HashMap<>();
+        for (SessionFile sf : rows) {
+            SessionFile previous = byPath.put(sf.getFilePath(), sf);
+            if (previous != null) stale.add(previous);
+        }
+        return byPath;
+    }
+
+    /**
+     * @param existing linhas atuais dos caminhos em causa (todas, numa substituição completa)
+     * @param toDelete linhas já marcadas para apagar (duplicados); recebe as removidas
+     */
+    static Plan plan(String publicId, Map<String, SessionFile> existing, Map<String, TreeNode> desired,
+                     List<SessionFile> toDelete) {
+        List<SessionFile> toSave = new ArrayList<>();
+        int updates = 0;
+        for (Map.Entry<String, SessionFile> e : existing.entrySet()) {
+            SessionFile row = e.getValue();
+            TreeNode node = desired.get(e.getKey());
+            if (node == null) {
+                toDelete.add(row);
+                continue;
+            }
+            String type = typeOf(node);
+            String content = contentOf(node);
+            String current = row.getContent() == null ? "" : row.getContent();
+            if (!type.equals(row.getType()) || !content.equals(current)) {
+                row.setType(type);
+                row.setContent(content);
+                toSave.add(row);
+                updates++;
+            }
+        }
+        for (Map.Entry<String, TreeNode> e : desired.entrySet()) {
+            if (!existing.containsKey(e.getKey())) {
+                toSave.add(newRow(publicId, e.getKey(), e.getValue()));
+            }
+        }
+        return new Plan(toSave, toDelete, toSave.size() - updates, updates);
+    }
+
+    static SessionFile newRow(String sessionPublicId, String path, TreeNode node) {
+        SessionFile sf = new SessionFile();
+        sf.setSessionPublicId(sessionPublicId);
+        sf.setType(typeOf(node));
+        sf.setContent(contentOf(node));
+        sf.setFilePath(path);
+        return sf;
+    }
+
+    static String typeOf(TreeNode node) {
+        return node.getType() == null ? "file" : node.getType();
+    }
+
+    static String contentOf(TreeNode node) {
+        return node.getContent() == null ? "" : node.getContent();
+    }
+}
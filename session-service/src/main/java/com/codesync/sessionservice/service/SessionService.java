@@ -18,10 +18,13 @@ public class SessionService {
 
     private final CodingSessionRepository sessionRepository;
     private final ObjectMapper objectMapper;
+    private final WorkspaceCache workspaceCache;
 
-    public SessionService(CodingSessionRepository sessionRepository, ObjectMapper objectMapper) {
+    public SessionService(CodingSessionRepository sessionRepository, ObjectMapper objectMapper,
+                          WorkspaceCache workspaceCache) {
         this.sessionRepository = sessionRepository;
         this.objectMapper = objectMapper;
+        this.workspaceCache = workspaceCache;
     }
 
     @Transactional(readOnly = true)
@@ -174,6 +177,7 @@ public class SessionService {
         CodingSession session = sessionRepository.findByPublicId(publicId)
                 .orElseThrow(() -> new RuntimeException("Sessão não encontrada com o ID: " + publicId));
         sessionRepository.delete(session);
+        workspaceCache.invalidate(publicId);
     }
 
     @Transactional
@@ -3,15 +3,25 @@ package com.codesync.sessionservice.service;
 import com.codesync.sessionservice.dto.FileData;
 import com.codesync.sessionservice.dto.TreeNode;
 import com.codesync.sessionservice.model.CodingSession;
+import com.codesync.sessionservice.model.SessionFile;
 import com.codesync.sessionservice.repository.CodingSessionRepository;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import java.nio.charset.StandardCharsets;
@@ -21,142 +31,275 @@ import java.util.UUID;
 @SuppressWarnings("deprecation")
 public class TreeSessionService {
 
+    private static final Logger log = LoggerFactory.getLogger(TreeSessionService.class);
+
     private final CodingSessionRepository repo;
     private final ObjectMapper mapper;
-    private final com.codesync.sessionservice.repository.FileHistoryRepository historyRepo;
     private final com.codesync.sessionservice.repository.SessionFileRepository sessionFileRepo;
+    private final WorkspaceCache workspaceCache;
+    private final TransactionTemplate transactionTemplate;
+    // Só leitura e com timeout: cada página da exportação usa uma ligação só durante a leitura
+    private final TransactionTemplate exportTransaction;
+
+    // Escrever também a árvore inteira em coding_session.files_json (legado). Desligado por
+    // omissão: o custo de cada save cresceria com o tamanho total do workspace.
+    @Value("${workspace.legacy-json.dual-write:false}")
+    private boolean legacyJsonDualWrite;
 
     public TreeSessionService(CodingSessionRepository repo, ObjectMapper mapper, 
-                              com.codesync.sessionservice.repository.FileHistoryRepository historyRepo,
-                              com.codesync.sessionservice.repository.SessionFileRepository sessionFileRepo) {
+                              com.codesync.sessionservice.repository.SessionFileRepository sessionFileRepo,
+                              WorkspaceCache workspaceCache,
+                              TransactionTemplate transactionTemplate,
+                              @Value("${workspace.export.transaction-timeout-seconds:60}") int exportTimeoutSeconds) {
         this.repo = repo;
         this.mapper = mapper;
-        this.historyRepo = historyRepo;
         this.sessionFileRepo = sessionFileRepo;
+        this.workspaceCache = workspaceCache;
+        this.transactionTemplate = transactionTemplate;
+        this.exportTransaction = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.exportTransaction.setReadOnly(true);
+        this.exportTransaction.setTimeout(exportTimeoutSeconds);
     }
 
     // -------- Migration / DB mapping --------
-    private void extractFiles(TreeNode node, String currentPath, String sessionPublicId, List<com.codesync.sessionservice.model.SessionFile> files) {
+    // Máximo de parâmetros por consulta IN (o Postgres limita o número de parâmetros por statement)
+    private static final int PATH_LOOKUP_CHUNK = 1000;
+    private static final int MAX_SEARCH_PAGE = 500;
+    private static final int MAX_CONTENT_PATHS = 1000;
+
+    /** Manifesto do workspace; {@code files} é null quando a versão pedida ainda é a atual. */
+    public record ManifestSnapshot(String etag, Map<String, String> files) {
+    }
+
+    /**
+     * Indexa todos os nós da árvore pelo caminho relativo (sem o root), na mesma
+     * forma em que são gravados em session_file.file_path.
+     */
+    private void flattenTree(TreeNode node, String currentPath, Map<String, TreeNode> out) {
         if (node == null) return;
-        
-        com.codesync.sessionservice.model.SessionFile sf = new com.codesync.sessionservice.model.SessionFile();
-        sf.setSessionPublicId(sessionPublicId);
-        sf.setType(node.getType() == null ? "file" : node.getType());
-        sf.setContent(node.getContent() == null ? "" : node.getContent());
-        sf.setFilePath(currentPath);
-        
+
         // Don't add root itself if it's just a container
         if (!currentPath.isEmpty()) {
-            files.add(sf);
+            out.put(currentPath, node);
         }
-        
+
         if ("folder".equals(node.getType()) && node.getChildren() != null) {
             for (TreeNode child : node.getChildren()) {
                 String childPath = currentPath.isEmpty() ? child.getName() : currentPath + "/" + child.getName();
-                extractFiles(child, childPath, sessionPublicId, files);
+                flattenTree(child, childPath, out);
             }
         }
     }
 
-    private TreeNode buildTreeFromFiles(List<com.codesync.sessionservice.model.SessionFile> files) {
-        TreeNode root = TreeNode.folder("");
-        
-        for (com.codesync.sessionservice.model.SessionFile f : files) {
-            List<String> parts = splitPath(f.getFilePath());
-            if (parts.isEmpty()) continue;
-            
-            String name = parts.get(parts.size() - 1);
-            TreeNode parent = ensureFolder(root, parts.subList(0, parts.size() - 1));
-            
-            TreeNode node = new TreeNode();
-            node.setName(name);
-            node.setType(f.getType());
-            node.setContent(f.getContent());
-            if ("folder".equals(f.getType())) {
-                node.setChildren(new ArrayList<>());
-            }
-            if (parent.getChildren() == null) parent.setChildren(new ArrayList<>());
-            
-            // avoid duplicates
-            if (parent.getChildren().stream().noneMatch(c -> c.getName().equals(name))) {
-                parent.getChildren().add(node);
-            }
-        }
-        
-        return root;
-    }
-
     // -------- Core Loading / Migration --------
-    private TreeNode loadRootAndMigrateIfNeeded(CodingSession session) throws Exception {
-        List<com.codesync.sessionservice.model.SessionFile> existingFiles = sessionFileRepo.findBySessionPublicId(session.getPublicId());
+    private WorkspaceCache.Loaded loadRootAndMigrateIfNeeded(CodingSession session) throws Exception {
+        List<SessionFile> existingFiles = sessionFileRepo.findBySessionPublicId(session.getPublicId());
         
         if (!existingFiles.isEmpty()) {
-            return buildTreeFromFiles(existingFiles);
+            return new WorkspaceCache.Loaded(WorkspaceTreeBuilder.build(existingFiles), false);
         }
         
-        // Fallback to filesJson for migration
+        // Fallback read-only ao filesJson: a sessão só é materializada em session_file na
+        // primeira mutação (ou pelo LegacyFilesJsonMigrationJob)
         String json = session.getFilesJson();
         if (json == null || json.isBlank()) {
-            TreeNode root = TreeNode.folder("");
-            persist(session, root); // Save empty root to DB
-            return root;
+            return new WorkspaceCache.Loaded(TreeNode.folder(""), false);
         }
-        
+        return new WorkspaceCache.Loaded(parseLegacyFilesJson(json), true);
+    }
+
+    private TreeNode parseLegacyFilesJson(String json) throws Exception {
         String trimmed = json.trim();
-        TreeNode root;
         if (trimmed.startsWith("[")) { // legacy flat list
             List<FileData> flat = mapper.readValue(trimmed, new TypeReference<List<FileData>>(){});
-            root = TreeConverter.flatListToTree(flat);
-        } else {
-            // assume tree root JSON
-            root = mapper.readValue(trimmed, TreeNode.class);
+            return TreeConverter.flatListToTree(flat);
         }
-        
-        // persist migrated tree to SQL
-        persist(session, root);
-        
-        // Optionally clear filesJson to save space, but let's keep it until fully validated
-        return root;
+        // assume tree root JSON
+        return mapper.readValue(trimmed, TreeNode.class);
+    }
+
+    /**
+     * Migração pontual de uma sessão legada: grava a árvore do filesJson em session_file
+     * (se ainda não houver linhas) e, sem dual write, limpa a coluna.
+     * @return true se a sessão tinha filesJson para tratar
+     */
+    @Transactional
+    public boolean migrateLegacyFilesJson(String publicId) throws Exception {
+        CodingSession session = getSession(publicId);
+        String json = session.getFilesJson();
+        if (json == null) return false;
+
+        if (!json.isBlank() && !sessionFileRepo.existsBySessionPublicId(publicId)) {
+            persist(session, parseLegacyFilesJson(json));
+        } else if (!legacyJsonDualWrite) {
+            // já migrada; o filesJson é só uma cópia desatualizada do dual write antigo
+            session.setFilesJson(null);
+            repo.save(session);
+        }
+        return true;
     }
 
+    /**
+     * Substitui a árvore inteira (migração de filesJson), mas grava apenas a diferença
+     * em relação às linhas existentes.
+     */
     @Transactional
     protected void persist(CodingSession session, TreeNode root) throws Exception {
-        // Clear old files
-        sessionFileRepo.deleteBySessionPublicId(session.getPublicId());
-        
-        // Save new tree
-        List<com.codesync.sessionservice.model.SessionFile> files = new ArrayList<>();
-        extractFiles(root, "", session.getPublicId(), files);
-        
-        sessionFileRepo.saveAll(files);
-        
-        // Backward compatibility (optional but safe)
-        session.setFilesJson(mapper.writeValueAsString(root));
+        Map<String, TreeNode> desired = new LinkedHashMap<>();
+        flattenTree(root, "", desired);
+
+        List<SessionFile> stale = new ArrayList<>();
+        Map<String, SessionFile> existing = SessionFileDiff.indexRows(sessionFileRepo.findBySessionPublicId(session.getPublicId()), stale);
+        applyDiff(session.getPublicId(), existing, desired, stale);
+
+        session.setFilesJson(legacyJsonDualWrite ? mapper.writeValueAsString(root) : null);
         repo.save(session);
     }
+
+    // -------- Write-behind (flush do WorkspaceCache) --------
+
+    /** Snapshot imutável das escritas pendentes de um workspace, tirado sob o lock do cache. */
+    private record PendingWrite(String publicId, boolean fullRewrite, List<String> paths,
+                                Map<String, TreeNode> desired, String filesJson) {
+    }
+
+    private PendingWrite snapshotPending(String publicId, TreeNode root, boolean fullRewrite, Set<String> paths)
+            throws Exception {
+        List<String> pathList = new ArrayList<>(paths);
+        pathList.remove(""); // root nunca é gravado como linha
+        Map<String, TreeNode> live = new LinkedHashMap<>();
+        if (fullRewrite) {
+            flattenTree(root, "", live);
+        } else {
+            for (String path : pathList) {
+                findNode(root, path).ifPresent(n -> live.put(path, n));
+            }
+        }
+        // Cópias rasas: a árvore continua a ser mutada enquanto o flush grava fora do lock
+        Map<String, TreeNode> desired = new LinkedHashMap<>();
+        live.forEach((path, n) -> desired.put(path, new TreeNode(n.getName(), SessionFileDiff.typeOf(n), SessionFileDiff.contentOf(n), null)));
+        String filesJson = legacyJsonDualWrite ? mapper.writeValueAsString(root) : null;
+        return new PendingWrite(publicId, fullRewrite, pathList, desired, filesJson);
+    }
+
+    /**
+     * Grava em lote as mutações acumuladas no cache. Cada caminho pendente é reconciliado
+     * com o snapshot da árvore: existe no snapshot e não no banco -> insert; existe nos dois
+     * e mudou -> update; existe só no banco -> delete.
+     */
+    @Scheduled(fixedDelayString = "${workspace.cache.flush-interval-ms:2000}")
+    public void flushPendingWrites() {
+        for (String publicId : workspaceCache.pendingIds()) {
+            flushWorkspace(publicId);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flushPendingWrites();
+    }
+
+    /** Grava as escritas pendentes do workspace; false se havia escritas e a gravação falhou. */
+    private boolean flushWorkspace(String publicId) {
+        PendingWrite pending;
+        try {
+            pending = workspaceCache.drain(publicId, (root, full, paths) -> snapshotPending(publicId, root, full, paths));
+        } catch (Exception e) {
+            log.error("Erro ao preparar flush do workspace {}: {}", publicId, e.getMessage());
+            return false;
+        }
+        if (pending == null) return true;
+
+        boolean success = false;
+        try {
+            transactionTemplate.executeWithoutResult(status -> writePending(pending));
+            success = true;
+        } catch (Exception e) {
+            log.error("Erro ao gravar workspace {} (nova tentativa no próximo flush): {}", publicId, e.getMessage());
+        } finally {
+            workspaceCache.completeFlush(publicId, success);
+        }
+        return success;
+    }
+
+    private void writePending(PendingWrite pending) {
+        String publicId = pending.publicId();
+        if (!repo.existsByPublicId(publicId)) {
+            log.warn("Sessão {} removida com escritas pendentes; descartando", publicId);
+            workspaceCache.invalidate(publicId);
+            return;
+        }
+
+        List<SessionFile> rows = new ArrayList<>();
+        if (pending.fullRewrite()) {
+            rows.addAll(sessionFileRepo.findBySessionPublicId(publicId));
+        } else {
+            List<String> paths = pending.paths();
+            for (int i = 0; i < paths.size(); i += PATH_LOOKUP_CHUNK) {
+                List<String> chunk = paths.subList(i, Math.min(i + PATH_LOOKUP_CHUNK, paths.size()));
+                rows.addAll(sessionFileRepo.findBySessionPublicIdAndFilePathIn(publicId, chunk));
+            }
+        }
+        List<SessionFile> stale = new ArrayList<>();
+        Map<String, SessionFile> existing = SessionFileDiff.indexRows(rows, stale);
+        applyDiff(publicId, existing, pending.desired(), stale);
+
+        if (legacyJsonDualWrite) {
+            repo.updateFilesJson(publicId, pending.filesJson());
+        } else {
+            // no-op quando já é null; evita que um filesJson antigo reapareça como fallback
+            repo.clearFilesJson(publicId);
+        }
+    }
+
+    private void applyDiff(String publicId, Map<String, SessionFile> existing, Map<String, TreeNode> desired,
+                           List<SessionFile> toDelete) {
+        SessionFileDiff.Plan plan = SessionFileDiff.plan(publicId, existing, desired, toDelete);
+        List<Long> ids = plan.toDelete().stream().map(SessionFile::getId).toList();
+        for (int i = 0; i < ids.size(); i += PATH_LOOKUP_CHUNK) {
+            sessionFileRepo.deleteAllByIdInBatch(ids.subList(i, Math.min(i + PATH_LOOKUP_CHUNK, ids.size())));
+        }
+        if (!plan.toSave().isEmpty()) sessionFileRepo.saveAll(plan.toSave());
+    }
+
     // WebSocket events are handled by sync-service; session-service does not emit directly.
 
     private CodingSession getSession(String publicId) {
         return repo.findByPublicId(publicId).orElseThrow(() -> new NoSuchElementException("Sessão não encontrada"));
     }
 
+    public boolean sessionExists(String publicId) {
+        return repo.existsByPublicId(publicId);
+    }
+
+    private <T> T withWorkspace(String publicId, WorkspaceCache.WorkspaceAction<T> action) throws Exception {
+        return workspaceCache.withWorkspace(publicId, () -> loadRootAndMigrateIfNeeded(getSession(publicId)), action);
+    }
+
+    /**
+     * Devolve uma cópia da árvore em cache: o chamador (ex.: serialização JSON no controller)
+     * não pode ver mutações concorrentes a meio.
+     */
     @Transactional(readOnly = true)
     public TreeNode getTree(String publicId) throws Exception {
-        CodingSession s = getSession(publicId);
-        return loadRootAndMigrateIfNeeded(s);
+        return withWorkspace(publicId, ws -> deepClone(ws.root()));
     }
 
     @Transactional
     public void updateTree(String publicId, TreeNode newRoot) throws Exception {
-        CodingSession s = getSession(publicId);
-        persist(s, newRoot);
+        // o nome do root não faz parte dos caminhos gravados (sync-service envia "root")
+        newRoot.setName("");
+        newRoot.setType("folder");
+        if (newRoot.getChildren() == null) newRoot.setChildren(new ArrayList<>());
+        withWorkspace(publicId, ws -> {
+            ws.replaceRoot(newRoot);
+            return null;
+        });
     }
 
     // -------- Path Helpers --------
     private List<String> splitPath(String path) {
-        String p = path.replaceAll("/+","/").replaceAll("^/+|/+$","" );
-        if (p.isEmpty()) return new ArrayList<>();
-        return Arrays.asList(p.split("/"));
+        return WorkspaceTreeBuilder.splitPath(path);
     }
 
     private TreeNode ensureFolder(TreeNode root, List<String> parts) {
@@ -195,6 +338,26 @@ public class TreeSessionService {
         return current;
     }
 
+    private Optional<TreeNode> findNode(TreeNode root, String path) {
+        TreeNode current = root;
+        for (String seg : splitPath(path)) {
+            Optional<TreeNode> next = findChild(current, seg);
+            if (next.isEmpty()) return Optional.empty();
+            current = next.get();
+        }
+        return Optional.of(current);
+    }
+
+    // Caminho do nó e de todos os seus descendentes (para persistir operações em pastas)
+    private void collectSubtreePaths(TreeNode node, String path, Collection<String> out) {
+        out.add(path);
+        if ("folder".equals(node.getType()) && node.getChildren() != null) {
+            for (TreeNode c : node.getChildren()) {
+                collectSubtreePaths(c, path + "/" + c.getName(), out);
+            }
+        }
+    }
+
     private boolean isAncestorPath(List<String> ancestor, List<String> candidate) {
         if (ancestor.size() >= candidate.size()) return false;
         for (int i=0;i<ancestor.size();i++) {
@@ -248,141 +411,220 @@ public class TreeSessionService {
     }
 
     // -------- Operations --------
+    // Cada operação muta a árvore em cache sob o lock do workspace e marca os caminhos
+    // tocados; a gravação em session_file acontece no próximo flushPendingWrites().
     @Transactional
     public void createNode(String publicId, String path, String type, String content) throws Exception {
         if (path == null || path.isBlank()) throw new IllegalArgumentException("path vazio");
-        CodingSession s = getSession(publicId);
-        TreeNode root = loadRootAndMigrateIfNeeded(s);
-        List<String> parts = splitPath(path);
-        if (parts.isEmpty()) throw new IllegalArgumentException("Não pode criar root");
-        TreeNode parent = findParent(root, parts);
-        String name = parts.get(parts.size()-1);
-        // check duplicate
-        if (parent.getChildren()!=null && parent.getChildren().stream().anyMatch(c -> c.getName().equals(name))) {
-            throw new IllegalStateException("Já existe nó com esse nome");
-        }
-        if (parent.getChildren()==null) parent.setChildren(new ArrayList<>());
-        if ("folder".equals(type)) parent.getChildren().add(TreeNode.folder(name));
-        else parent.getChildren().add(TreeNode.file(name, content==null?"":content));
-        persist(s, root);
+        withWorkspace(publicId, ws -> {
+            TreeNode root = ws.root();
+            List<String> parts = splitPath(path);
+            if (parts.isEmpty()) throw new IllegalArgumentException("Não pode criar root");
+            TreeNode parent = findParent(root, parts);
+            String name = parts.get(parts.size()-1);
+            // check duplicate
+            if (parent.getChildren()!=null && parent.getChildren().stream().anyMatch(c -> c.getName().equals(name))) {
+                throw new IllegalStateException("Já existe nó com esse nome");
+            }
+            if (parent.getChildren()==null) parent.setChildren(new ArrayList<>());
+            if ("folder".equals(type)) parent.getChildren().add(TreeNode.folder(name));
+            else parent.getChildren().add(TreeNode.file(name, content==null?"":content));
+            ws.markDirty(List.of(String.join("/", parts)));
+            return null;
+        });
     }
 
     @Transactional
     public void updateFileContent(String publicId, String path, String content) throws Exception {
-        CodingSession s = getSession(publicId);
-        TreeNode root = loadRootAndMigrateIfNeeded(s);
-        List<String> parts = splitPath(path);
-        TreeNode parent = findParent(root, parts);
-        String name = parts.isEmpty()?"":parts.get(parts.size()-1);
-        Optional<TreeNode> node = findChild(parent, name);
-        if (node.isEmpty()) {
-            if (parent.getChildren() == null) parent.setChildren(new ArrayList<>());
-            parent.getChildren().add(TreeNode.file(name, content == null ? "" : content));
-        } else {
-            if (!"file".equals(node.get().getType())) throw new IllegalStateException("O caminho especificado não é um arquivo");
-            node.get().setContent(content);
-        }
-        persist(s, root);
+        withWorkspace(publicId, ws -> {
+            TreeNode root = ws.root();
+            List<String> parts = splitPath(path);
+            TreeNode parent = findParent(root, parts);
+            String name = parts.isEmpty()?"":parts.get(parts.size()-1);
+            Optional<TreeNode> node = findChild(parent, name);
+            if (node.isEmpty()) {
+                if (parent.getChildren() == null) parent.setChildren(new ArrayList<>());
+                parent.getChildren().add(TreeNode.file(name, content == null ? "" : content));
+            } else {
+                if (!"file".equals(node.get().getType())) throw new IllegalStateException("O caminho especificado não é um arquivo");
+                node.get().setContent(content);
+            }
+            ws.markDirty(List.of(String.join("/", parts)));
+            return null;
+        });
     }
 
     @Transactional
     public void deleteNode(String publicId, String path) throws Exception {
-        CodingSession s = getSession(publicId);
-        TreeNode root = loadRootAndMigrateIfNeeded(s);
-        List<String> parts = splitPath(path);
-        if (parts.isEmpty()) throw new IllegalArgumentException("Não pode apagar root");
-        TreeNode parent = findParent(root, parts);
-        String name = parts.get(parts.size()-1);
-        if (parent.getChildren()==null || !parent.getChildren().removeIf(c -> c.getName().equals(name))) {
-            throw new NoSuchElementException("Nó não encontrado");
-        }
-        persist(s, root);
+        withWorkspace(publicId, ws -> {
+            TreeNode root = ws.root();
+            List<String> parts = splitPath(path);
+            if (parts.isEmpty()) throw new IllegalArgumentException("Não pode apagar root");
+            TreeNode parent = findParent(root, parts);
+            String name = parts.get(parts.size()-1);
+            Optional<TreeNode> node = findChild(parent, name);
+            if (node.isEmpty()) throw new NoSuchElementException("Nó não encontrado");
+            List<String> touched = new ArrayList<>();
+            collectSubtreePaths(node.get(), String.join("/", parts), touched);
+            parent.getChildren().removeIf(c -> c.getName().equals(name));
+            ws.markDirty(touched);
+            return null;
+        });
     }
 
     @Transactional
     public void renameNode(String publicId, String path, String newName) throws Exception {
         if (newName == null || newName.isBlank()) throw new IllegalArgumentException("novo nome vazio");
-        CodingSession s = getSession(publicId);
-        TreeNode root = loadRootAndMigrateIfNeeded(s);
-        List<String> parts = splitPath(path);
-        if (parts.isEmpty()) throw new IllegalArgumentException("Root não pode ser renomeado");
-        TreeNode parent = findParent(root, parts);
-        String old = parts.get(parts.size()-1);
-        Optional<TreeNode> node = findChild(parent, old);
-        if (node.isEmpty()) throw new NoSuchElementException("Nó não encontrado");
-        if (parent.getChildren().stream().anyMatch(c -> c.getName().equals(newName))) {
-            throw new IllegalStateException("Conflito: já existe nome");
-        }
-        node.get().setName(newName);
-        persist(s, root);
+        withWorkspace(publicId, ws -> {
+            TreeNode root = ws.root();
+            List<String> parts = splitPath(path);
+            if (parts.isEmpty()) throw new IllegalArgumentException("Root não pode ser renomeado");
+            TreeNode parent = findParent(root, parts);
+            String old = parts.get(parts.size()-1);
+            Optional<TreeNode> node = findChild(parent, old);
+            if (node.isEmpty()) throw new NoSuchElementException("Nó não encontrado");
+            if (parent.getChildren().stream().anyMatch(c -> c.getName().equals(newName))) {
+                throw new IllegalStateException("Conflito: já existe nome");
+            }
+            List<String> touched = new ArrayList<>();
+            collectSubtreePaths(node.get(), String.join("/", parts), touched);
+            node.get().setName(newName);
+            List<String> parentParts = parts.subList(0, parts.size()-1);
+            collectSubtreePaths(node.get(), parentParts.isEmpty() ? newName : String.join("/", parentParts) + "/" + newName, touched);
+            ws.markDirty(touched);
+            return null;
+        });
     }
 
     @Transactional
     public void moveNode(String publicId, String from, String toFolder) throws Exception {
-        CodingSession s = getSession(publicId);
-        TreeNode root = loadRootAndMigrateIfNeeded(s);
-        List<String> fromParts = splitPath(from);
-        if (fromParts.isEmpty()) throw new IllegalArgumentException("Não pode mover root");
-        List<String> destParts = splitPath(toFolder);
-        // detect cycle if moving folder into its subfolder
-        if (isAncestorPath(fromParts, destParts)) throw new IllegalArgumentException("Destino é subpath da origem");
-        TreeNode fromParent = findParent(root, fromParts);
-        String name = fromParts.get(fromParts.size()-1);
-        Optional<TreeNode> nodeOpt = findChild(fromParent, name);
-        if (nodeOpt.isEmpty()) throw new NoSuchElementException("Origem não encontrada");
-        TreeNode node = nodeOpt.get();
-        TreeNode destFolderNode = destParts.isEmpty()?root:ensureFolder(root, destParts); // auto-create dest path
-        if (destFolderNode.getChildren()==null) destFolderNode.setChildren(new ArrayList<>());
-        // check conflict
-        if (destFolderNode.getChildren().stream().anyMatch(c -> c.getName().equals(node.getName()))) {
-            throw new IllegalStateException("Conflito destino");
-        }
-        // remove from old parent
-        fromParent.getChildren().remove(node);
-        destFolderNode.getChildren().add(node);
-        persist(s, root);
+        withWorkspace(publicId, ws -> {
+            TreeNode root = ws.root();
+            List<String> fromParts = splitPath(from);
+            if (fromParts.isEmpty()) throw new IllegalArgumentException("Não pode mover root");
+            List<String> destParts = splitPath(toFolder);
+            // detect cycle if moving folder into its subfolder
+            if (isAncestorPath(fromParts, destParts)) throw new IllegalArgumentException("Destino é subpath da origem");
+            TreeNode fromParent = findParent(root, fromParts);
+            String name = fromParts.get(fromParts.size()-1);
+            Optional<TreeNode> nodeOpt = findChild(fromParent, name);
+            if (nodeOpt.isEmpty()) throw new NoSuchElementException("Origem não encontrada");
+            TreeNode node = nodeOpt.get();
+            List<String> touched = new ArrayList<>();
+            for (int i = 1; i <= destParts.size(); i++) {
+                touched.add(String.join("/", destParts.subList(0, i))); // pastas de destino auto-criadas
+            }
+            TreeNode destFolderNode = destParts.isEmpty()?root:ensureFolder(root, destParts); // auto-create dest path
+            // marcado já: as pastas criadas ficam na árvore mesmo que o move falhe abaixo
+            ws.markDirty(touched);
+            if (destFolderNode.getChildren()==null) destFolderNode.setChildren(new ArrayList<>());
+            // check conflict
+            if (destFolderNode.getChildren().stream().anyMatch(c -> c.getName().equals(node.getName()))) {
+                throw new IllegalStateException("Conflito destino");
+            }
+            // remove from old parent
+            collectSubtreePaths(node, String.join("/", fromParts), touched);
+            fromParent.getChildren().remove(node);
+            destFolderNode.getChildren().add(node);
+            collectSubtreePaths(node, destParts.isEmpty() ? name : String.join("/", destParts) + "/" + name, touched);
+            ws.markDirty(touched);
+            return null;
+        });
     }
 
     @Transactional
     public String duplicateNode(String publicId, String path, String targetName) throws Exception {
         if (path == null || path.isBlank()) throw new IllegalArgumentException("path vazio");
-        CodingSession s = getSession(publicId);
-        TreeNode root = loadRootAndMigrateIfNeeded(s);
-        List<String> parts = splitPath(path);
-    if (parts.isEmpty()) throw new IllegalArgumentException("Caminho inválido");
-        TreeNode parent = findParent(root, parts);
-        String name = parts.get(parts.size()-1);
-        Optional<TreeNode> nodeOpt = findChild(parent, name);
-    if (nodeOpt.isEmpty()) throw new NoSuchElementException("Nó não encontrado");
-        TreeNode original = nodeOpt.get();
+        return withWorkspace(publicId, ws -> {
+            TreeNode root = ws.root();
+            List<String> parts = splitPath(path);
+            if (parts.isEmpty()) throw new IllegalArgumentException("Caminho inválido");
+            TreeNode parent = findParent(root, parts);
+            String name = parts.get(parts.size()-1);
+            Optional<TreeNode> nodeOpt = findChild(parent, name);
+            if (nodeOpt.isEmpty()) throw new NoSuchElementException("Nó não encontrado");
+            TreeNode original = nodeOpt.get();
 
-        if (parent.getChildren() == null) parent.setChildren(new ArrayList<>());
-        String newName = (targetName != null && !targetName.isBlank()) ? targetName : uniqueCopyName(parent, name);
-        if (parent.getChildren().stream().anyMatch(c -> c.getName().equals(newName))) {
-            throw new IllegalStateException("Conflito: já existe destino");
-        }
-
-        TreeNode clone = deepClone(original);
-        clone.setName(newName);
-        parent.getChildren().add(clone);
-        persist(s, root);
+            if (parent.getChildren() == null) parent.setChildren(new ArrayList<>());
+            String newName = (targetName != null && !targetName.isBlank()) ? targetName : uniqueCopyName(parent, name);
+            if (parent.getChildren().stream().anyMatch(c -> c.getName().equals(newName))) {
+                throw new IllegalStateException("Conflito: já existe destino");
+            }
 
-        // return new relative path
-        if (parts.size() == 1) return newName;
-        return String.join("/", parts.subList(0, parts.size()-1)) + "/" + newName;
+            TreeNode clone = deepClone(original);
+            clone.setName(newName);
+            parent.getChildren().add(clone);
+
+            // return new relative path
+            String newPath = parts.size() == 1 ? newName : String.join("/", parts.subList(0, parts.size()-1)) + "/" + newName;
+            List<String> touched = new ArrayList<>();
+            collectSubtreePaths(clone, newPath, touched);
+            ws.markDirty(touched);
+            return newPath;
+        });
     }
 
     // -------- Advanced Features --------
 
     // 1. Download Project (Zip)
-    @Transactional(readOnly = true)
-    public byte[] downloadProject(String publicId) throws Exception {
-        TreeNode root = getTree(publicId);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
-            zipRecursive(root, "", zos);
+    // Tempo máximo à espera de que um flush concorrente termine antes de exportar do banco
+    private static final long EXPORT_SETTLE_TIMEOUT_MS = 1000;
+    // Linhas de session_file lidas por página (cada página na sua transação)
+    private static final int EXPORT_PAGE_SIZE = 200;
+
+    /**
+     * Escreve o zip do projeto em {@code out} à medida que lê as linhas de session_file, em
+     * páginas por file_path (keyset), cada uma na sua transação curta de leitura: a memória não
+     * depende do tamanho do projeto e nenhuma ligação ao banco fica presa enquanto um cliente
+     * lento consome o zip. As escritas pendentes do workspace são gravadas antes; se outro flush
+     * não terminar a tempo (ou a sessão só existir no filesJson legado) exporta a partir de uma
+     * cópia da árvore em memória.
+     */
+    public void writeProjectZip(String publicId, OutputStream out) throws Exception {
+        getSession(publicId);
+        boolean flushed = flushWorkspace(publicId);
+        boolean settled = flushed && workspaceCache.isSettled(publicId);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(EXPORT_SETTLE_TIMEOUT_MS);
+        // espera pelo flush de outra thread e grava o que entretanto ficou pendente; se a nossa
+        // gravação falhar não adianta insistir
+        while (flushed && !settled) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !workspaceCache.awaitFlush(publicId, remaining)) break;
+            flushed = flushWorkspace(publicId);
+            settled = flushed && workspaceCache.isSettled(publicId);
+        }
+
+        try (ZipOutputStream zos = new ZipOutputStream(out)) {
+            if (settled && sessionFileRepo.existsBySessionPublicId(publicId)) {
+                zipRows(publicId, zos);
+            } else {
+                zipRecursive(getTree(publicId), "", zos);
+            }
+        }
+    }
+
+    private void zipRows(String publicId, ZipOutputStream zos) throws IOException {
+        String after = "";
+        while (true) {
+            String from = after;
+            List<SessionFile> page = exportTransaction.execute(status ->
+                    sessionFileRepo.findExportPage(publicId, from, PageRequest.ofSize(EXPORT_PAGE_SIZE)));
+            if (page == null || page.isEmpty()) return;
+            // a transação já terminou: a página é escrita sem ligação ao banco
+            for (SessionFile row : page) {
+                String path = row.getFilePath();
+                if ("folder".equals(row.getType())) {
+                    zos.putNextEntry(new ZipEntry(path + "/"));
+                } else {
+                    zos.putNextEntry(new ZipEntry(path));
+                    if (row.getContent() != null) zos.write(row.getContent().getBytes(StandardCharsets.UTF_8));
+                }
+                zos.closeEntry();
+            }
+            if (page.size() < EXPORT_PAGE_SIZE) return;
+            // file_path estritamente maior: linhas duplicadas do mesmo caminho ficam de fora
+            after = page.get(page.size() - 1).getFilePath();
         }
-        return baos.toByteArray();
     }
 
     private void zipRecursive(TreeNode node, String parentPath, ZipOutputStream zos) throws Exception {
@@ -435,54 +677,177 @@ public class TreeSessionService {
 
     // 3. Global Search
     @Transactional(readOnly = true)
-    public List<Map<String, Object>> searchProject(String publicId, String query) throws Exception {
-        if (query == null || query.length() < 3) throw new IllegalArgumentException("Query muito curta (min 3 chars)");
-        TreeNode root = getTree(publicId);
-        List<Map<String, Object>> results = new ArrayList<>();
-        searchRecursive(root, "", query.toLowerCase(), results);
-        return results;
+    public ProjectSearchIndex.SearchPage searchProject(String publicId, String query, boolean caseSensitive,
+                                                      boolean wholeWord, boolean regex,
+                                                      int offset, int limit) throws Exception {
+        if (query == null || query.isEmpty() || (!regex && query.length() < 3)) {
+            throw new IllegalArgumentException("Query muito curta (min 3 chars)");
+        }
+        if (offset < 0) throw new IllegalArgumentException("offset inválido");
+        int pageSize = Math.max(1, Math.min(limit, MAX_SEARCH_PAGE));
+        ProjectSearchIndex.Query compiled = ProjectSearchIndex.compile(query, caseSensitive, wholeWord, regex);
+
+        return withWorkspace(publicId, ws -> {
+            ProjectSearchIndex index = ws.searchIndex();
+            if (index == null) {
+                index = ProjectSearchIndex.build(ws.root());
+                ws.attachSearchIndex(index);
+            } else {
+                for (String path : ws.drainIndexStalePaths()) {
+                    index.refresh(path, findNode(ws.root(), path).orElse(null));
+                }
+            }
+            return index.search(compiled, offset, pageSize);
+        });
     }
 
-    private void searchRecursive(TreeNode node, String parentPath, String query, List<Map<String, Object>> results) {
-        String currentPath = parentPath.isEmpty() ? node.getName() : parentPath + "/" + node.getName();
-        if (parentPath.isEmpty() && node.getName().isEmpty()) currentPath = "";
+    // 5. Patch (sync-service depois de pull/checkout/clone)
 
-        if ("folder".equals(node.getType())) {
-            if (node.getChildren() != null) {
-                for (TreeNode child : node.getChildren()) {
-                    searchRecursive(child, currentPath, query, results);
+    /**
+     * Aplica de uma vez as alterações calculadas pelo sync-service: {@code deletes} primeiro
+     * (removendo as pastas que ficarem vazias), depois cada upsert cria as pastas em falta e
+     * escreve o ficheiro. Só os caminhos tocados são marcados para o próximo flush.
+     * Todos os caminhos são validados antes de mexer na árvore: um pedido inválido não
+     * aplica nada.
+     * @return número de caminhos alterados
+     */
+    @Transactional
+    public int applyPatch(String publicId, Map<String, String> upserts, List<String> deletes) throws Exception {
+        Map<String, String> files = upserts != null ? upserts : Map.of();
+        List<String> removed = deletes != null ? deletes : List.of();
+        if (files.size() + removed.size() > MAX_CONTENT_PATHS) {
+            throw new IllegalArgumentException("Máximo de " + MAX_CONTENT_PATHS + " caminhos por pedido");
+        }
+        List<List<String>> deleteParts = new ArrayList<>(removed.size());
+        for (String path : removed) {
+            if (path == null) throw new IllegalArgumentException("Caminho inválido: null");
+            List<String> parts = splitPath(path);
+            if (!parts.isEmpty()) deleteParts.add(parts);
+        }
+        Map<List<String>, String> upsertParts = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            List<String> parts = e.getKey() == null ? List.of() : splitPath(e.getKey());
+            if (parts.isEmpty()) throw new IllegalArgumentException("Caminho inválido: " + e.getKey());
+            upsertParts.put(parts, e.getValue());
+        }
+        return withWorkspace(publicId, ws -> {
+            TreeNode root = ws.root();
+            List<String> touched = new ArrayList<>();
+            try {
+                for (List<String> parts : deleteParts) {
+                    removeWithEmptyParents(root, parts, touched);
+                }
+                for (Map.Entry<List<String>, String> e : upsertParts.entrySet()) {
+                    upsertFile(root, e.getKey(), e.getValue(), touched);
                 }
+            } finally {
+                // o que já mudou na árvore em cache tem de chegar ao banco, mesmo se algo falhar
+                ws.markDirty(touched);
+            }
+            return files.size() + removed.size();
+        });
+    }
+
+    private void removeWithEmptyParents(TreeNode root, List<String> parts, List<String> touched) {
+        // cadeia root -> pai do nó; caminho inexistente = nada a apagar
+        List<TreeNode> chain = new ArrayList<>();
+        TreeNode current = root;
+        chain.add(current);
+        for (int i = 0; i < parts.size() - 1; i++) {
+            Optional<TreeNode> next = findChild(current, parts.get(i));
+            if (next.isEmpty() || !"folder".equals(next.get().getType())) return;
+            current = next.get();
+            chain.add(current);
+        }
+        String name = parts.get(parts.size() - 1);
+        Optional<TreeNode> node = findChild(current, name);
+        if (node.isEmpty()) return;
+        collectSubtreePaths(node.get(), String.join("/", parts), touched);
+        current.getChildren().remove(node.get());
+        // o git não guarda pastas: as que ficaram vazias por causa deste delete também saem
+        for (int i = chain.size() - 1; i > 0; i--) {
+            TreeNode folder = chain.get(i);
+            if (folder.getChildren() != null && !folder.getChildren().isEmpty()) break;
+            chain.get(i - 1).getChildren().remove(folder);
+            touched.add(String.join("/", parts.subList(0, i)));
+        }
+    }
+
+    private void upsertFile(TreeNode root, List<String> parts, String content, List<String> touched) {
+        TreeNode current = root;
+        for (int i = 0; i < parts.size() - 1; i++) {
+            String folderPath = String.join("/", parts.subList(0, i + 1));
+            Optional<TreeNode> next = findChild(current, parts.get(i));
+            if (next.isPresent() && !"folder".equals(next.get().getType())) {
+                // um ficheiro passou a pasta no git
+                current.getChildren().remove(next.get());
+                next = Optional.empty();
+            }
+            if (next.isEmpty()) {
+                if (current.getChildren() == null) current.setChildren(new ArrayList<>());
+                TreeNode folder = TreeNode.folder(parts.get(i));
+                current.getChildren().add(folder);
+                touched.add(folderPath);
+                next = Optional.of(folder);
             }
+            current = next.get();
+        }
+        String path = String.join("/", parts);
+        String name = parts.get(parts.size() - 1);
+        Optional<TreeNode> existing = findChild(current, name);
+        if (existing.isPresent() && "file".equals(existing.get().getType())) {
+            existing.get().setContent(content == null ? "" : content);
         } else {
-            String content = node.getContent();
-            if (content != null) {
-                String[] lines = content.split("\\R");
-                for (int i = 0; i < lines.length; i++) {
-                    if (lines[i].toLowerCase().contains(query)) {
-                        Map<String, Object> match = new HashMap<>();
-                        match.put("path", currentPath);
-                        match.put("line", i + 1);
-                        match.put("content", lines[i].trim());
-                        results.add(match);
-                        if (results.size() > 100) return; // Limit results
-                    }
-                }
+            // inexistente, ou uma pasta que passou a ficheiro
+            if (existing.isPresent()) {
+                collectSubtreePaths(existing.get(), path, touched);
+                current.getChildren().remove(existing.get());
             }
+            if (current.getChildren() == null) current.setChildren(new ArrayList<>());
+            current.getChildren().add(TreeNode.file(name, content == null ? "" : content));
         }
+        touched.add(path);
     }
 
-    @Transactional
-    public void createSnapshot(String publicId, String path, String content, String username) {
-        com.codesync.sessionservice.model.FileHistory history = new com.codesync.sessionservice.model.FileHistory();
-        history.setSessionPublicId(publicId);
-        history.setFileName(path);
-        history.setContent(content);
-        history.setCreatedBy(username);
-        historyRepo.save(history);
+    // 4. Manifest (sync incremental do sync-service)
+
+    /**
+     * Caminho -> hash de cada ficheiro, com um ETag que muda a cada mutação do workspace.
+     * Se {@code knownEtag} ainda for o atual, o manifesto nem é calculado.
+     */
+    @Transactional(readOnly = true)
+    public ManifestSnapshot getManifest(String publicId, String knownEtag) throws Exception {
+        return withWorkspace(publicId, ws -> {
+            String etag = "\"" + WorkspaceCache.BOOT_ID + "-" + ws.version() + "\"";
+            if (etag.equals(knownEtag)) return new ManifestSnapshot(etag, null);
+            WorkspaceManifest manifest = ws.manifest();
+            if (manifest == null) {
+                manifest = WorkspaceManifest.build(ws.root());
+                ws.attachManifest(manifest);
+            } else {
+                for (String path : ws.drainManifestStalePaths()) {
+                    manifest.refresh(path, findNode(ws.root(), path).orElse(null));
+                }
+            }
+            return new ManifestSnapshot(etag, manifest.hashes());
+        });
     }
 
+    /** Conteúdo dos ficheiros pedidos; caminhos que não existem (ou são pastas) ficam de fora. */
     @Transactional(readOnly = true)
-    public List<com.codesync.sessionservice.model.FileHistory> getFileHistory(String publicId, String path) {
-        return historyRepo.findBySessionPublicIdAndFileNameOrderByCreatedAtDesc(publicId, path);
+    public Map<String, String> getContents(String publicId, List<String> paths) throws Exception {
+        if (paths == null) throw new IllegalArgumentException("paths em falta");
+        if (paths.size() > MAX_CONTENT_PATHS) {
+            throw new IllegalArgumentException("Máximo de " + MAX_CONTENT_PATHS + " caminhos por pedido");
+        }
+        return withWorkspace(publicId, ws -> {
+            Map<String, String> contents = new LinkedHashMap<>();
+            for (String path : paths) {
+                findNode(ws.root(), path)
+                        .filter(n -> !"folder".equals(n.getType()))
+                        .ifPresent(n -> contents.put(path, SessionFileDiff.contentOf(n)));
+            }
+            return contents;
+        });
     }
 }
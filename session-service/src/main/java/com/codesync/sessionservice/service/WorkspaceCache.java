@@ -0,0 +1,481 @@
+package com.codesync.sessionservice.service;
+
+import com.codesync.sessionservice.dto.TreeNode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache em memória da árvore de cada workspace (por publicId).
+ * Leituras e mutações operam sobre a árvore em memória; as mutações marcam os caminhos
+ * tocados como pendentes e o {@link TreeSessionService} grava-os em lote (write-behind).
+ * O despejo é LRU ponderado pelo tamanho do conteúdo e nunca remove um workspace com
+ * escritas pendentes ou em curso. O peso da árvore é acertado a cada mutação só com os
+ * caminhos marcados, sem voltar a percorrer a árvore inteira.
+ */
+@Component
+public class WorkspaceCache {
+
+    // Overhead aproximado de um TreeNode (objeto + nome + lista) em bytes
+    private static final long NODE_OVERHEAD_BYTES = 96;
+    // Entrada do mapa de pesos por caminho (nó do HashMap + String + Long), sem os chars do caminho
+    private static final long PATH_ENTRY_OVERHEAD_BYTES = 80;
+
+    // Versões dos workspaces: crescem a cada carga ou mutação e nunca se repetem neste processo;
+    // BOOT_ID distingue processos (ver TreeSessionService#getManifest)
+    public static final String BOOT_ID = Long.toString(System.currentTimeMillis(), 36);
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    @FunctionalInterface
+    public interface Loader {
+        Loaded load() throws Exception;
+    }
+
+    /**
+     * Resultado do carregamento. {@code unmigrated} indica uma árvore lida só do filesJson legado:
+     * a primeira mutação obriga a gravar todas as linhas, não apenas os caminhos tocados.
+     */
+    public record Loaded(TreeNode root, boolean unmigrated) {
+    }
+
+    @FunctionalInterface
+    public interface WorkspaceAction<T> {
+        T apply(Workspace ws) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface DrainAction<T> {
+        T apply(TreeNode root, boolean fullRewrite, Set<String> paths) throws Exception;
+    }
+
+    public static final class Workspace {
+        private final ReentrantLock lock = new ReentrantLock();
+        // Sinalizada quando um flush em curso termina (ou o workspace sai da cache)
+        private final Condition flushDone = lock.newCondition();
+        private TreeNode root;
+        private final Set<String> dirtyPaths = new LinkedHashSet<>();
+        private boolean fullRewrite;
+        private boolean unmigrated;
+        private Set<String> inFlightPaths = Set.of();
+        private boolean inFlightFullRewrite;
+        private boolean flushing;
+        private boolean evicted;
+        private long weight;
+        // Índice de pesquisa, construído só na primeira pesquisa; os caminhos mutados desde a
+        // última pesquisa ficam em indexStalePaths e são reindexados na seguinte
+        private ProjectSearchIndex searchIndex;
+        private final Set<String> indexStalePaths = new HashSet<>();
+        // Manifesto de hashes, com a mesma construção preguiçosa e invalidação do índice
+        private WorkspaceManifest manifest;
+        private final Set<String> manifestStalePaths = new HashSet<>();
+        private long version = VERSIONS.incrementAndGet();
+        // Peso próprio de cada nó por caminho; markDirty acerta treeWeight com a diferença
+        private final Map<String, Long> nodeWeights = new HashMap<>();
+        private long treeWeight;
+
+        private Workspace(TreeNode root) {
+            this.root = root;
+            indexWeights();
+        }
+
+        /** Muda sempre que a árvore muda. */
+        public long version() {
+            return version;
+        }
+
+        public TreeNode root() {
+            return root;
+        }
+
+        /** Caminhos cujo estado em memória deve ser reconciliado com session_file no próximo flush. */
+        public void markDirty(Collection<String> paths) {
+            if (unmigrated) {
+                fullRewrite = true;
+                unmigrated = false;
+            }
+            dirtyPaths.addAll(paths);
+            reweighPaths(paths);
+            if (searchIndex != null) indexStalePaths.addAll(paths);
+            if (manifest != null) manifestStalePaths.addAll(paths);
+            version = VERSIONS.incrementAndGet();
+        }
+
+        /** Troca a árvore inteira; o próximo flush reconcilia todas as linhas da sessão. */
+        public void replaceRoot(TreeNode newRoot) {
+            root = newRoot;
+            fullRewrite = true;
+            unmigrated = false;
+            dirtyPaths.clear();
+            searchIndex = null;
+            indexStalePaths.clear();
+            manifest = null;
+            manifestStalePaths.clear();
+            indexWeights();
+            version = VERSIONS.incrementAndGet();
+        }
+
+        public ProjectSearchIndex searchIndex() {
+            return searchIndex;
+        }
+
+        public void attachSearchIndex(ProjectSearchIndex index) {
+            searchIndex = index;
+            indexStalePaths.clear();
+        }
+
+        /** Caminhos a reindexar desde a última pesquisa (a lista fica vazia). */
+        public Set<String> drainIndexStalePaths() {
+            if (indexStalePaths.isEmpty()) return Set.of();
+            Set<String> paths = new HashSet<>(indexStalePaths);
+            indexStalePaths.clear();
+            return paths;
+        }
+
+        public WorkspaceManifest manifest() {
+            return manifest;
+        }
+
+        public void attachManifest(WorkspaceManifest m) {
+            manifest = m;
+            manifestStalePaths.clear();
+        }
+
+        /** Caminhos a atualizar no manifesto desde o último pedido (a lista fica vazia). */
+        public Set<String> drainManifestStalePaths() {
+            if (manifestStalePaths.isEmpty()) return Set.of();
+            Set<String> paths = new HashSet<>(manifestStalePaths);
+            manifestStalePaths.clear();
+            return paths;
+        }
+
+        /** Árvore, índice de pesquisa e manifesto; O(1) fora do que markDirty já acertou. */
+        private long estimatedWeight() {
+            long w = treeWeight;
+            if (searchIndex != null) w += searchIndex.estimatedBytes();
+            if (manifest != null) w += manifest.estimatedBytes();
+            return w;
+        }
+
+        // Percurso completo: só na carga e quando a árvore é trocada inteira
+        private void indexWeights() {
+            nodeWeights.clear();
+            treeWeight = NODE_OVERHEAD_BYTES; // raiz
+            if (root == null || root.getChildren() == null) return;
+            for (TreeNode c : root.getChildren()) indexWeights(c, c.getName());
+        }
+
+        private void indexWeights(TreeNode node, String path) {
+            long w = ownWeight(node, path);
+            nodeWeights.put(path, w);
+            treeWeight += w;
+            if (node.getChildren() == null) return;
+            for (TreeNode c : node.getChildren()) indexWeights(c, path + "/" + c.getName());
+        }
+
+        // Os caminhos marcados cobrem tudo o que a mutação criou, alterou ou removeu
+        private void reweighPaths(Collection<String> paths) {
+            for (String path : paths) {
+                TreeNode node = lookup(root, path);
+                long w = node == null ? 0 : ownWeight(node, path);
+                Long old = node == null ? nodeWeights.remove(path) : nodeWeights.put(path, w);
+                treeWeight += w - (old == null ? 0 : old);
+            }
+        }
+
+        private boolean hasPending() {
+            return fullRewrite || !dirtyPaths.isEmpty();
+        }
+
+        private boolean isEvictable() {
+            return !hasPending() && !flushing;
+        }
+    }
+
+    private final LinkedHashMap<String, Workspace> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Cargas em curso por publicId (guardado pelo monitor de 'entries'): só uma corre de cada vez
+    private final Map<String, CompletableFuture<Workspace>> loading = new HashMap<>();
+    private long totalWeight;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Value("${workspace.cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    /**
+     * Executa {@code action} com o lock do workspace, carregando-o via {@code loader} se ainda
+     * não estiver em memória.
+     */
+    public <T> T withWorkspace(String publicId, Loader loader, WorkspaceAction<T> action) throws Exception {
+        while (true) {
+            Workspace ws = getOrLoad(publicId, loader);
+            ws.lock.lock();
+            try {
+                if (ws.evicted) continue; // despejado entre o lookup e o lock: recarregar
+                T result = action.apply(ws);
+                settleWeight(ws);
+                return result;
+            } finally {
+                ws.lock.unlock();
+            }
+        }
+    }
+
+    private Workspace getOrLoad(String publicId, Loader loader) throws Exception {
+        while (true) {
+            CompletableFuture<Workspace> load;
+            boolean owner = false;
+            synchronized (entries) {
+                Workspace ws = entries.get(publicId);
+                if (ws != null) {
+                    hits.incrementAndGet();
+                    return ws;
+                }
+                load = loading.get(publicId);
+                if (load == null) {
+                    load = new CompletableFuture<>();
+                    loading.put(publicId, load);
+                    owner = true;
+                }
+            }
+            Workspace ws = owner ? runLoad(publicId, loader, load) : awaitLoad(load);
+            if (ws != null) return ws;
+            // carga descartada por um invalidate enquanto corria: voltar a carregar
+        }
+    }
+
+    /**
+     * Carrega fora do monitor para não bloquear as outras sessões durante o acesso ao banco.
+     * Os outros pedidos do mesmo publicId esperam por esta carga em vez de lerem o banco em
+     * paralelo, por isso nenhuma carga mais antiga pode entrar na cache depois de uma mais
+     * recente ter sido alterada, gravada e despejada. Devolve null se o workspace tiver sido
+     * invalidado durante a carga.
+     */
+    private Workspace runLoad(String publicId, Loader loader, CompletableFuture<Workspace> load) throws Exception {
+        misses.incrementAndGet();
+        Workspace loaded;
+        try {
+            Loaded result = loader.load();
+            loaded = new Workspace(result.root());
+            loaded.unmigrated = result.unmigrated();
+            loaded.weight = loaded.estimatedWeight();
+        } catch (Throwable t) {
+            synchronized (entries) {
+                loading.remove(publicId, load);
+            }
+            load.completeExceptionally(t);
+            throw t;
+        }
+        synchronized (entries) {
+            if (loading.remove(publicId, load)) {
+                entries.put(publicId, loaded);
+                totalWeight += loaded.weight;
+                evictIfNeeded();
+            } else {
+                loaded = null;
+            }
+        }
+        load.complete(loaded);
+        return loaded;
+    }
+
+    private static Workspace awaitLoad(CompletableFuture<Workspace> load) throws Exception {
+        try {
+            return load.get();
+        } catch (ExecutionException e) {
+            // a falha de quem carregou (ex.: sessão inexistente) vale também para quem esperava
+            if (e.getCause() instanceof Exception cause) throw cause;
+            if (e.getCause() instanceof Error error) throw error;
+            throw e;
+        }
+    }
+
+    public List<String> pendingIds() {
+        List<String> ids = new ArrayList<>();
+        synchronized (entries) {
+            for (Map.Entry<String, Workspace> e : entries.entrySet()) {
+                // leitura sem o lock do workspace: no pior caso o flush encontra-o vazio
+                if (e.getValue().hasPending()) ids.add(e.getKey());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Retira as escritas pendentes do workspace e entrega-as a {@code action} (sob o lock),
+     * para que o chamador tire um snapshot do que gravar. Até {@link #completeFlush} o
+     * workspace não é despejado. Devolve null se não houver nada pendente.
+     */
+    public <T> T drain(String publicId, DrainAction<T> action) throws Exception {
+        Workspace ws;
+        synchronized (entries) {
+            ws = entries.get(publicId);
+        }
+        if (ws == null) return null;
+        ws.lock.lock();
+        try {
+            if (ws.evicted || ws.flushing || !ws.hasPending()) return null;
+            Set<String> paths = new LinkedHashSet<>(ws.dirtyPaths);
+            boolean full = ws.fullRewrite;
+            T result = action.apply(ws.root, full, paths);
+            ws.inFlightPaths = paths;
+            ws.inFlightFullRewrite = full;
+            ws.dirtyPaths.clear();
+            ws.fullRewrite = false;
+            ws.flushing = true;
+            return result;
+        } finally {
+            ws.lock.unlock();
+        }
+    }
+
+    /** Conclui um flush iniciado por {@link #drain}; em caso de falha as escritas voltam a ficar pendentes. */
+    public void completeFlush(String publicId, boolean success) {
+        Workspace ws;
+        synchronized (entries) {
+            ws = entries.get(publicId);
+        }
+        if (ws == null) return;
+        ws.lock.lock();
+        try {
+            if (!success) {
+                ws.dirtyPaths.addAll(ws.inFlightPaths);
+                ws.fullRewrite |= ws.inFlightFullRewrite;
+            }
+            ws.inFlightPaths = Set.of();
+            ws.inFlightFullRewrite = false;
+            ws.flushing = false;
+            ws.flushDone.signalAll();
+        } finally {
+            ws.lock.unlock();
+        }
+        synchronized (entries) {
+            evictIfNeeded();
+        }
+    }
+
+    /** true se session_file já reflete o workspace (fora da cache, ou sem escritas pendentes nem em curso). */
+    public boolean isSettled(String publicId) {
+        Workspace ws;
+        synchronized (entries) {
+            ws = entries.get(publicId);
+        }
+        if (ws == null) return true;
+        ws.lock.lock();
+        try {
+            return ws.evicted || ws.isEvictable();
+        } finally {
+            ws.lock.unlock();
+        }
+    }
+
+    /** Remove o workspace sem gravar (ex.: sessão apagada). */
+    public void invalidate(String publicId) {
+        Workspace ws;
+        synchronized (entries) {
+            ws = entries.remove(publicId);
+            if (ws != null) totalWeight -= ws.weight;
+            loading.remove(publicId); // uma carga em curso já não entra na cache
+        }
+        if (ws != null) {
+            ws.lock.lock();
+            try {
+                ws.evicted = true;
+                ws.flushDone.signalAll();
+            } finally {
+                ws.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Espera até {@code timeoutNanos} que termine o flush em curso do workspace. Devolve true
+     * se não houver (ou deixar de haver) flush em curso, false se o tempo acabar.
+     */
+    public boolean awaitFlush(String publicId, long timeoutNanos) throws InterruptedException {
+        Workspace ws;
+        synchronized (entries) {
+            ws = entries.get(publicId);
+        }
+        if (ws == null) return true;
+        ws.lock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while (ws.flushing && !ws.evicted) {
+                if (remaining <= 0) return false;
+                remaining = ws.flushDone.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            ws.lock.unlock();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (entries) {
+            stats.put("workspaces", entries.size());
+            stats.put("weightBytes", totalWeight);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    // Chamado com o lock do workspace
+    private void settleWeight(Workspace ws) {
+        long w = ws.estimatedWeight();
+        if (w == ws.weight) return;
+        synchronized (entries) {
+            if (!ws.evicted) totalWeight += w - ws.weight;
+            ws.weight = w;
+        }
+    }
+
+    // Chamado com o monitor de 'entries'; tryLock evita deadlock com quem já detém o lock do workspace
+    private void evictIfNeeded() {
+        if (totalWeight <= maxBytes) return;
+        Iterator<Map.Entry<String, Workspace>> it = entries.entrySet().iterator();
+        while (it.hasNext() && totalWeight > maxBytes && entries.size() > 1) {
+            Workspace ws = it.next().getValue();
+            if (!ws.lock.tryLock()) continue;
+            try {
+                if (!ws.isEvictable()) continue;
+                ws.evicted = true;
+                it.remove();
+                totalWeight -= ws.weight;
+                evictions.incrementAndGet();
+            } finally {
+                ws.lock.unlock();
+            }
+        }
+    }
+
+    // Só o nó (sem os filhos), mais a sua entrada em nodeWeights
+    private static long ownWeight(TreeNode node, String path) {
+        long w = NODE_OVERHEAD_BYTES + PATH_ENTRY_OVERHEAD_BYTES + 2L * path.length(); // UTF-16
+        if (node.getContent() != null) w += 2L * node.getContent().length();
+        return w;
+    }
+
+    private static TreeNode lookup(TreeNode root, String path) {
+        TreeNode current = root;
+        for (String part : WorkspaceTreeBuilder.splitPath(path)) {
+            if (current == null || current.getChildren() == null) return null;
+            TreeNode next = null;
+            for (TreeNode c : current.getChildren()) {
+                if (c.getName().equals(part)) { next = c; break; }
+            }
+            current = next;
+        }
+        return current == root ? null : current;
+    }
+}
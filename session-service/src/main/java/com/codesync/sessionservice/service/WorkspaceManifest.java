@@ -0,0 +1,65 @@
+package com.codesync.sessionservice.service;
+
+import com.codesync.sessionservice.dto.TreeNode;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Caminho -> SHA-256 (hex) do conteúdo UTF-8 de cada ficheiro de um workspace. Vive junto da
+ * árvore no {@link WorkspaceCache}, como o índice de pesquisa, e é atualizado com os caminhos
+ * marcados pelas mutações; o sync-service compara-o com o que tem em disco e só pede o
+ * conteúdo dos ficheiros que mudaram.
+ */
+public class WorkspaceManifest {
+
+    private final Map<String, String> hashes = new TreeMap<>();
+
+    public static WorkspaceManifest build(TreeNode root) {
+        WorkspaceManifest manifest = new WorkspaceManifest();
+        manifest.addTree(root, "");
+        return manifest;
+    }
+
+    private void addTree(TreeNode node, String path) {
+        if ("folder".equals(node.getType())) {
+            if (node.getChildren() == null) return;
+            for (TreeNode c : node.getChildren()) {
+                addTree(c, path.isEmpty() ? c.getName() : path + "/" + c.getName());
+            }
+        } else if (!path.isEmpty()) {
+            hashes.put(path, hash(node.getContent()));
+        }
+    }
+
+    /** Atualiza um caminho: {@code node} é o estado atual na árvore (null se já não existe). */
+    public void refresh(String path, TreeNode node) {
+        if (node != null && !"folder".equals(node.getType())) {
+            hashes.put(path, hash(node.getContent()));
+        } else {
+            hashes.remove(path);
+        }
+    }
+
+    /** Cópia ordenada por caminho. */
+    public Map<String, String> hashes() {
+        return new TreeMap<>(hashes);
+    }
+
+    public long estimatedBytes() {
+        return hashes.size() * 200L;
+    }
+
+    public static String hash(String content) {
+        try {
+            byte[] bytes = (content == null ? "" : content).getBytes(StandardCharsets.UTF_8);
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.codesync.sessionservice.service;
+
+import com.codesync.sessionservice.dto.TreeNode;
+import com.codesync.sessionservice.model.SessionFile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Reconstrói a árvore a partir das linhas de session_file em tempo linear: as pastas são
+ * indexadas pelo caminho (para anexar filhos sem varrer irmãos) e todos os caminhos já
+ * inseridos ficam num set (para descartar duplicados sem percorrer os filhos do pai).
+ */
+final class WorkspaceTreeBuilder {
+
+    private static final Pattern REPEATED_SLASHES = Pattern.compile("/+");
+    private static final Pattern TRIM_SLASHES = Pattern.compile("^/+|/+$");
+
+    private WorkspaceTreeBuilder() {
+    }
+
+    static TreeNode build(List<SessionFile> files) {
+        TreeNode root = TreeNode.folder("");
+        Map<String, TreeNode> folders = new HashMap<>(files.size() * 2);
+        Set<String> seen = new HashSet<>(files.size() * 2);
+        folders.put("", root);
+
+        for (SessionFile f : files) {
+            List<String> parts = splitPath(f.getFilePath());
+            if (parts.isEmpty()) continue;
+
+            TreeNode parent = root;
+            String parentPath = "";
+            for (int i = 0; i < parts.size() - 1; i++) {
+                String folderPath = parentPath.isEmpty() ? parts.get(i) : parentPath + "/" + parts.get(i);
+                TreeNode next = folders.get(folderPath);
+                if (next == null) {
+                    next = TreeNode.folder(parts.get(i));
+                    parent.getChildren().add(next);
+                    folders.put(folderPath, next);
+                    seen.add(folderPath);
+                }
+                parent = next;
+                parentPath = folderPath;
+            }
+
+            String name = parts.get(parts.size() - 1);
+            String path = parentPath.isEmpty() ? name : parentPath + "/" + name;
+            // avoid duplicates
+            if (!seen.add(path)) continue;
+
+            TreeNode node = new TreeNode();
+            node.setName(name);
+            node.setType(f.getType());
+            node.setContent(f.getContent());
+            if ("folder".equals(f.getType())) {
+                node.setChildren(new ArrayList<>());
+                folders.put(path, node);
+            }
+            parent.getChildren().add(node);
+        }
+
+        return root;
+    }
+
+    static List<String> splitPath(String path) {
+        String p = TRIM_SLASHES.matcher(REPEATED_SLASHES.matcher(path).replaceAll("/")).replaceAll("");
+        if (p.isEmpty()) return new ArrayList<>();
+        return Arrays.asList(p.split("/"));
+    }
+}
@@ -0,0 +1,56 @@
+package com.codesync.sessionservice.service;
+
+import com.codesync.sessionservice.dto.TreeNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProjectSearchIndexTest {
+
+    @Test
+    void plainRunsAndEscapedMetacharactersAreLiterals() {
+        assertEquals(List.of("foo.bar"), ProjectSearchIndex.regexLiterals("foo\\.bar"));
+        assertEquals(List.of("hello", "world"), ProjectSearchIndex.regexLiterals("hello\\s+world"));
+        assertEquals(List.of("colou"), ProjectSearchIndex.regexLiterals("colour?"));
+    }
+
+    @Test
+    void escapeOperandsAreNotLiterals() {
+        assertEquals(List.of("end"), ProjectSearchIndex.regexLiterals("\\x41end"));
+        assertEquals(List.of("end"), ProjectSearchIndex.regexLiterals("\\x{41}end"));
+        assertEquals(List.of("end"), ProjectSearchIndex.regexLiterals("\\u0041end"));
+        assertEquals(List.of("end"), ProjectSearchIndex.regexLiterals("\\0101end"));
+        assertEquals(List.of("end"), ProjectSearchIndex.regexLiterals("\\cAend"));
+        assertEquals(List.of("end"), ProjectSearchIndex.regexLiterals("(?<name>a)\\k<name>end"));
+        assertEquals(List.of("end"), ProjectSearchIndex.regexLiterals("\\p{Lu}end"));
+        assertEquals(List.of("end"), ProjectSearchIndex.regexLiterals("\\pLend"));
+        assertEquals(List.of("end"), ProjectSearchIndex.regexLiterals("\\N{LATIN SMALL LETTER A}end"));
+        assertEquals(List.of("end"), ProjectSearchIndex.regexLiterals("(a)\\123end"));
+    }
+
+    @Test
+    void quotingAndCommentsModeGiveNoLiterals() {
+        assertTrue(ProjectSearchIndex.regexLiterals("\\Qa.b\\Eabc").isEmpty());
+        assertTrue(ProjectSearchIndex.regexLiterals("(?x) foo bar").isEmpty());
+        assertTrue(ProjectSearchIndex.regexLiterals("(?ix:foo bar)baz").isEmpty());
+        assertEquals(List.of("foo bar"), ProjectSearchIndex.regexLiterals("(?i)foo bar"));
+    }
+
+    @Test
+    void indexFindsMatchesWrittenWithEscapes() {
+        TreeNode root = TreeNode.folder("");
+        root.getChildren().add(TreeNode.file("a.txt", "ABCend\nAx y\nfoobar\nAAend"));
+        ProjectSearchIndex index = ProjectSearchIndex.build(root);
+
+        for (String regex : List.of("\\x41BCend", "\\u0041BCend", "\\0101BCend", "\\cA?ABCend",
+                "(?<n>A)\\k<n>end", "\\Qfoo\\Ebar", "(?x) foo bar", "\\p{Lu}x\\sy")) {
+            ProjectSearchIndex.SearchPage page = index.search(
+                    ProjectSearchIndex.compile(regex, true, false, true), 0, 10);
+            assertFalse(page.results().isEmpty(), regex);
+        }
+    }
+}
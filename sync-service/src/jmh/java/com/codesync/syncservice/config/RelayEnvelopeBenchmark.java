@@ -0,0 +1,150 @@
+package com.codesync.syncservice.config;
+
+import com.codesync.syncservice.dto.YjsMessage;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Envelope do relay Redis: o JSON anterior ({@code {"i","d","p"}} via ObjectMapper) contra o
+ * {@link RelayEnvelope} binário, para um update Yjs e para um bloco de saída do terminal.
+ * Cada lado faz o mesmo trabalho que o RedisRelayConfig em produção: o encode inclui a
+ * serialização para a entrega STOMP local, o decode vai até aos bytes entregues ao broker
+ * do nó que recebe. Os bytes por mensagem de cada formato saem no início da execução.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelayEnvelopeBenchmark {
+
+    // o nó que publica e o que recebe (o receptor ignora as mensagens que ele próprio publicou)
+    private static final String SENDER_ID = UUID.randomUUID().toString();
+    private static final String RECEIVER_ID = UUID.randomUUID().toString();
+    private static final TypeReference<Map<String, Object>> MAP = new TypeReference<>() {};
+
+    @Param({"yjs", "terminal"})
+    public String payload;
+
+    // update Yjs típico de uma tecla vs bloco de saída de um build
+    @Param({"120"})
+    public int yjsUpdateBytes;
+
+    @Param({"4096"})
+    public int terminalChunkChars;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String destination;
+    private YjsMessage yjs;
+    private String terminalText;
+    private byte[] legacyEnvelope;
+    private byte[] binaryEnvelope;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        String sessionId = UUID.randomUUID().toString();
+        if ("yjs".equals(payload)) {
+            byte[] update = new byte[yjsUpdateBytes];
+            random.nextBytes(update);
+            yjs = new YjsMessage();
+            yjs.setFileId("src/main/java/com/example/App.java");
+            yjs.setUserId(UUID.randomUUID().toString());
+            yjs.setUpdate(Base64.getEncoder().encodeToString(update));
+            destination = "/topic/yjs/" + sessionId;
+        } else {
+            StringBuilder sb = new StringBuilder(terminalChunkChars);
+            for (int line = 0; sb.length() < terminalChunkChars; line++) {
+                sb.append("\u001b[32m[INFO]\u001b[0m Compiling module ").append(line)
+                        .append(" of the project \"teamcode\"\r\n");
+            }
+            terminalText = sb.substring(0, terminalChunkChars);
+            destination = "/topic/terminal/" + sessionId;
+        }
+        legacyEnvelope = legacyRelayBytes();
+        binaryEnvelope = binaryRelayBytes();
+        System.out.printf("%n[%s] bytes por mensagem no Redis: JSON %d, binário %d%n",
+                payload, legacyEnvelope.length, binaryEnvelope.length);
+    }
+
+    /** Formato anterior: entrega local com o payload e envelope JSON com o mesmo payload. */
+    @Benchmark
+    public void legacyEncode(Blackhole bh) throws Exception {
+        bh.consume("yjs".equals(payload)
+                ? objectMapper.writeValueAsBytes(yjs)
+                : terminalText.getBytes(StandardCharsets.UTF_8));
+        bh.consume(legacyRelayBytes());
+    }
+
+    /** Formato anterior no nó que recebe: Map genérico e nova serialização do payload. */
+    @Benchmark
+    public byte[] legacyDecode() throws Exception {
+        Map<String, Object> envelope = objectMapper.readValue(legacyEnvelope, MAP);
+        if (RECEIVER_ID.equals(envelope.get("i"))) return null;
+        Object body = envelope.get("p");
+        return body instanceof String text
+                ? text.getBytes(StandardCharsets.UTF_8)
+                : objectMapper.writeValueAsBytes(body);
+    }
+
+    /** Envelope binário: JSON serializado uma vez para a entrega local (Yjs) ou texto cru. */
+    @Benchmark
+    public void binaryEncode(Blackhole bh) throws Exception {
+        bh.consume("yjs".equals(payload)
+                ? objectMapper.writeValueAsBytes(yjs)
+                : terminalText.getBytes(StandardCharsets.UTF_8));
+        bh.consume(binaryRelayBytes());
+    }
+
+    /** Envelope binário no nó que recebe, até aos bytes entregues ao broker local. */
+    @Benchmark
+    public byte[] binaryDecode() throws Exception {
+        RelayEnvelope envelope = RelayEnvelope.decode(binaryEnvelope);
+        if (RECEIVER_ID.equals(envelope.instanceId())) return null;
+        if (envelope.type() == RelayEnvelope.TYPE_YJS) {
+            YjsMessage message = new YjsMessage();
+            message.setFileId(envelope.fileId());
+            message.setUserId(envelope.userId());
+            message.setUpdate(Base64.getEncoder().encodeToString(envelope.body()));
+            return objectMapper.writeValueAsBytes(message);
+        }
+        return new String(envelope.body(), StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] legacyRelayBytes() throws Exception {
+        Map<String, Object> envelope = new LinkedHashMap<>();
+        envelope.put("i", SENDER_ID);
+        envelope.put("d", destination);
+        envelope.put("p", "yjs".equals(payload) ? yjs : terminalText);
+        return objectMapper.writeValueAsBytes(envelope);
+    }
+
+    private byte[] binaryRelayBytes() {
+        if ("yjs".equals(payload)) {
+            byte[] update = Base64.getDecoder().decode(yjs.getUpdate());
+            return RelayEnvelope.yjs(SENDER_ID, destination, yjs.getFileId(), yjs.getUserId(), update);
+        }
+        return RelayEnvelope.text(SENDER_ID, destination, terminalText);
+    }
+}
@@ -0,0 +1,152 @@
+package com.codesync.syncservice.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Leituras do painel de git (status, diff, log, branches) pelo {@link CliGitBackend} e pelo
+ * {@link JGitBackend}, sobre um repositório gerado com {@code files} ficheiros, 25 commits, um
+ * décimo dos ficheiros alterados no worktree e alguns por seguir. O CLI corre o mesmo comando
+ * git que o {@code runGitCommand} do GitService (mesmo ambiente, output lido por inteiro).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GitBackendBenchmark {
+
+    private static final int COMMITS = 25;
+    private static final int FILES_PER_DIR = 50;
+
+    @Param({"cli", "jgit"})
+    public String backendName;
+
+    @Param({"100", "2000"})
+    public int files;
+
+    private Path repo;
+    private GitBackend backend;
+    private JGitBackend jgit;
+
+    @Setup
+    public void setUp() throws Exception {
+        repo = Files.createTempDirectory("git-backend-bench");
+        setupGit("init", "-q");
+        setupGit("config", "user.name", "bench");
+        setupGit("config", "user.email", "bench@example.com");
+        for (int i = 0; i < files; i++) {
+            write(i, "");
+        }
+        setupGit("add", "-A");
+        setupGit("commit", "-q", "-m", "initial");
+        for (int c = 1; c < COMMITS; c++) {
+            write(c % files, "commit " + c + "\n");
+            setupGit("commit", "-q", "-a", "-m", "commit " + c);
+        }
+        setupGit("branch", "feature");
+        for (int i = 0; i < files; i += 10) {
+            write(i, "edit\n");
+        }
+        for (int i = 0; i < 5; i++) {
+            Files.writeString(repo.resolve("untracked-" + i + ".txt"), "new\n");
+        }
+
+        if (JGitBackend.NAME.equals(backendName)) {
+            jgit = new JGitBackend(1);
+            backend = jgit;
+        } else {
+            backend = new CliGitBackend(GitBackendBenchmark::git);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (jgit != null) jgit.closeAll();
+        try (Stream<Path> walk = Files.walk(repo)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object status() throws Exception {
+        return backend.status(repo);
+    }
+
+    @Benchmark
+    public Object diff() throws Exception {
+        return backend.diff(repo, null, false);
+    }
+
+    @Benchmark
+    public Object log() throws Exception {
+        return backend.log(repo, 20);
+    }
+
+    @Benchmark
+    public Object branches() throws Exception {
+        return backend.branches(repo);
+    }
+
+    private void setupGit(String... args) {
+        String output = git(repo, args);
+        if (GitService.isGitFailure(output)) {
+            throw new IllegalStateException("git " + args[0] + " falhou: " + output);
+        }
+    }
+
+    // Ficheiro i em dir{i / FILES_PER_DIR}/, com umas linhas fixas mais o sufixo
+    private void write(int i, String suffix) throws IOException {
+        Path file = repo.resolve("dir" + (i / FILES_PER_DIR)).resolve("File" + i + ".java");
+        Files.createDirectories(file.getParent());
+        StringBuilder sb = new StringBuilder();
+        sb.append("public class File").append(i).append(" {\n");
+        for (int line = 0; line < 40; line++) {
+            sb.append("    int field").append(line).append(" = ").append(line * i).append(";\n");
+        }
+        sb.append("}\n").append(suffix);
+        Files.writeString(file, sb.toString());
+    }
+
+    private static String git(Path workDir, String... args) {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(List.of(args));
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.directory(workDir.toFile());
+            pb.redirectErrorStream(true);
+            pb.environment().put("GIT_TERMINAL_PROMPT", "0");
+            pb.environment().put("LC_ALL", "C.UTF-8");
+            Process process = pb.start();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            process.waitFor();
+            return output.trim();
+        } catch (Exception e) {
+            return "Erro: " + e.getMessage();
+        }
+    }
+}
@@ -1,39 +1,79 @@
 package com.codesync.syncservice.config;
 
+import com.codesync.syncservice.dto.YjsMessage;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 @Configuration
 @SuppressWarnings("null")
 public class RedisRelayConfig {
 
     private static final Logger log = LoggerFactory.getLogger(RedisRelayConfig.class);
+    // Canal partilhado (destinos sem sessão); os de sessão são REDIS_CHANNEL + ":" + sessionId
     public static final String REDIS_CHANNEL = "teamcode:stomp-relay";
     private static final String INSTANCE_ID = UUID.randomUUID().toString().substring(0, 8);
 
+    /** Sessão de um destino "/topic/{tipo}/{sessionId}", ou null se o destino não for de sessão. */
+    static String sessionKeyOf(String destination) {
+        if (destination == null || !destination.startsWith("/topic/")) return null;
+        int slash = destination.indexOf('/', "/topic/".length());
+        if (slash < 0 || slash == destination.length() - 1) return null;
+        String key = destination.substring(slash + 1);
+        return key.indexOf('/') >= 0 ? null : key;
+    }
+
+    static String channelFor(String destination) {
+        String key = sessionKeyOf(destination);
+        return key == null ? REDIS_CHANNEL : REDIS_CHANNEL + ":" + key;
+    }
+
     @Bean
     public RedisMessageListenerContainer redisMessageListenerContainer(
             RedisConnectionFactory connectionFactory,
             RedisRelaySubscriber subscriber) {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
+        // os canais por sessão são subscritos pelo RelaySubscriptionRegistry conforme os subscritores locais
         container.addMessageListener(subscriber, new ChannelTopic(REDIS_CHANNEL));
         log.info("Redis relay listener registered (instanceId={})", INSTANCE_ID);
         return container;
@@ -43,33 +83,276 @@ public class RedisRelayConfig {
     public static class ScalableMessagingService {
         private static final Logger log = LoggerFactory.getLogger(ScalableMessagingService.class);
         private final SimpMessagingTemplate messagingTemplate;
-        private final StringRedisTemplate stringRedisTemplate;
+        private final RedisRelayPublisher publisher;
         private final ObjectMapper objectMapper;
+        // Com um broker STOMP externo a distribuição entre nós já é dele
+        private final boolean redisRelayEnabled;
 
         public ScalableMessagingService(SimpMessagingTemplate messagingTemplate,
-                                         StringRedisTemplate stringRedisTemplate,
-                                         ObjectMapper objectMapper) {
+                                         RedisRelayPublisher publisher,
+                                         ObjectMapper objectMapper,
+                                         @Value("${broker.mode:simple}") String brokerMode) {
             this.messagingTemplate = messagingTemplate;
-            this.stringRedisTemplate = stringRedisTemplate;
+            this.publisher = publisher;
             this.objectMapper = objectMapper;
+            this.redisRelayEnabled = !WebSocketConfig.MODE_RELAY.equalsIgnoreCase(brokerMode);
         }
 
+        /**
+         * Entrega aos subscritores locais e enfileira o envelope binário para os outros nós.
+         * Payloads JSON são serializados uma única vez e os mesmos bytes servem as duas entregas.
+         */
         public void convertAndSend(String destination, Object payload) {
+            if (payload instanceof String text) {
+                messagingTemplate.convertAndSend(destination, text);
+                relay(destination, () -> RelayEnvelope.text(INSTANCE_ID, destination, text));
+                return;
+            }
+
+            byte[] json;
+            try {
+                json = objectMapper.writeValueAsBytes(payload);
+            } catch (JsonProcessingException e) {
+                throw new MessageConversionException("Falha ao serializar payload para " + destination, e);
+            }
+            sendJson(messagingTemplate, destination, json);
+
+            if (payload instanceof YjsMessage yjs && yjs.getUpdate() != null) {
+                relay(destination, () -> yjsEnvelope(destination, yjs, json));
+            } else {
+                relay(destination, () -> RelayEnvelope.json(INSTANCE_ID, destination, json));
+            }
+        }
+
+        /** Entrega só aos subscritores deste nó (respostas dirigidas a um cliente). */
+        public void sendLocal(String destination, Object payload) {
             messagingTemplate.convertAndSend(destination, payload);
+        }
+
+        // Update Yjs em bytes crus no hop Redis; se não for Base64 válido segue como JSON
+        private byte[] yjsEnvelope(String destination, YjsMessage yjs, byte[] json) {
+            byte[] update;
+            try {
+                update = Base64.getDecoder().decode(yjs.getUpdate());
+            } catch (IllegalArgumentException e) {
+                return RelayEnvelope.json(INSTANCE_ID, destination, json);
+            }
+            return RelayEnvelope.yjs(INSTANCE_ID, destination, yjs.getFileId(), yjs.getUserId(), update);
+        }
 
+        private void relay(String destination, Supplier<byte[]> envelope) {
+            if (!redisRelayEnabled) return;
             try {
-                Map<String, Object> envelope = new LinkedHashMap<>();
-                envelope.put("i", INSTANCE_ID);
-                envelope.put("d", destination);
-                envelope.put("p", payload);
-                String json = objectMapper.writeValueAsString(envelope);
-                stringRedisTemplate.convertAndSend(REDIS_CHANNEL, json);
+                publisher.enqueue(channelFor(destination), envelope.get());
             } catch (Exception e) {
                 log.debug("Redis relay publish failed (non-fatal): {}", e.getMessage());
             }
         }
     }
 
+    // Envia bytes JSON já serializados sem voltar a passar pelos conversores
+    static void sendJson(SimpMessagingTemplate messagingTemplate, String destination, byte[] json) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        messagingTemplate.send(destination, MessageBuilder.createMessage(json, accessor.getMessageHeaders()));
+    }
+
+    /**
+     * Mantém este nó subscrito apenas aos canais das sessões com subscritores STOMP locais:
+     * a primeira subscrição de um destino da sessão subscreve o canal, a última a sair
+     * (unsubscribe ou disconnect) cancela-o. Assim cada nó só desserializa tráfego das
+     * sessões que serve.
+     */
+    @Service
+    public static class RelaySubscriptionRegistry {
+        private static final Logger log = LoggerFactory.getLogger(RelaySubscriptionRegistry.class);
+
+        private final RedisMessageListenerContainer container;
+        private final RedisRelaySubscriber subscriber;
+        // sessão STOMP -> (subscriptionId -> sessão TeamCode)
+        private final Map<String, Map<String, String>> subscriptions = new HashMap<>();
+        private final Map<String, Integer> localSubscribers = new HashMap<>();
+
+        public RelaySubscriptionRegistry(RedisMessageListenerContainer container, RedisRelaySubscriber subscriber) {
+            this.container = container;
+            this.subscriber = subscriber;
+        }
+
+        @EventListener
+        public void onSubscribe(SessionSubscribeEvent event) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+            String key = sessionKeyOf(accessor.getDestination());
+            if (key == null || accessor.getSessionId() == null || accessor.getSubscriptionId() == null) return;
+            synchronized (this) {
+                String previous = subscriptions.computeIfAbsent(accessor.getSessionId(), k -> new HashMap<>())
+                        .put(accessor.getSubscriptionId(), key);
+                if (previous != null) release(previous);
+                acquire(key);
+            }
+        }
+
+        @EventListener
+        public void onUnsubscribe(SessionUnsubscribeEvent event) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+            synchronized (this) {
+                Map<String, String> subs = subscriptions.get(accessor.getSessionId());
+                if (subs == null) return;
+                String key = subs.remove(accessor.getSubscriptionId());
+                if (subs.isEmpty()) subscriptions.remove(accessor.getSessionId());
+                if (key != null) release(key);
+            }
+        }
+
+        @EventListener
+        public void onDisconnect(SessionDisconnectEvent event) {
+            synchronized (this) {
+                Map<String, String> subs = subscriptions.remove(event.getSessionId());
+                if (subs == null) return;
+                for (String key : subs.values()) release(key);
+            }
+        }
+
+        public synchronized int subscribedChannels() {
+            return localSubscribers.size();
+        }
+
+        private void acquire(String key) {
+            if (localSubscribers.merge(key, 1, Integer::sum) == 1) {
+                container.addMessageListener(subscriber, new ChannelTopic(REDIS_CHANNEL + ":" + key));
+                log.debug("Subscribed relay channel for session {}", key);
+            }
+        }
+
+        private void release(String key) {
+            Integer remaining = localSubscribers.computeIfPresent(key, (k, n) -> n > 1 ? n - 1 : null);
+            if (remaining == null) {
+                container.removeMessageListener(subscriber, new ChannelTopic(REDIS_CHANNEL + ":" + key));
+                log.debug("Unsubscribed relay channel for session {}", key);
+            }
+        }
+    }
+
+    /**
+     * Publica os envelopes do relay fora da thread que os produz: uma fila limitada é drenada
+     * por uma thread que junta o que chegar numa janela curta e envia tudo num único pipeline.
+     * Com a fila cheia os envelopes novos são descartados (contados em {@code dropped}) para
+     * nunca bloquear a thread STOMP. Serve só o broadcast: o log Yjs, que não pode perder
+     * updates, tem a sua própria fila no {@code YjsDocumentService}.
+     */
+    @Service
+    public static class RedisRelayPublisher {
+        private static final Logger log = LoggerFactory.getLogger(RedisRelayPublisher.class);
+
+        private record Pending(String channel, byte[] body, long enqueuedNanos) {
+        }
+
+        private final StringRedisTemplate stringRedisTemplate;
+        private final BlockingQueue<Pending> queue;
+        private final long batchWindowNanos;
+        private final int maxBatchSize;
+        private volatile boolean running = true;
+        private Thread worker;
+
+        private final AtomicLong published = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong latencyNanosTotal = new AtomicLong();
+        private final AtomicLong latencyNanosMax = new AtomicLong();
+
+        public RedisRelayPublisher(StringRedisTemplate stringRedisTemplate,
+                                   @Value("${relay.redis.queue-capacity:10000}") int queueCapacity,
+                                   @Value("${relay.redis.batch-window-ms:2}") long batchWindowMs,
+                                   @Value("${relay.redis.max-batch-size:256}") int maxBatchSize) {
+            this.stringRedisTemplate = stringRedisTemplate;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(batchWindowMs);
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        @PostConstruct
+        public void start() {
+            worker = new Thread(this::runLoop, "redis-relay-publisher");
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        @PreDestroy
+        public void stop() throws InterruptedException {
+            running = false;
+            worker.interrupt();
+            worker.join(2000);
+        }
+
+        public void enqueue(String channel, byte[] body) {
+            if (!queue.offer(new Pending(channel, body, System.nanoTime()))) {
+                long n = dropped.incrementAndGet();
+                if (n == 1 || n % 1000 == 0) log.warn("Redis relay queue full: {} envelope(s) dropped so far", n);
+            }
+        }
+
+        public Map<String, Object> stats() {
+            long count = published.get();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("queued", queue.size());
+            stats.put("published", count);
+            stats.put("dropped", dropped.get());
+            stats.put("failed", failed.get());
+            stats.put("batches", batches.get());
+            stats.put("avgLatencyMicros", count == 0 ? 0 : latencyNanosTotal.get() / count / 1000);
+            stats.put("maxLatencyMicros", latencyNanosMax.get() / 1000);
+            return stats;
+        }
+
+        private void runLoop() {
+            List<Pending> batch = new ArrayList<>(maxBatchSize);
+            while (running || !queue.isEmpty()) {
+                try {
+                    Pending first = queue.poll(500, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    // junta o que chegar durante a janela, até encher o lote
+                    long deadline = System.nanoTime() + batchWindowNanos;
+                    while (batch.size() < maxBatchSize) {
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                        long remaining = deadline - System.nanoTime();
+                        if (batch.size() >= maxBatchSize || remaining <= 0) break;
+                        Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) break;
+                        batch.add(next);
+                    }
+                } catch (InterruptedException e) {
+                    queue.drainTo(batch); // interrompido pelo stop(): publicar o que resta
+                }
+                if (!batch.isEmpty()) publish(batch);
+                batch.clear();
+            }
+        }
+
+        private void publish(List<Pending> batch) {
+            try {
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (Pending p : batch) {
+                        connection.publish(p.channel().getBytes(StandardCharsets.UTF_8), p.body());
+                    }
+                    return null;
+                });
+                long now = System.nanoTime();
+                for (Pending p : batch) {
+                    long latency = now - p.enqueuedNanos();
+                    latencyNanosTotal.addAndGet(latency);
+                    latencyNanosMax.accumulateAndGet(latency, Math::max);
+                }
+                published.addAndGet(batch.size());
+                batches.incrementAndGet();
+            } catch (Exception e) {
+                failed.addAndGet(batch.size());
+                log.debug("Redis relay publish failed (non-fatal): {}", e.getMessage());
+            }
+        }
+    }
+
     @Service
     public static class RedisRelaySubscriber implements MessageListener {
         private static final Logger log = LoggerFactory.getLogger(RedisRelaySubscriber.class);
@@ -84,26 +367,44 @@ public class RedisRelayConfig {
         @Override
         public void onMessage(Message message, byte[] pattern) {
             try {
-                String json = new String(message.getBody(), StandardCharsets.UTF_8);
-                Map<String, Object> envelope = objectMapper.readValue(json,
-                        new TypeReference<Map<String, Object>>() {});
-
-                String sourceInstanceId = (String) envelope.get("i");
-
-                if (INSTANCE_ID.equals(sourceInstanceId)) {
+                byte[] data = message.getBody();
+                if (!RelayEnvelope.isBinary(data)) {
+                    onLegacyMessage(data);
+                    return;
+                }
+                RelayEnvelope envelope = RelayEnvelope.decode(data);
+                if (INSTANCE_ID.equals(envelope.instanceId())) {
                     return;
                 }
 
-                String destination = (String) envelope.get("d");
-                Object payload = envelope.get("p");
-
-                if (destination != null && payload != null) {
-                    messagingTemplate.convertAndSend(destination, payload);
-                    log.trace("Relayed message from instance {} to {}", sourceInstanceId, destination);
+                String destination = envelope.destination();
+                switch (envelope.type()) {
+                    case RelayEnvelope.TYPE_TEXT ->
+                            messagingTemplate.convertAndSend(destination, new String(envelope.body(), StandardCharsets.UTF_8));
+                    case RelayEnvelope.TYPE_YJS -> {
+                        YjsMessage yjs = new YjsMessage();
+                        yjs.setFileId(envelope.fileId());
+                        yjs.setUserId(envelope.userId());
+                        yjs.setUpdate(Base64.getEncoder().encodeToString(envelope.body()));
+                        sendJson(messagingTemplate, destination, objectMapper.writeValueAsBytes(yjs));
+                    }
+                    default -> sendJson(messagingTemplate, destination, envelope.body());
                 }
+                log.trace("Relayed message from instance {} to {}", envelope.instanceId(), destination);
             } catch (Exception e) {
                 log.debug("Redis relay receive failed (non-fatal): {}", e.getMessage());
             }
         }
+
+        // Envelope JSON de nós ainda na versão anterior (durante um rolling deploy)
+        private void onLegacyMessage(byte[] data) throws Exception {
+            Map<String, Object> envelope = objectMapper.readValue(data, new TypeReference<Map<String, Object>>() {});
+            if (INSTANCE_ID.equals(envelope.get("i"))) return;
+            String destination = (String) envelope.get("d");
+            Object payload = envelope.get("p");
+            if (destination != null && payload != null) {
+                messagingTemplate.convertAndSend(destination, payload);
+            }
+        }
     }
 }
@@ -0,0 +1,142 @@
+package com.codesync.syncservice.config;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Envelope binário do relay Redis:
+ * <pre>
+ * u8 versão | u8 tipo | u8 len + instanceId | u16 len + destino | corpo
+ * </pre>
+ * O corpo depende do tipo: JSON já serializado, texto UTF-8 (terminal) ou, para Yjs,
+ * {@code u16 len + fileId | u16 len + userId | bytes do update} sem Base64.
+ */
+public final class RelayEnvelope {
+
+    public static final byte VERSION = 1;
+    public static final byte TYPE_JSON = 0;
+    public static final byte TYPE_TEXT = 1;
+    public static final byte TYPE_YJS = 2;
+
+    private final String instanceId;
+    private final String destination;
+    private final byte type;
+    private final String fileId;
+    private final String userId;
+    private final byte[] body;
+
+    private RelayEnvelope(String instanceId, String destination, byte type, String fileId, String userId, byte[] body) {
+        this.instanceId = instanceId;
+        this.destination = destination;
+        this.type = type;
+        this.fileId = fileId;
+        this.userId = userId;
+        this.body = body;
+    }
+
+    public static byte[] json(String instanceId, String destination, byte[] json) {
+        return encode(instanceId, destination, TYPE_JSON, null, null, json);
+    }
+
+    public static byte[] text(String instanceId, String destination, String text) {
+        return encode(instanceId, destination, TYPE_TEXT, null, null, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static byte[] yjs(String instanceId, String destination, String fileId, String userId, byte[] update) {
+        return encode(instanceId, destination, TYPE_YJS, fileId, userId, update);
+    }
+
+    /** true se os bytes parecem um envelope binário (os antigos, em JSON, começam por '{'). */
+    public static boolean isBinary(byte[] data) {
+        return data.length > 2 && data[0] == VERSION;
+    }
+
+    public static RelayEnvelope decode(byte[] data) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        byte version = buf.get();
+        if (version != VERSION) throw new IllegalArgumentException("Versão de envelope desconhecida: " + version);
+        byte type = buf.get();
+        String instanceId = readString(buf, buf.get() & 0xFF);
+        String destination = readString(buf, buf.getShort() & 0xFFFF);
+        String fileId = null;
+        String userId = null;
+        if (type == TYPE_YJS) {
+            fileId = readNullableString(buf);
+            userId = readNullableString(buf);
+        }
+        byte[] body = new byte[buf.remaining()];
+        buf.get(body);
+        return new RelayEnvelope(instanceId, destination, type, fileId, userId, body);
+    }
+
+    private static byte[] encode(String instanceId, String destination, byte type,
+                                 String fileId, String userId, byte[] body) {
+        byte[] id = instanceId.getBytes(StandardCharsets.UTF_8);
+        byte[] dest = destination.getBytes(StandardCharsets.UTF_8);
+        byte[] file = fileId == null ? null : fileId.getBytes(StandardCharsets.UTF_8);
+        byte[] user = userId == null ? null : userId.getBytes(StandardCharsets.UTF_8);
+        if (id.length > 0xFF || dest.length > 0xFFFF) throw new IllegalArgumentException("Envelope demasiado grande");
+
+        int size = 2 + 1 + id.length + 2 + dest.length + body.length;
+        if (type == TYPE_YJS) size += 2 + lengthOf(file) + 2 + lengthOf(user);
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put(VERSION).put(type);
+        buf.put((byte) id.length).put(id);
+        buf.putShort((short) dest.length).put(dest);
+        if (type == TYPE_YJS) {
+            putNullable(buf, file);
+            putNullable(buf, user);
+        }
+        buf.put(body);
+        return buf.array();
+    }
+
+    // 0xFFFF marca null (fileId/userId opcionais no YjsMessage)
+    private static void putNullable(ByteBuffer buf, byte[] value) {
+        if (value == null) {
+            buf.putShort((short) 0xFFFF);
+        } else {
+            if (value.length >= 0xFFFF) throw new IllegalArgumentException("Envelope demasiado grande");
+            buf.putShort((short) value.length).put(value);
+        }
+    }
+
+    private static int lengthOf(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private static String readNullableString(ByteBuffer buf) {
+        int len = buf.getShort() & 0xFFFF;
+        return len == 0xFFFF ? null : readString(buf, len);
+    }
+
+    private static String readString(ByteBuffer buf, int len) {
+        String s = new String(buf.array(), buf.position(), len, StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+        return s;
+    }
+
+    public String instanceId() {
+        return instanceId;
+    }
+
+    public String destination() {
+        return destination;
+    }
+
+    public byte type() {
+        return type;
+    }
+
+    public String fileId() {
+        return fileId;
+    }
+
+    public String userId() {
+        return userId;
+    }
+
+    public byte[] body() {
+        return body;
+    }
+}
@@ -0,0 +1,133 @@
+package com.codesync.syncservice.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Proteção contra clientes lentos. O buffer de saída de cada sessão é limitado pelo transporte
+ * ({@code ws.send-buffer-size-limit} / {@code ws.send-time-limit-ms}, ver {@link WebSocketConfig});
+ * antes de chegar a esse limite, enquanto um envio para a sessão estiver bloqueado há mais de
+ * {@code ws.low-priority.congestion-ms}, as mensagens de baixa prioridade (cursores, reações,
+ * terminal) são descartadas para que os deltas CRDT e o resto não fiquem atrás delas.
+ *
+ * A sessão vista aqui está por baixo do ConcurrentWebSocketSessionDecorator do Spring, por isso
+ * {@code sendMessage} só é chamado quando o Spring esvazia o buffer: um envio em curso há muito
+ * tempo significa que o buffer está a crescer.
+ */
+@Component
+public class SlowConsumerGuard implements WebSocketHandlerDecoratorFactory, ChannelInterceptor {
+
+    private static final List<String> LOW_PRIORITY_PREFIXES = List.of(
+            "/topic/cursor/", "/topic/reaction/", "/topic/terminal/");
+
+    private final Map<String, TrackedSession> sessions = new ConcurrentHashMap<>();
+    private final long congestionNanos;
+
+    private final AtomicLong lowPriorityDropped = new AtomicLong();
+    private final AtomicLong slowConsumerDisconnects = new AtomicLong();
+
+    public SlowConsumerGuard(@Value("${ws.low-priority.congestion-ms:250}") long congestionMs) {
+        this.congestionNanos = TimeUnit.MILLISECONDS.toNanos(congestionMs);
+    }
+
+    @Override
+    @NonNull
+    public WebSocketHandler decorate(@NonNull WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(@NonNull WebSocketSession session) throws Exception {
+                TrackedSession tracked = new TrackedSession(session);
+                sessions.put(session.getId(), tracked);
+                super.afterConnectionEstablished(tracked);
+            }
+
+            @Override
+            public void afterConnectionClosed(@NonNull WebSocketSession session, @NonNull CloseStatus status) throws Exception {
+                TrackedSession tracked = sessions.remove(session.getId());
+                // o Spring fecha com SESSION_NOT_RELIABLE quando o limite de tempo/buffer é excedido
+                if (CloseStatus.SESSION_NOT_RELIABLE.equalsCode(status)) slowConsumerDisconnects.incrementAndGet();
+                super.afterConnectionClosed(tracked != null ? tracked : session, status);
+            }
+        };
+    }
+
+    @Override
+    public Message<?> preSend(@NonNull Message<?> message, @NonNull MessageChannel channel) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        if (accessor.getMessageType() != SimpMessageType.MESSAGE || !isLowPriority(accessor.getDestination())) {
+            return message;
+        }
+        TrackedSession session = accessor.getSessionId() == null ? null : sessions.get(accessor.getSessionId());
+        if (session != null && session.isCongested(congestionNanos)) {
+            lowPriorityDropped.incrementAndGet();
+            return null;
+        }
+        return message;
+    }
+
+    public Map<String, Object> stats() {
+        int congested = 0;
+        for (TrackedSession s : sessions.values()) {
+            if (s.isCongested(congestionNanos)) congested++;
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", sessions.size());
+        stats.put("congestedSessions", congested);
+        stats.put("lowPriorityDropped", lowPriorityDropped.get());
+        stats.put("slowConsumerDisconnects", slowConsumerDisconnects.get());
+        return stats;
+    }
+
+    private static boolean isLowPriority(String destination) {
+        if (destination == null) return false;
+        for (String prefix : LOW_PRIORITY_PREFIXES) {
+            if (destination.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    /** Regista quando começou o envio em curso (0 = nenhum). */
+    private static final class TrackedSession extends WebSocketSessionDecorator {
+        private volatile long sendStartedNanos;
+
+        TrackedSession(WebSocketSession delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void sendMessage(@NonNull WebSocketMessage<?> message) throws IOException {
+            sendStartedNanos = System.nanoTime();
+            try {
+                super.sendMessage(message);
+            } finally {
+                sendStartedNanos = 0;
+            }
+        }
+
+        boolean isCongested(long thresholdNanos) {
+            long started = sendStartedNanos;
+            return started != 0 && System.nanoTime() - started > thresholdNanos;
+        }
+    }
+}
@@ -1,22 +1,149 @@
 package com.codesync.syncservice.config;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 import org.springframework.lang.NonNull;
 
+/**
+ * STOMP sobre WebSocket. O broker é escolhido por {@code broker.mode}:
+ * <ul>
+ *   <li>{@code simple} (padrão): broker em memória, com pools de threads dimensionados para os
+ *   canais de entrada/saída e heartbeats num scheduler próprio; entre nós o tráfego segue pelo
+ *   relay Redis.</li>
+ *   <li>{@code relay}: os destinos /topic são delegados a um broker STOMP externo
+ *   (ex.: ActiveMQ Artemis), que já faz a distribuição entre nós, pelo que o relay Redis deixa
+ *   de publicar.</li>
+ * </ul>
+ * O buffer de saída por cliente é limitado; ver {@link SlowConsumerGuard}.
+ */
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    public static final String MODE_RELAY = "relay";
+
+    private final SlowConsumerGuard slowConsumerGuard;
+
+    @Value("${broker.mode:simple}")
+    private String mode;
+
+    @Value("${broker.heartbeat-ms:10000}")
+    private long heartbeatMs;
+
+    @Value("${broker.inbound.core-pool-size:8}")
+    private int inboundCorePoolSize;
+
+    @Value("${broker.inbound.max-pool-size:32}")
+    private int inboundMaxPoolSize;
+
+    @Value("${broker.outbound.core-pool-size:8}")
+    private int outboundCorePoolSize;
+
+    @Value("${broker.outbound.max-pool-size:32}")
+    private int outboundMaxPoolSize;
+
+    @Value("${broker.channel.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${broker.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${broker.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${broker.relay.login:guest}")
+    private String relayLogin;
+
+    @Value("${broker.relay.passcode:guest}")
+    private String relayPasscode;
+
+    @Value("${broker.relay.virtual-host:}")
+    private String relayVirtualHost;
+
+    @Value("${ws.send-time-limit-ms:10000}")
+    private int sendTimeLimitMs;
+
+    @Value("${ws.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    @Value("${ws.message-size-limit:1048576}")
+    private int messageSizeLimit;
+
+    public WebSocketConfig(SlowConsumerGuard slowConsumerGuard) {
+        this.slowConsumerGuard = slowConsumerGuard;
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler brokerHeartbeatScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("stomp-heartbeat-");
+        scheduler.setDaemon(true);
+        scheduler.initialize();
+        return scheduler;
+    }
+
     @Override
     public void configureMessageBroker(@NonNull MessageBrokerRegistry config) {
-        // prefixo para onde o servidor enviará as mensagens de broadcast
-        config.enableSimpleBroker("/topic");
+        long[] heartbeat = {heartbeatMs, heartbeatMs};
+        if (MODE_RELAY.equalsIgnoreCase(mode)) {
+            var relay = config.enableStompBrokerRelay("/topic")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode)
+                    .setSystemHeartbeatSendInterval(heartbeatMs)
+                    .setSystemHeartbeatReceiveInterval(heartbeatMs)
+                    .setTaskScheduler(brokerHeartbeatScheduler());
+            if (!relayVirtualHost.isBlank()) relay.setVirtualHost(relayVirtualHost);
+        } else {
+            // prefixo para onde o servidor enviará as mensagens de broadcast
+            config.enableSimpleBroker("/topic")
+                    .setHeartbeatValue(heartbeat)
+                    .setTaskScheduler(brokerHeartbeatScheduler())
+                    // o frontend não usa o header 'selector': evita avaliá-lo em cada entrega
+                    .setSelectorHeaderName(null);
+        }
         // prefixo para onde o cliente manda mensagens de aplicação (MessageMapping)
         config.setApplicationDestinationPrefixes("/app");
+        // com vários threads de saída, mantém a ordem das mensagens dentro de cada sessão
+        config.setPreservePublishOrder(true);
+    }
+
+    @Override
+    public void configureClientInboundChannel(@NonNull ChannelRegistration registration) {
+        registration.taskExecutor()
+                .corePoolSize(inboundCorePoolSize)
+                .maxPoolSize(inboundMaxPoolSize)
+                .queueCapacity(queueCapacity);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(@NonNull ChannelRegistration registration) {
+        registration.taskExecutor()
+                .corePoolSize(outboundCorePoolSize)
+                .maxPoolSize(outboundMaxPoolSize)
+                .queueCapacity(queueCapacity);
+        registration.interceptors(slowConsumerGuard);
+    }
+
+    @Override
+    public void configureWebSocketTransport(@NonNull WebSocketTransportRegistration registration) {
+        // acima destes limites o Spring fecha a sessão (SESSION_NOT_RELIABLE) em vez de acumular
+        registration.setSendTimeLimit(sendTimeLimitMs)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .setMessageSizeLimit(messageSizeLimit)
+                .addDecoratorFactory(slowConsumerGuard);
     }
 
     @Override
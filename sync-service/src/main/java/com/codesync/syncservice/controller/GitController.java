@@ -1,6 +1,7 @@
 package com.codesync.syncservice.controller;
 
 import com.codesync.syncservice.service.GitService;
+import com.codesync.syncservice.service.GitStatusService;
 import com.codesync.syncservice.dto.TreeEventMessage;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
@@ -14,10 +15,13 @@ import java.util.Map;
 public class GitController {
 
     private final GitService gitService;
+    private final GitStatusService gitStatusService;
     private final SimpMessagingTemplate messagingTemplate;
 
-    public GitController(GitService gitService, SimpMessagingTemplate messagingTemplate) {
+    public GitController(GitService gitService, GitStatusService gitStatusService,
+                         SimpMessagingTemplate messagingTemplate) {
         this.gitService = gitService;
+        this.gitStatusService = gitStatusService;
         this.messagingTemplate = messagingTemplate;
     }
 
@@ -38,20 +42,22 @@ public class GitController {
             @RequestBody(required = false) Map<String, String> body) {
         String username = (body != null) ? body.get("username") : null;
         try {
-            return ResponseEntity.ok(gitService.initRepo(sessionId, username));
+            Map<String, Object> result = gitService.initRepo(sessionId, username);
+            gitStatusService.invalidate(sessionId, false);
+            return ResponseEntity.ok(result);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("success", false, "error", e.getMessage()));
         }
     }
 
     /**
-     * Get git status for the session repo.
+     * Get git status for the session repo (cached; changes are pushed on /topic/git/{sessionId}).
      * GET /api/git/{sessionId}/status
      */
     @GetMapping("/{sessionId}/status")
     public ResponseEntity<Map<String, Object>> getStatus(@PathVariable String sessionId) {
         try {
-            return ResponseEntity.ok(gitService.getStatus(sessionId));
+            return ResponseEntity.ok(gitStatusService.getStatus(sessionId));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("initialized", false, "error", e.getMessage()));
         }
@@ -91,7 +97,9 @@ public class GitController {
             }
         }
         try {
-            return ResponseEntity.ok(gitService.addFiles(sessionId, files));
+            Map<String, Object> result = gitService.addFiles(sessionId, files);
+            gitStatusService.invalidate(sessionId, false);
+            return ResponseEntity.ok(result);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("success", false, "error", e.getMessage()));
         }
@@ -109,7 +117,9 @@ public class GitController {
         String message = body.get("message");
         String username = body.get("username");
         try {
-            return ResponseEntity.ok(gitService.commit(sessionId, message, username));
+            Map<String, Object> result = gitService.commit(sessionId, message, username);
+            gitStatusService.invalidate(sessionId, false);
+            return ResponseEntity.ok(result);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("success", false, "error", e.getMessage()));
         }
@@ -144,6 +154,7 @@ public class GitController {
         try {
             Map<String, Object> result = gitService.cloneRepo(sessionId, url, token);
             notifyTreeRefresh(sessionId);
+            gitStatusService.invalidate(sessionId, false);
             return ResponseEntity.ok(result);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("success", false, "error", e.getMessage()));
@@ -163,6 +174,7 @@ public class GitController {
         try {
             Map<String, Object> result = gitService.pullRepo(sessionId, token);
             notifyTreeRefresh(sessionId);
+            gitStatusService.invalidate(sessionId, false);
             return ResponseEntity.ok(result);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("success", false, "error", e.getMessage()));
@@ -201,6 +213,7 @@ public class GitController {
         try {
             Map<String, Object> result = gitService.checkoutBranch(sessionId, branch, create);
             notifyTreeRefresh(sessionId);
+            gitStatusService.invalidate(sessionId, false);
             return ResponseEntity.ok(result);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("success", false, "error", e.getMessage()));
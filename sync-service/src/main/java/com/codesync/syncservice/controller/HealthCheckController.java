@@ -1,17 +1,117 @@
 package com.codesync.syncservice.controller;
 
+import com.codesync.syncservice.config.RedisRelayConfig;
+import com.codesync.syncservice.config.SlowConsumerGuard;
+import com.codesync.syncservice.service.CursorCoalescer;
+import com.codesync.syncservice.service.GitService;
+import com.codesync.syncservice.service.GitStatusService;
+import com.codesync.syncservice.service.SessionServiceClient;
+import com.codesync.syncservice.service.TerminalService;
+import com.codesync.syncservice.service.WorkspaceFileWriter;
+import com.codesync.syncservice.service.YjsDocumentService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Map;
+
 // Usamos @RestController para criar endpoints HTTP normais.
 @RestController
 public class HealthCheckController {
 
+    private final RedisRelayConfig.RedisRelayPublisher relayPublisher;
+    private final RedisRelayConfig.RelaySubscriptionRegistry relaySubscriptions;
+    private final YjsDocumentService yjsDocumentService;
+    private final CursorCoalescer cursorCoalescer;
+    private final SlowConsumerGuard slowConsumerGuard;
+    private final TerminalService terminalService;
+    private final WorkspaceFileWriter fileWriter;
+    private final GitService gitService;
+    private final GitStatusService gitStatusService;
+    private final SessionServiceClient sessionClient;
+
+    public HealthCheckController(RedisRelayConfig.RedisRelayPublisher relayPublisher,
+                                 RedisRelayConfig.RelaySubscriptionRegistry relaySubscriptions,
+                                 YjsDocumentService yjsDocumentService,
+                                 CursorCoalescer cursorCoalescer,
+                                 SlowConsumerGuard slowConsumerGuard,
+                                 TerminalService terminalService,
+                                 WorkspaceFileWriter fileWriter,
+                                 GitService gitService,
+                                 GitStatusService gitStatusService,
+                                 SessionServiceClient sessionClient) {
+        this.relayPublisher = relayPublisher;
+        this.relaySubscriptions = relaySubscriptions;
+        this.yjsDocumentService = yjsDocumentService;
+        this.cursorCoalescer = cursorCoalescer;
+        this.slowConsumerGuard = slowConsumerGuard;
+        this.terminalService = terminalService;
+        this.fileWriter = fileWriter;
+        this.gitService = gitService;
+        this.gitStatusService = gitStatusService;
+        this.sessionClient = sessionClient;
+    }
+
     // Este método simples responde a um pedido GET para o endereço /ping
     @GetMapping("/ping")
     public ResponseEntity<String> ping() {
         // Se conseguirmos aceder a este endpoint, ele responderá com "Pong!".
         return ResponseEntity.ok("Pong from Sync Service!");
     }
+
+    // Métricas do relay Redis: fila, descartes e latência até ao PUBLISH
+    @GetMapping("/metrics/relay")
+    public ResponseEntity<Map<String, Object>> relayMetrics() {
+        Map<String, Object> stats = relayPublisher.stats();
+        stats.put("subscribedSessionChannels", relaySubscriptions.subscribedChannels());
+        return ResponseEntity.ok(stats);
+    }
+
+    // Estado Yjs no servidor: updates registados, compactações e bytes servidos em syncs
+    @GetMapping("/metrics/yjs")
+    public ResponseEntity<Map<String, Object>> yjsMetrics() {
+        return ResponseEntity.ok(yjsDocumentService.stats());
+    }
+
+    // Coalescência de cursores: mensagens recebidas vs frames enviadas
+    @GetMapping("/metrics/cursor")
+    public ResponseEntity<Map<String, Object>> cursorMetrics() {
+        return ResponseEntity.ok(cursorCoalescer.stats());
+    }
+
+    // Clientes lentos: sessões congestionadas, descartes de baixa prioridade e desconexões
+    @GetMapping("/metrics/websocket")
+    public ResponseEntity<Map<String, Object>> websocketMetrics() {
+        return ResponseEntity.ok(slowConsumerGuard.stats());
+    }
+
+    // Terminais: leituras do PTY vs frames enviadas
+    @GetMapping("/metrics/terminal")
+    public ResponseEntity<Map<String, Object>> terminalMetrics() {
+        return ResponseEntity.ok(terminalService.stats());
+    }
+
+    // Escritas de ficheiros: pedidos, escritas reais, agrupadas e saltadas por não mudarem
+    @GetMapping("/metrics/files")
+    public ResponseEntity<Map<String, Object>> fileWriteMetrics() {
+        return ResponseEntity.ok(fileWriter.stats());
+    }
+
+    // Sincronização banco -> disco do git: manifestos pedidos, 304s e ficheiros transferidos
+    @GetMapping("/metrics/git")
+    public ResponseEntity<Map<String, Object>> gitSyncMetrics() {
+        return ResponseEntity.ok(gitService.syncStats());
+    }
+
+    // Status git em cache: pedidos servidos da cache, recálculos e deltas publicados
+    @GetMapping("/metrics/git/status")
+    public ResponseEntity<Map<String, Object>> gitStatusMetrics() {
+        return ResponseEntity.ok(gitStatusService.stats());
+    }
+
+    // Pedidos ao session-service: histograma de latência e erros por endpoint
+    @GetMapping("/metrics/session-client")
+    public ResponseEntity<Map<String, Object>> sessionClientMetrics() {
+        return ResponseEntity.ok(sessionClient.stats());
+    }
 }
@@ -1,16 +1,23 @@
 package com.codesync.syncservice.controller;
 
 import com.codesync.syncservice.dto.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Controller;
 import com.codesync.syncservice.dto.TerminalInputMessage;
+import com.codesync.syncservice.service.CursorCoalescer;
+import com.codesync.syncservice.service.GitStatusService;
 import com.codesync.syncservice.service.TerminalService;
+import com.codesync.syncservice.service.WorkspaceFileWriter;
+import com.codesync.syncservice.service.YjsDocumentService;
 
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Base64;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -20,14 +27,26 @@ import java.util.stream.Collectors;
 @SuppressWarnings({"null", "unchecked"})
 public class SyncController {
 
+    private static final Logger log = LoggerFactory.getLogger(SyncController.class);
+
     private final com.codesync.syncservice.config.RedisRelayConfig.ScalableMessagingService messagingService;
     private final TerminalService terminalService;
+    private final YjsDocumentService yjsDocumentService;
+    private final CursorCoalescer cursorCoalescer;
+    private final WorkspaceFileWriter fileWriter;
+    private final GitStatusService gitStatusService;
     private final Map<String, Map<String, String>> sessionParticipants = new ConcurrentHashMap<>();
 
     public SyncController(com.codesync.syncservice.config.RedisRelayConfig.ScalableMessagingService messagingService,
-            TerminalService terminalService) {
+            TerminalService terminalService, YjsDocumentService yjsDocumentService,
+            CursorCoalescer cursorCoalescer, WorkspaceFileWriter fileWriter,
+            GitStatusService gitStatusService) {
         this.messagingService = messagingService;
         this.terminalService = terminalService;
+        this.yjsDocumentService = yjsDocumentService;
+        this.cursorCoalescer = cursorCoalescer;
+        this.fileWriter = fileWriter;
+        this.gitStatusService = gitStatusService;
     }
 
     @MessageMapping("/code/{sessionId}")
@@ -35,9 +54,13 @@ public class SyncController {
         messagingService.convertAndSend("/topic/code/" + sessionId, message);
     }
 
+    /**
+     * Cursor positions are coalesced per user and broadcast as one array per tick
+     * on /topic/cursor/{sessionId}.
+     */
     @MessageMapping("/cursor/{sessionId}")
     public void syncCursor(@DestinationVariable String sessionId, @Payload CursorMessage message) {
-        messagingService.convertAndSend("/topic/cursor/" + sessionId, message);
+        cursorCoalescer.submit(sessionId, message);
     }
 
     @MessageMapping("/user.join/{sessionId}")
@@ -74,6 +97,8 @@ public class SyncController {
     @MessageMapping("/tree/{sessionId}")
     public void handleTreeEvent(@DestinationVariable String sessionId, @Payload TreeEventMessage treeEvent) {
         messagingService.convertAndSend("/topic/tree/" + sessionId, treeEvent);
+        // a mudança está no banco e ainda pode não estar no disco
+        gitStatusService.invalidate(sessionId, true);
     }
 
     @MessageMapping("/pomodoro/{sessionId}")
@@ -87,69 +112,88 @@ public class SyncController {
     }
 
     /**
-     * Yjs/CRDT pass-through endpoint.
+     * Yjs/CRDT endpoint.
      * Receives a Yjs binary delta (Base64-encoded) from any client and broadcasts
      * it to all other participants in the session.
-     * This is intentionally stateless — the CRDT logic lives entirely in the
-     * frontend.
-     * The server acts purely as a relay, keeping the backend simple and decoupled.
+     * The CRDT logic lives in the frontend; the server only appends each update to
+     * the file's log in Redis so late joiners can catch up via /app/yjs.sync.
      */
     @MessageMapping("/yjs/{sessionId}")
     public void handleYjsUpdate(@DestinationVariable String sessionId, @Payload YjsMessage message) {
-        // Pass-through: broadcast the Yjs delta to all subscribers in this session
         messagingService.convertAndSend("/topic/yjs/" + sessionId, message);
+        yjsDocumentService.append(sessionId, message.getFileId(), message.getUpdate());
     }
 
-    @MessageMapping("/save/{sessionId}")
-    public void saveFile(@DestinationVariable String sessionId, @Payload Map<String, String> payload) {
-        String fileName = payload.get("fileName");
-        String content = payload.get("content");
-
-        if (fileName == null || content == null)
+    /**
+     * Catch-up for a client opening a file: payload {fileId, userId, contentHash?} (SHA-256
+     * hex of the content the client loaded). Replies only to the requester, on
+     * /topic/yjs.sync/{sessionId}/{userId}, with the file's stored updates, unmerged: the
+     * client applies them with yjs (updates null if the server has no state for the file
+     * yet, or its state belongs to content the file no longer has).
+     */
+    @MessageMapping("/yjs.sync/{sessionId}")
+    public void syncYjsDocument(@DestinationVariable String sessionId, @Payload Map<String, String> payload) {
+        String fileId = payload.get("fileId");
+        String userId = payload.get("userId");
+        if (fileId == null || userId == null)
             return;
 
+        YjsSyncMessage reply = new YjsSyncMessage();
+        reply.setFileId(fileId);
         try {
-            // Create session-specific directory in /tmp
-            java.nio.file.Path sessionDir = java.nio.file.Paths.get("/tmp", sessionId).toAbsolutePath().normalize();
-            if (!java.nio.file.Files.exists(sessionDir)) {
-                java.nio.file.Files.createDirectories(sessionDir);
+            YjsDocumentService.Snapshot snapshot = yjsDocumentService.sync(sessionId, fileId, payload.get("contentHash"));
+            if (snapshot != null) {
+                Base64.Encoder base64 = Base64.getEncoder();
+                reply.setUpdates(snapshot.updates().stream().map(base64::encodeToString).toList());
+                reply.setGeneration(snapshot.generation());
+                reply.setLogEntries(snapshot.logEntries());
+                reply.setCompact(snapshot.compact());
             }
+        } catch (Exception e) {
+            // sem estado utilizável o cliente continua como antes (conteúdo do editor + peers)
+            log.warn("Error syncing Yjs document {} of session {}: {}", fileId, sessionId, e.getMessage());
+        }
+        // o requerente está ligado a este nó: resposta local, sem relay
+        messagingService.sendLocal("/topic/yjs.sync/" + sessionId + "/" + userId, reply);
+    }
 
-            // Create/overwrite file in session directory
-            // SECURITY FIX: Prevent Path Traversal
-            java.nio.file.Path filePath = sessionDir.resolve(fileName).normalize();
-            if (!filePath.startsWith(sessionDir)) {
-                throw new SecurityException("Invalid file path: " + fileName);
-            }
+    /**
+     * Compaction done by a client after a sync that asked for it: payload {fileId, state,
+     * generation, logEntries}, where state is Y.mergeUpdates of the updates it received.
+     */
+    @MessageMapping("/yjs.compact/{sessionId}")
+    public void compactYjsDocument(@DestinationVariable String sessionId, @Payload Map<String, String> payload) {
+        String fileId = payload.get("fileId");
+        String state = payload.get("state");
+        if (fileId == null || state == null)
+            return;
+        try {
+            yjsDocumentService.compact(sessionId, fileId, state,
+                    Long.parseLong(payload.get("generation")), Integer.parseInt(payload.get("logEntries")));
+        } catch (NumberFormatException e) {
+            log.debug("Invalid Yjs compaction for {} of session {}: {}", fileId, sessionId, e.getMessage());
+        } catch (Exception e) {
+            log.warn("Error compacting Yjs document {} of session {}: {}", fileId, sessionId, e.getMessage());
+        }
+    }
 
-            // Ensure parent directories exist
-            if (filePath.getParent() != null && !java.nio.file.Files.exists(filePath.getParent())) {
-                java.nio.file.Files.createDirectories(filePath.getParent());
-            }
+    @MessageMapping("/save/{sessionId}")
+    public void saveFile(@DestinationVariable String sessionId, @Payload Map<String, String> payload) {
+        String fileName = payload.get("fileName");
+        String content = payload.get("content");
 
-            // Use CREATE, TRUNCATE_EXISTING, WRITE to always overwrite
-            java.nio.file.Files.write(
-                    filePath,
-                    content.getBytes(java.nio.charset.StandardCharsets.UTF_8),
-                    java.nio.file.StandardOpenOption.CREATE,
-                    java.nio.file.StandardOpenOption.TRUNCATE_EXISTING,
-                    java.nio.file.StandardOpenOption.WRITE);
-
-            // Ensure file is readable by others (for Nginx)
-            try {
-                java.util.Set<java.nio.file.attribute.PosixFilePermission> perms = java.nio.file.Files
-                        .getPosixFilePermissions(filePath);
-                perms.add(java.nio.file.attribute.PosixFilePermission.OTHERS_READ);
-                java.nio.file.Files.setPosixFilePermissions(filePath, perms);
-            } catch (UnsupportedOperationException e) {
-                // Ignore if filesystem doesn't support POSIX permissions (e.g. Windows host
-                // mount sometimes)
-            }
+        if (fileName == null || content == null)
+            return;
 
-        } catch (Exception e) {
-            // Log error or notify user via terminal/toast if possible
-            System.err.println("Error saving file: " + e.getMessage());
+        // Conteúdo vindo de um editor ligado ao Yjs: é a ele que o estado do servidor corresponde
+        if (Boolean.parseBoolean(payload.get("yjs"))) {
+            yjsDocumentService.recordSaved(sessionId, fileName, content);
         }
+
+        // Escrita em background, agrupada com saves seguidos do mesmo ficheiro; o status git
+        // é recalculado depois de o ficheiro estar no disco
+        fileWriter.save(sessionId, fileName, content)
+                .thenRun(() -> gitStatusService.invalidate(sessionId, false));
     }
 
     /**
@@ -169,37 +213,22 @@ public class SyncController {
         // Ensure the PTY is alive; start if not
         if (!terminalService.isAlive(sessionId)) {
             terminalService.startProcess(sessionId);
-            // Small delay so bash is ready
-            try {
-                Thread.sleep(300);
-            } catch (InterruptedException ignored) {
-            }
         }
+        // Wait for bash to finish its rcfile (immediate for a pre-warmed PTY)
+        terminalService.awaitReady(sessionId, 2000);
 
-        // If file content provided, write it to disk before running
+        // If file content provided, write it to disk before running; the command is
+        // sent from the writer thread once the file is in place
         if (fileName != null && content != null) {
-            try {
-                java.nio.file.Path sessionDir = java.nio.file.Paths.get("/tmp", sessionId).toAbsolutePath().normalize();
-                if (!java.nio.file.Files.exists(sessionDir)) {
-                    java.nio.file.Files.createDirectories(sessionDir);
-                }
-                java.nio.file.Path filePath = sessionDir.resolve(fileName).normalize();
-                if (!filePath.startsWith(sessionDir)) {
-                    throw new SecurityException("Invalid file path: " + fileName);
-                }
-                if (filePath.getParent() != null && !java.nio.file.Files.exists(filePath.getParent())) {
-                    java.nio.file.Files.createDirectories(filePath.getParent());
+            fileWriter.writeNow(sessionId, fileName, content).whenComplete((ok, e) -> {
+                if (e != null) {
+                    terminalService.handleInput(sessionId, "echo 'Erro ao salvar arquivo: " + e.getMessage() + "'\n");
+                } else {
+                    gitStatusService.invalidate(sessionId, false);
+                    terminalService.handleInput(sessionId, command + "\n");
                 }
-                java.nio.file.Files.write(
-                        filePath,
-                        content.getBytes(java.nio.charset.StandardCharsets.UTF_8),
-                        java.nio.file.StandardOpenOption.CREATE,
-                        java.nio.file.StandardOpenOption.TRUNCATE_EXISTING,
-                        java.nio.file.StandardOpenOption.WRITE);
-            } catch (Exception e) {
-                terminalService.handleInput(sessionId, "echo 'Erro ao salvar arquivo: " + e.getMessage() + "'\n");
-                return;
-            }
+            });
+            return;
         }
 
         // Send the command directly into the PTY (user sees it as if typed)
@@ -234,6 +263,18 @@ public class SyncController {
         terminalService.startProcess(sessionId, cols, rows);
     }
 
+    /**
+     * Scrollback replay for a client that (re)joins: payload {userId}; the reply goes
+     * only to that client, on /topic/terminal.replay/{sessionId}/{userId}.
+     */
+    @MessageMapping("/terminal.replay/{sessionId}")
+    public void replayTerminal(@DestinationVariable String sessionId, @Payload Map<String, String> payload) {
+        String userId = payload.get("userId");
+        if (userId == null || userId.isBlank())
+            return;
+        terminalService.replay(sessionId, userId);
+    }
+
     /**
      * Handles terminal resize events from the frontend.
      * Sends SIGWINCH to the PTY so programs like vim/top reflow correctly.
@@ -0,0 +1,27 @@
+package com.codesync.syncservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+// Status git enviado em /topic/git/{sessionId}: SNAPSHOT com todos os ficheiros ou DELTA
+// com os que mudaram (files) e os que deixaram de aparecer (removed). 'epoch' identifica o
+// status em cache que o gerou (um por sessão em cada nó); um DELTA só se aplica sobre o status
+// com o mesmo epoch e a versão baseVersion
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GitStatusMessage {
+    public enum Type { SNAPSHOT, DELTA }
+
+    private Type type;
+    private String epoch;
+    private long baseVersion;
+    private long version;
+    private boolean initialized;
+    private List<Map<String, String>> files;
+    private List<String> removed;
+}
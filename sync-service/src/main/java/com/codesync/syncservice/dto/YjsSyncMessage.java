@@ -0,0 +1,60 @@
+package com.codesync.syncservice.dto;
+
+import java.util.List;
+
+/**
+ * Resposta a /app/yjs.sync: estado e log do ficheiro no servidor, por fundir (Base64 de cada
+ * update, pela ordem em que devem ser aplicados). Com 'compact' o cliente devolve a fusão
+ * deles em /app/yjs.compact, com a 'generation' e o 'logEntries' recebidos.
+ */
+public class YjsSyncMessage {
+
+    private String fileId;
+    private List<String> updates; // null = servidor sem estado para o ficheiro
+    private long generation;
+    private int logEntries;
+    private boolean compact;
+
+    public YjsSyncMessage() {
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public void setFileId(String fileId) {
+        this.fileId = fileId;
+    }
+
+    public List<String> getUpdates() {
+        return updates;
+    }
+
+    public void setUpdates(List<String> updates) {
+        this.updates = updates;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    public int getLogEntries() {
+        return logEntries;
+    }
+
+    public void setLogEntries(int logEntries) {
+        this.logEntries = logEntries;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+}
@@ -0,0 +1,55 @@
+package com.codesync.syncservice.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executores para I/O bloqueante (output de subprocessos git, cliente HTTP do session-service).
+ * {@code virtual} usa uma virtual thread por tarefa quando a JVM as suporta (Java 21+);
+ * o serviço ainda compila para Java 17, por isso a fábrica é obtida por reflexão e, numa JVM
+ * mais antiga, cai para threads de plataforma com aviso. As imagens publicadas correm Java 17,
+ * portanto o modo virtual só tem efeito numa imagem com runtime 21+, e não houve ainda um
+ * teste de carga com ele.
+ *
+ * Os leitores de PTY ficam sempre em {@link #platform}: o read() do pty4j é uma chamada nativa
+ * (JNA) que prende a carrier thread enquanto espera, e com um terminal parado por carrier o
+ * scheduler das virtual threads esgota-se.
+ */
+final class BlockingIoExecutors {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockingIoExecutors.class);
+
+    static final String MODE_VIRTUAL = "virtual";
+
+    private BlockingIoExecutors() {
+    }
+
+    static ExecutorService create(String mode, String threadNamePrefix) {
+        if (MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+            try {
+                ExecutorService executor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                log.info("{}: a usar virtual threads", threadNamePrefix);
+                return executor;
+            } catch (ReflectiveOperationException e) {
+                log.warn("{}: virtual threads precisam de Java 21+ (a correr {}); a usar threads de plataforma",
+                        threadNamePrefix, Runtime.version());
+            }
+        }
+        return platform(threadNamePrefix);
+    }
+
+    /** Threads de plataforma (daemon), independentemente de io.threads. */
+    static ExecutorService platform(String threadNamePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, threadNamePrefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
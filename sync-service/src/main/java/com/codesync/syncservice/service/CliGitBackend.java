@@ -0,0 +1,107 @@
+package com.codesync.syncservice.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Leituras pelo git CLI: um processo por leitura, corrido pelo {@code runGitCommand} do
+ * {@link GitService} (allow-list, timeout e output tratados lá).
+ */
+final class CliGitBackend implements GitBackend {
+
+    static final String NAME = "cli";
+
+    /** Corre um subcomando git no diretório e devolve o output (ou a mensagem de erro). */
+    @FunctionalInterface
+    interface CommandRunner {
+        String run(Path workDir, String... args);
+    }
+
+    private final CommandRunner runner;
+
+    CliGitBackend(CommandRunner runner) {
+        this.runner = runner;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public List<StatusEntry> status(Path repoDir) throws Exception {
+        String output = run(repoDir, "status", "--porcelain", "-z", "--untracked-files=all");
+        List<StatusEntry> entries = new ArrayList<>();
+        String[] records = output.split("\0");
+        for (int i = 0; i < records.length; i++) {
+            String entry = records[i];
+            if (entry.length() < 3) continue;
+            // "XY caminho"; o trim do output pode ter comido o espaço inicial da primeira entrada
+            boolean trimmed = entry.charAt(2) != ' ';
+            String code = (trimmed ? entry.substring(0, 1) : entry.substring(0, 2)).trim();
+            String path = trimmed ? entry.substring(2) : entry.substring(3);
+            entries.add(new StatusEntry(code, path));
+            // renomeações e cópias trazem o caminho de origem no registo seguinte
+            if (code.startsWith("R") || code.startsWith("C")) i++;
+        }
+        return entries;
+    }
+
+    @Override
+    public String diff(Path repoDir, String path, boolean staged) throws Exception {
+        List<String> args = new ArrayList<>();
+        args.add("diff");
+        if (staged) {
+            args.add("--cached");
+        }
+        if (path != null) {
+            args.add("--");
+            args.add(path);
+        }
+        return run(repoDir, args.toArray(new String[0]));
+    }
+
+    @Override
+    public List<CommitInfo> log(Path repoDir, int limit) throws Exception {
+        String output = runner.run(repoDir, "log",
+                "--pretty=format:%H|%h|%an|%ae|%ar|%s",
+                "-n", String.valueOf(limit));
+        List<CommitInfo> commits = new ArrayList<>();
+        // sem commits o git log falha: histórico vazio, como antes
+        if (GitService.isGitFailure(output)) return commits;
+        for (String line : output.split("\n")) {
+            if (line.trim().isEmpty()) continue;
+            String[] parts = line.split("\\|", 6);
+            if (parts.length >= 6) {
+                commits.add(new CommitInfo(parts[0], parts[1], parts[2], parts[3], parts[4], parts[5]));
+            }
+        }
+        return commits;
+    }
+
+    @Override
+    public Branches branches(Path repoDir) throws Exception {
+        String current = run(repoDir, "branch", "--show-current").trim();
+        String output = run(repoDir, "branch", "-a").trim();
+        List<String> all = new ArrayList<>();
+        for (String line : output.split("\n")) {
+            if (line.trim().isEmpty()) continue;
+            // Remover o asterisco indicador de branch ativo e espaços
+            String clean = line.replace("*", "").trim();
+            if (!all.contains(clean)) {
+                all.add(clean);
+            }
+        }
+        return new Branches(current, all);
+    }
+
+    private String run(Path repoDir, String... args) throws IOException {
+        String output = runner.run(repoDir, args);
+        if (GitService.isGitFailure(output)) {
+            throw new IOException(output);
+        }
+        return output;
+    }
+}
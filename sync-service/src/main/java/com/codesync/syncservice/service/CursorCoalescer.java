@@ -0,0 +1,108 @@
+package com.codesync.syncservice.service;
+
+import com.codesync.syncservice.config.RedisRelayConfig;
+import com.codesync.syncservice.dto.CursorMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Junta as posições de cursor por sessão: fica só a última de cada utilizador e, a cada
+ * tick, todas seguem numa única frame (lista de {@link CursorMessage}) para
+ * /topic/cursor/{sessionId}. Com {@code cursor.coalesce.tick-ms=0} cada mensagem é
+ * reencaminhada logo, como antes.
+ */
+@Service
+public class CursorCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(CursorCoalescer.class);
+
+    private final RedisRelayConfig.ScalableMessagingService messagingService;
+    private final long tickMs;
+    // sessão -> (utilizador -> última posição); o mapa interno só é tocado dentro de compute/remove
+    private final ConcurrentHashMap<String, Map<String, CursorMessage>> pending = new ConcurrentHashMap<>();
+    private ScheduledExecutorService ticker;
+
+    private final AtomicLong messagesIn = new AtomicLong();
+    private final AtomicLong framesOut = new AtomicLong();
+    private final AtomicLong cursorsOut = new AtomicLong();
+
+    public CursorCoalescer(RedisRelayConfig.ScalableMessagingService messagingService,
+                           @Value("${cursor.coalesce.tick-ms:40}") long tickMs) {
+        this.messagingService = messagingService;
+        this.tickMs = tickMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (tickMs <= 0) return;
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cursor-coalescer");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleWithFixedDelay(this::flush, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (ticker != null) ticker.shutdownNow();
+    }
+
+    public void submit(String sessionId, CursorMessage message) {
+        messagesIn.incrementAndGet();
+        if (ticker == null) {
+            send(sessionId, List.of(message));
+            return;
+        }
+        String userKey = Objects.requireNonNullElse(message.getUserId(), "");
+        pending.compute(sessionId, (k, cursors) -> {
+            Map<String, CursorMessage> out = cursors != null ? cursors : new LinkedHashMap<>();
+            out.put(userKey, message);
+            return out;
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("tickMs", tickMs);
+        stats.put("messagesIn", messagesIn.get());
+        stats.put("framesOut", framesOut.get());
+        stats.put("cursorsOut", cursorsOut.get());
+        stats.put("pendingSessions", pending.size());
+        return stats;
+    }
+
+    private void flush() {
+        for (String sessionId : pending.keySet()) {
+            Map<String, CursorMessage> cursors = pending.remove(sessionId);
+            if (cursors == null || cursors.isEmpty()) continue;
+            try {
+                send(sessionId, new ArrayList<>(cursors.values()));
+            } catch (Exception e) {
+                // não pode escapar: mataria o agendamento do ticker
+                log.debug("Cursor flush failed for session {}: {}", sessionId, e.getMessage());
+            }
+        }
+    }
+
+    private void send(String sessionId, List<CursorMessage> cursors) {
+        messagingService.convertAndSend("/topic/cursor/" + sessionId, cursors);
+        framesOut.incrementAndGet();
+        cursorsOut.addAndGet(cursors.size());
+    }
+}
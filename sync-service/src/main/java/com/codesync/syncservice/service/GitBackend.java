@@ -0,0 +1,40 @@
+package com.codesync.syncservice.service;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Leituras de um repositório git (status, diff, log, branches) usadas pelo painel de git.
+ * As escritas (add, commit, clone, pull, push, checkout) continuam sempre no git CLI do
+ * {@link GitService}. Há duas implementações: {@link CliGitBackend} (um processo git por
+ * leitura) e {@link JGitBackend} (em processo, com o repositório aberto em cache por sessão);
+ * a usada é escolhida por {@code git.backend}.
+ */
+interface GitBackend {
+
+    /** Entrada do {@code git status --porcelain}: código XY sem espaços (ex.: "M", "??") e caminho. */
+    record StatusEntry(String code, String path) {
+    }
+
+    record CommitInfo(String hash, String shortHash, String author, String email, String relativeDate, String message) {
+    }
+
+    /** Branch atual ("" com HEAD destacado) e todas as branches como no {@code git branch -a}. */
+    record Branches(String current, List<String> all) {
+    }
+
+    String name();
+
+    List<StatusEntry> status(Path repoDir) throws Exception;
+
+    /** Diff do worktree (ou do index com {@code staged}), opcionalmente limitado a um caminho. */
+    String diff(Path repoDir, String path, boolean staged) throws Exception;
+
+    List<CommitInfo> log(Path repoDir, int limit) throws Exception;
+
+    Branches branches(Path repoDir) throws Exception;
+
+    /** O repositório foi recriado ou apagado (clone, init): esquecer o que houver em cache. */
+    default void invalidate(Path repoDir) {
+    }
+}
@@ -1,7 +1,10 @@
 package com.codesync.syncservice.service;
 
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
@@ -11,7 +14,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -20,18 +27,104 @@ public class GitService {
 
     private static final Logger log = LoggerFactory.getLogger(GitService.class);
 
-    private final com.fasterxml.jackson.databind.ObjectMapper objectMapper;
+    // Comandos que falam com o remoto e podem demorar mais do que os locais
+    private static final Set<String> NETWORK_COMMANDS = Set.of("clone", "pull", "push");
 
-    public GitService(com.fasterxml.jackson.databind.ObjectMapper objectMapper) {
+    private final com.fasterxml.jackson.databind.ObjectMapper objectMapper;
+    private final SessionServiceClient sessionClient;
+    // Lê o output dos subprocessos git, para o timeout valer mesmo com o processo a escrever
+    private final ExecutorService gitIoExecutor;
+    // Último manifesto sincronizado por sessão (ver syncWorkspaceFromDatabase); sai ao fim de
+    // git.manifest.idle-minutes sem uso (ver evictIdleManifests)
+    private final Map<String, LocalWorkspaceManifest> manifests = new ConcurrentHashMap<>();
+    private final AtomicLong manifestEvictions = new AtomicLong();
+    // Caminhos por pedido a /contents e a /patch
+    private static final int CONTENT_FETCH_BATCH = 500;
+    private static final int PATCH_BATCH = 500;
+
+    private final AtomicLong manifestSyncs = new AtomicLong();
+    private final AtomicLong manifestNotModified = new AtomicLong();
+    private final AtomicLong filesFetched = new AtomicLong();
+    private final AtomicLong filesDeleted = new AtomicLong();
+    private final AtomicLong deltaUploads = new AtomicLong();
+    private final AtomicLong pathsUploaded = new AtomicLong();
+
+    // Leituras do painel (status, diff, log, branches): CLI ou JGit, por git.backend
+    private final CliGitBackend cliBackend;
+    private final JGitBackend jgitBackend;
+    private final GitBackend readBackend;
+    private final Map<String, LatencyHistogram> readLatencies = new ConcurrentHashMap<>();
+    private final AtomicLong jgitFallbacks = new AtomicLong();
+
+    @Value("${git.command-timeout-seconds:15}")
+    private long commandTimeoutSeconds;
+
+    @Value("${git.network-timeout-seconds:300}")
+    private long networkTimeoutSeconds;
+
+    @Value("${git.manifest.idle-minutes:60}")
+    private long manifestIdleMinutes;
+
+    // O PUT da árvore completa leva o workspace inteiro: timeout próprio, acima do dos outros pedidos
+    private final java.time.Duration fullTreeTimeout;
+
+    public GitService(com.fasterxml.jackson.databind.ObjectMapper objectMapper,
+                      SessionServiceClient sessionClient,
+                      @Value("${io.threads:platform}") String threadMode,
+                      @Value("${git.backend:cli}") String backend,
+                      @Value("${git.jgit.max-open-repositories:64}") int maxOpenRepositories,
+                      @Value("${session-service.full-tree-timeout-ms:120000}") long fullTreeTimeoutMs) {
         this.objectMapper = objectMapper;
+        this.fullTreeTimeout = java.time.Duration.ofMillis(fullTreeTimeoutMs);
+        this.sessionClient = sessionClient;
+        this.gitIoExecutor = BlockingIoExecutors.create(threadMode, "git-io");
+        this.cliBackend = new CliGitBackend(this::runGitCommand);
+        this.jgitBackend = new JGitBackend(Math.max(1, maxOpenRepositories));
+        this.readBackend = JGitBackend.NAME.equalsIgnoreCase(backend) ? jgitBackend : cliBackend;
+        log.info("Leituras git pelo backend {}", readBackend.name());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        jgitBackend.closeAll();
+    }
+
+    @FunctionalInterface
+    private interface GitRead<T> {
+        T apply(GitBackend backend) throws Exception;
+    }
+
+    /**
+     * Corre uma leitura no backend configurado, medindo a latência. Se o JGit falhar (formato
+     * de repositório que não suporta, por exemplo) a leitura repete-se pelo CLI.
+     */
+    private <T> T read(String operation, GitRead<T> read) throws Exception {
+        long start = System.nanoTime();
+        boolean error = false;
+        try {
+            return read.apply(readBackend);
+        } catch (Exception e) {
+            if (readBackend == cliBackend) {
+                error = true;
+                throw e;
+            }
+            jgitFallbacks.incrementAndGet();
+            log.warn("JGit falhou em {} ({}); a usar o git CLI", operation, e.getMessage());
+            return read.apply(cliBackend);
+        } finally {
+            readLatencies.computeIfAbsent(readBackend.name() + " " + operation, k -> new LatencyHistogram())
+                    .record(System.nanoTime() - start, error);
+        }
     }
 
     // Allow-list: only these git subcommands are permitted
     private static final Set<String> ALLOWED_COMMANDS = Set.of(
             "init", "status", "diff", "add", "commit", "log", "config",
-            "clone", "pull", "push", "checkout", "branch", "remote"
+            "clone", "pull", "push", "checkout", "branch", "remote", "rev-parse", "ls-files"
     );
 
+    private static final Pattern COMMIT_HASH = Pattern.compile("^[0-9a-f]{40,64}$");
+
     // Validate sessionId to prevent path traversal
     private static final Pattern SESSION_ID_PATTERN = Pattern.compile("^[a-zA-Z0-9_\\-]+$");
 
@@ -48,10 +141,11 @@ public class GitService {
     }
 
     /**
-     * Sincroniza recursivamente o workspace físico em disco (/tmp/{sessionId})
-     * com a árvore de ficheiros armazenada no banco de dados do session-service.
+     * Sincroniza o workspace físico em disco (/tmp/{sessionId}) com o banco do session-service.
+     * Usa o manifesto de hashes (pedido com If-None-Match, por isso sem alterações é um 304 sem
+     * corpo) e só pede e escreve o conteúdo dos ficheiros que diferem do disco; com um
+     * session-service sem /manifest volta à árvore completa.
      */
-    @SuppressWarnings("unchecked")
     private void syncWorkspaceFromDatabase(String sessionId) {
         try {
             Path sessionDir = getSessionDir(sessionId);
@@ -59,68 +153,189 @@ public class GitService {
                 Files.createDirectories(sessionDir);
             }
 
-            // Consultar árvore de ficheiros do session-service (serviço interno na mesma rede docker)
-            String url = "http://session-service:8080/api/tree/" + sessionId;
-            java.net.http.HttpClient client = java.net.http.HttpClient.newHttpClient();
-            java.net.http.HttpRequest request = java.net.http.HttpRequest.newBuilder()
-                    .uri(java.net.URI.create(url))
-                    .timeout(java.time.Duration.ofSeconds(5))
-                    .GET()
-                    .build();
-
-            java.net.http.HttpResponse<String> response = client.send(request, java.net.http.HttpResponse.BodyHandlers.ofString());
-            if (response.statusCode() != 200) {
-                log.warn("Sincronização abortada: session-service retornou status {}", response.statusCode());
-                return;
+            LocalWorkspaceManifest manifest = acquireManifest(sessionId);
+            synchronized (manifest) {
+                try {
+                    if (!syncFromManifest(sessionId, sessionDir, manifest)) {
+                        syncFromTree(sessionId, sessionDir);
+                    }
+                } finally {
+                    manifest.touch();
+                }
             }
+        } catch (Exception e) {
+            log.error("Erro ao sincronizar repositório Git local com banco de dados para a sessão {}: {}", sessionId, e.getMessage());
+        }
+    }
 
-            Map<String, Object> body = objectMapper.readValue(response.body(), new com.fasterxml.jackson.core.type.TypeReference<Map<String, Object>>() {});
-            Map<String, Object> tree = (Map<String, Object>) body.get("tree");
-            if (tree == null) {
-                log.warn("Sincronização abortada: árvore de ficheiros vazia");
-                return;
-            }
+    /** Manifesto da sessão, criado no primeiro uso; marcado como usado na mesma operação atómica. */
+    private LocalWorkspaceManifest acquireManifest(String sessionId) {
+        return manifests.compute(sessionId, (k, existing) -> {
+            LocalWorkspaceManifest manifest = existing != null ? existing : new LocalWorkspaceManifest();
+            manifest.touch();
+            return manifest;
+        });
+    }
 
-            // Mapeia recursivamente todos os arquivos presentes no banco de dados
-            Map<String, String> dbFiles = new HashMap<>();
-            collectFilesFromTree(tree, "", dbFiles);
+    /**
+     * Retira os manifestos de sessões sem sincronizações há mais de git.manifest.idle-minutes.
+     * A decisão corre dentro do computeIfPresent, por isso não corre com um acquireManifest da
+     * mesma sessão; uma sincronização que ainda segure um manifesto retirado só perde a cache
+     * (a seguinte volta a pedir o manifesto completo).
+     */
+    @Scheduled(fixedDelayString = "${git.status.sweep-interval-ms:60000}")
+    public void evictIdleManifests() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(manifestIdleMinutes);
+        for (String sessionId : manifests.keySet()) {
+            manifests.computeIfPresent(sessionId, (k, manifest) -> {
+                if (manifest.lastUsed() >= cutoff) return manifest;
+                manifestEvictions.incrementAndGet();
+                return null;
+            });
+        }
+    }
 
-            // 1. Gravar/atualizar em disco todos os ficheiros da base de dados
-            for (Map.Entry<String, String> entry : dbFiles.entrySet()) {
-                String relativePath = entry.getKey();
-                String content = entry.getValue();
+    /**
+     * Atualiza o manifesto remoto (pedido condicional ao ETag conhecido).
+     * @return o status HTTP: 200/304 = manifesto atual, 404 = session-service sem /manifest
+     */
+    @SuppressWarnings("unchecked")
+    private int refreshManifest(String sessionId, LocalWorkspaceManifest manifest) throws Exception {
+        String path = "/api/tree/" + sessionId + "/manifest";
+        SessionServiceClient.Response response = manifest.etag() != null
+                ? sessionClient.get("GET /api/tree/{id}/manifest", path, "If-None-Match", manifest.etag())
+                : sessionClient.get("GET /api/tree/{id}/manifest", path);
+        manifestSyncs.incrementAndGet();
+        if (response.statusCode() == 304) {
+            manifestNotModified.incrementAndGet();
+        } else if (response.statusCode() == 200) {
+            Map<String, Object> body = objectMapper.readValue(response.body(), new com.fasterxml.jackson.core.type.TypeReference<Map<String, Object>>() {});
+            Map<String, String> files = (Map<String, String>) body.get("files");
+            manifest.updateRemote(response.headers().firstValue("ETag").orElse(null), files != null ? files : Map.of());
+        }
+        return response.statusCode();
+    }
 
-                Path filePath = sessionDir.resolve(relativePath).normalize();
-                if (!filePath.startsWith(sessionDir)) {
+    /** @return false se o session-service não tiver o endpoint de manifesto */
+    @SuppressWarnings("unchecked")
+    private boolean syncFromManifest(String sessionId, Path sessionDir, LocalWorkspaceManifest manifest) throws Exception {
+        int status = refreshManifest(sessionId, manifest);
+        if (status == 404) {
+            return false;
+        }
+        if (status != 200 && status != 304) {
+            log.warn("Sincronização abortada: session-service retornou status {}", status);
+            return true;
+        }
+
+        // Mesmo com o manifesto inalterado o disco pode ter mudado (terminal, saves)
+        LocalWorkspaceManifest.Plan plan = manifest.reconcile(sessionDir);
+        filesDeleted.addAndGet(plan.deleted());
+        List<String> toFetch = new ArrayList<>(plan.toFetch());
+        for (int i = 0; i < toFetch.size(); i += CONTENT_FETCH_BATCH) {
+            List<String> batch = toFetch.subList(i, Math.min(i + CONTENT_FETCH_BATCH, toFetch.size()));
+            SessionServiceClient.Response contentsResponse = sessionClient.sendJson("POST /api/tree/{id}/contents",
+                    "POST", "/api/tree/" + sessionId + "/contents", Map.of("paths", batch));
+            if (contentsResponse.statusCode() != 200) {
+                log.warn("Sincronização incompleta: /contents retornou status {}", contentsResponse.statusCode());
+                return true;
+            }
+            Map<String, Object> body = objectMapper.readValue(contentsResponse.body(), new com.fasterxml.jackson.core.type.TypeReference<Map<String, Object>>() {});
+            Map<String, String> contents = (Map<String, String>) body.get("files");
+            if (contents == null) continue;
+            for (Map.Entry<String, String> entry : contents.entrySet()) {
+                Path filePath = sessionDir.resolve(entry.getKey()).normalize();
+                if (!filePath.startsWith(sessionDir) || filePath.equals(sessionDir)) {
                     continue; // Evitar Path Traversal
                 }
-
-                // Garantir criação dos diretórios pais
-                if (filePath.getParent() != null && !Files.exists(filePath.getParent())) {
+                if (filePath.getParent() != null) {
                     Files.createDirectories(filePath.getParent());
                 }
+                byte[] contentBytes = entry.getValue() != null ? entry.getValue().getBytes(StandardCharsets.UTF_8) : new byte[0];
+                Files.write(filePath, contentBytes);
+                manifest.recordWritten(filePath, entry.getKey(), contentBytes);
+                filesFetched.incrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sincronização com a árvore completa (session-service sem /manifest): grava todos os
+     * ficheiros cujo conteúdo difere e apaga os órfãos.
+     */
+    @SuppressWarnings("unchecked")
+    private void syncFromTree(String sessionId, Path sessionDir) throws Exception {
+        // Consultar árvore de ficheiros do session-service (serviço interno na mesma rede docker)
+        SessionServiceClient.Response response = sessionClient.get("GET /api/tree/{id}", "/api/tree/" + sessionId);
+        if (response.statusCode() != 200) {
+            log.warn("Sincronização abortada: session-service retornou status {}", response.statusCode());
+            return;
+        }
 
-                byte[] contentBytes = content != null ? content.getBytes(StandardCharsets.UTF_8) : new byte[0];
-                boolean shouldWrite = true;
+        Map<String, Object> body = objectMapper.readValue(response.body(), new com.fasterxml.jackson.core.type.TypeReference<Map<String, Object>>() {});
+        Map<String, Object> tree = (Map<String, Object>) body.get("tree");
+        if (tree == null) {
+            log.warn("Sincronização abortada: árvore de ficheiros vazia");
+            return;
+        }
 
-                if (Files.exists(filePath)) {
-                    byte[] existingBytes = Files.readAllBytes(filePath);
-                    if (Arrays.equals(existingBytes, contentBytes)) {
-                        shouldWrite = false; // Não sobrescrever se o conteúdo for idêntico
-                    }
-                }
+        // Mapeia recursivamente todos os arquivos presentes no banco de dados
+        Map<String, String> dbFiles = new HashMap<>();
+        collectFilesFromTree(tree, "", dbFiles);
 
-                if (shouldWrite) {
-                    Files.write(filePath, contentBytes);
-                }
+        // 1. Gravar/atualizar em disco todos os ficheiros da base de dados
+        for (Map.Entry<String, String> entry : dbFiles.entrySet()) {
+            String relativePath = entry.getKey();
+            String content = entry.getValue();
+
+            Path filePath = sessionDir.resolve(relativePath).normalize();
+            if (!filePath.startsWith(sessionDir)) {
+                continue; // Evitar Path Traversal
             }
 
-            // 2. Apagar ficheiros locais órfãos (que existem no disco mas não no banco), ignorando o Git
-            deleteOrphanedFiles(sessionDir, sessionDir, dbFiles.keySet());
+            // Garantir criação dos diretórios pais
+            if (filePath.getParent() != null && !Files.exists(filePath.getParent())) {
+                Files.createDirectories(filePath.getParent());
+            }
 
-        } catch (Exception e) {
-            log.error("Erro ao sincronizar repositório Git local com banco de dados para a sessão {}: {}", sessionId, e.getMessage());
+            byte[] contentBytes = content != null ? content.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            boolean shouldWrite = true;
+
+            if (Files.exists(filePath)) {
+                byte[] existingBytes = Files.readAllBytes(filePath);
+                if (Arrays.equals(existingBytes, contentBytes)) {
+                    shouldWrite = false; // Não sobrescrever se o conteúdo for idêntico
+                }
+            }
+
+            if (shouldWrite) {
+                Files.write(filePath, contentBytes);
+            }
         }
+
+        // 2. Apagar ficheiros locais órfãos (que existem no disco mas não no banco), ignorando o Git
+        deleteOrphanedFiles(sessionDir, sessionDir, dbFiles.keySet());
+    }
+
+    /** Contadores da sincronização banco -> disco. */
+    public Map<String, Object> syncStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("manifestSyncs", manifestSyncs.get());
+        stats.put("manifestNotModified", manifestNotModified.get());
+        stats.put("filesFetched", filesFetched.get());
+        stats.put("filesDeleted", filesDeleted.get());
+        stats.put("deltaUploads", deltaUploads.get());
+        stats.put("pathsUploaded", pathsUploaded.get());
+        stats.put("trackedSessions", manifests.size());
+        stats.put("manifestEvictions", manifestEvictions.get());
+        stats.put("readBackend", readBackend.name());
+        stats.put("jgitFallbacks", jgitFallbacks.get());
+        stats.put("jgitOpenRepositories", jgitBackend.openRepositories());
+        Map<String, Object> reads = new TreeMap<>();
+        readLatencies.forEach((operation, histogram) -> reads.put(operation, histogram.snapshot()));
+        stats.put("reads", reads);
+        return stats;
     }
 
     @SuppressWarnings("unchecked")
@@ -175,9 +390,138 @@ public class GitService {
     }
 
     /**
-     * Sincroniza recursivamente o workspace físico em disco com o banco do session-service.
+     * Envia para o banco do session-service o que mudou em disco depois de um clone, pull ou
+     * checkout. Os caminhos candidatos vêm do próprio git (diff entre o HEAD anterior e o atual,
+     * ou todos os ficheiros seguidos depois de um clone, mais o que o git status mostra) e
+     * seguem num patch em lote (upserts/deletes), saltando os que já têm o mesmo hash no
+     * manifesto do banco. Se o git ou o session-service não permitirem o delta, envia a
+     * árvore completa como antes.
+     * @param previousHead commit antes da operação (null depois de um clone)
      */
-    private void syncWorkspaceToDatabase(String sessionId) {
+    private void syncWorkspaceToDatabase(String sessionId, String previousHead) {
+        try {
+            Path sessionDir = getSessionDir(sessionId);
+            if (!Files.exists(sessionDir)) {
+                log.warn("Workspace para sessão {} não existe em disco", sessionId);
+                return;
+            }
+            LocalWorkspaceManifest manifest = acquireManifest(sessionId);
+            synchronized (manifest) {
+                try {
+                    if (uploadDelta(sessionId, sessionDir, previousHead, manifest)) return;
+                } finally {
+                    manifest.touch();
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Delta para o banco falhou na sessão {} ({}); a enviar a árvore completa", sessionId, e.getMessage());
+        }
+        syncFullTreeToDatabase(sessionId);
+    }
+
+    /** @return false se o delta não puder ser usado (git sem HEAD comparável, session-service antigo) */
+    private boolean uploadDelta(String sessionId, Path sessionDir, String previousHead,
+                                LocalWorkspaceManifest manifest) throws Exception {
+        int status = refreshManifest(sessionId, manifest);
+        if (status != 200 && status != 304) return false;
+
+        Set<String> candidates = changedPaths(sessionDir, previousHead);
+        if (candidates == null) return false;
+        if (previousHead == null) {
+            candidates.addAll(manifest.remotePaths()); // o que o clone não trouxe sai do banco
+        }
+
+        Path gitDir = sessionDir.resolve(".git");
+        Map<String, String> upserts = new TreeMap<>();
+        List<String> deletes = new ArrayList<>();
+        for (String relativePath : candidates) {
+            Path filePath = sessionDir.resolve(relativePath).normalize();
+            if (!filePath.startsWith(sessionDir) || filePath.equals(sessionDir) || filePath.startsWith(gitDir)) {
+                continue;
+            }
+            if (Files.isRegularFile(filePath)) {
+                // bytes inválidos em UTF-8 viram U+FFFD (o banco só guarda texto)
+                String content = new String(Files.readAllBytes(filePath), StandardCharsets.UTF_8);
+                // hash do texto tal como o banco o vai guardar
+                String hash = LocalWorkspaceManifest.sha256(content.getBytes(StandardCharsets.UTF_8));
+                if (!hash.equals(manifest.remoteHash(relativePath))) upserts.put(relativePath, content);
+            } else if (!Files.exists(filePath) && manifest.remoteHash(relativePath) != null) {
+                deletes.add(relativePath);
+            }
+        }
+
+        // deletes primeiro (libertam caminhos que um upsert pode reutilizar com outro tipo)
+        for (int i = 0; i < deletes.size(); i += PATCH_BATCH) {
+            if (!sendPatch(sessionId, Map.of(), deletes.subList(i, Math.min(i + PATCH_BATCH, deletes.size())))) return false;
+        }
+        List<String> upsertPaths = new ArrayList<>(upserts.keySet());
+        for (int i = 0; i < upsertPaths.size(); i += PATCH_BATCH) {
+            Map<String, String> batch = new LinkedHashMap<>();
+            for (String path : upsertPaths.subList(i, Math.min(i + PATCH_BATCH, upsertPaths.size()))) {
+                batch.put(path, upserts.get(path));
+            }
+            if (!sendPatch(sessionId, batch, List.of())) return false;
+        }
+
+        deltaUploads.incrementAndGet();
+        pathsUploaded.addAndGet(upserts.size() + deletes.size());
+        log.info("Sincronização reversa (disco -> banco) da sessão {}: {} ficheiro(s) enviados, {} apagados",
+                sessionId, upserts.size(), deletes.size());
+        return true;
+    }
+
+    /** @return false se o session-service não tiver o endpoint de patch */
+    private boolean sendPatch(String sessionId, Map<String, String> upserts, List<String> deletes) throws Exception {
+        SessionServiceClient.Response response = sessionClient.sendJson("POST /api/tree/{id}/patch",
+                "POST", "/api/tree/" + sessionId + "/patch", Map.of("upserts", upserts, "deletes", deletes));
+        if (response.statusCode() == 404) return false;
+        if (response.statusCode() != 200) {
+            throw new java.io.IOException("patch retornou status " + response.statusCode());
+        }
+        return true;
+    }
+
+    /**
+     * Caminhos que podem ter mudado: {@code git diff --name-only} desde {@code previousHead}
+     * (ou {@code git ls-files} sem HEAD anterior) mais os do {@code git status}.
+     * @return null se algum comando git falhar
+     */
+    private Set<String> changedPaths(Path dir, String previousHead) {
+        Set<String> paths = new TreeSet<>();
+        String listing = previousHead != null
+                ? runGitCommand(dir, "diff", "--name-only", "-z", "--no-renames", previousHead, "HEAD")
+                : runGitCommand(dir, "ls-files", "-z");
+        if (isGitFailure(listing)) return null;
+        for (String path : listing.split("\0")) {
+            if (!path.isEmpty()) paths.add(path);
+        }
+
+        String status = runGitCommand(dir, "status", "--porcelain", "-z", "--untracked-files=all", "--no-renames");
+        if (isGitFailure(status)) return null;
+        for (String entry : status.split("\0")) {
+            if (entry.length() < 3) continue;
+            // "XY caminho"; o trim do output pode ter comido o espaço inicial da primeira entrada
+            paths.add(entry.charAt(2) == ' ' ? entry.substring(3) : entry.substring(2));
+        }
+        return paths;
+    }
+
+    static boolean isGitFailure(String output) {
+        return output.startsWith("fatal:") || output.startsWith("error:")
+                || output.startsWith("Erro") || output.startsWith("Timeout");
+    }
+
+    /** Commit atual, ou null se o repositório ainda não tiver commits. */
+    private String headCommit(Path dir) {
+        String head = runGitCommand(dir, "rev-parse", "--verify", "-q", "HEAD");
+        return COMMIT_HASH.matcher(head).matches() ? head : null;
+    }
+
+    /**
+     * Sincroniza recursivamente o workspace físico em disco com o banco do session-service,
+     * enviando a árvore completa.
+     */
+    private void syncFullTreeToDatabase(String sessionId) {
         try {
             Path sessionDir = getSessionDir(sessionId);
             if (!Files.exists(sessionDir)) {
@@ -189,18 +533,8 @@ public class GitService {
             com.codesync.syncservice.dto.TreeNode rootNode = buildTreeFromDisk(sessionDir, "root");
 
             // Envia PUT request para o session-service
-            String url = "http://session-service:8080/api/tree/" + sessionId;
-            String jsonBody = objectMapper.writeValueAsString(rootNode);
-
-            java.net.http.HttpClient client = java.net.http.HttpClient.newHttpClient();
-            java.net.http.HttpRequest request = java.net.http.HttpRequest.newBuilder()
-                    .uri(java.net.URI.create(url))
-                    .timeout(java.time.Duration.ofSeconds(10))
-                    .header("Content-Type", "application/json")
-                    .PUT(java.net.http.HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8))
-                    .build();
-
-            java.net.http.HttpResponse<String> response = client.send(request, java.net.http.HttpResponse.BodyHandlers.ofString());
+            SessionServiceClient.Response response = sessionClient.sendJson("PUT /api/tree/{id}",
+                    "PUT", "/api/tree/" + sessionId, rootNode, fullTreeTimeout);
             if (response.statusCode() != 200) {
                 log.error("Erro ao sincronizar workspace em disco para o banco. Session service status: {}", response.statusCode());
             } else {
@@ -261,6 +595,7 @@ public class GitService {
         }
 
         String initResult = runGitCommand(dir, "init");
+        readBackend.invalidate(dir);
         // Configure user identity for commits
         runGitCommand(dir, "config", "user.name", username != null ? username : "TeamCode User");
         runGitCommand(dir, "config", "user.email", "teamcode@local");
@@ -272,20 +607,34 @@ public class GitService {
      * Get git status (porcelain format for easy parsing).
      */
     public Map<String, Object> getStatus(String sessionId) {
-        syncWorkspaceFromDatabase(sessionId);
+        return getStatus(sessionId, true);
+    }
+
+    /**
+     * Status sem passar pelo banco quando o disco já está atualizado (saves, operações git).
+     */
+    public Map<String, Object> getStatus(String sessionId, boolean syncFromDatabase) {
+        if (syncFromDatabase) {
+            syncWorkspaceFromDatabase(sessionId);
+        }
         Path dir = getSessionDir(sessionId);
 
         if (!Files.exists(dir.resolve(".git"))) {
             return Map.of("initialized", false, "files", List.of());
         }
 
-        String output = runGitCommand(dir, "status", "--porcelain");
+        List<GitBackend.StatusEntry> entries;
+        try {
+            entries = read("status", backend -> backend.status(dir));
+        } catch (Exception e) {
+            log.error("Erro ao ler git status da sessão {}: {}", sessionId, e.getMessage());
+            return Map.of("initialized", true, "files", List.of(), "error", String.valueOf(e.getMessage()));
+        }
         List<Map<String, String>> files = new ArrayList<>();
 
-        for (String line : output.split("\n")) {
-            if (line.trim().isEmpty()) continue;
-            String status = line.length() >= 2 ? line.substring(0, 2).trim() : "?";
-            String filePath = line.length() > 3 ? line.substring(3).trim() : line.trim();
+        for (GitBackend.StatusEntry entry : entries) {
+            String status = entry.code();
+            String filePath = entry.path();
             String statusLabel = switch (status) {
                 case "M" -> "modified";
                 case "A" -> "added";
@@ -302,6 +651,11 @@ public class GitService {
         return Map.of("initialized", true, "files", files);
     }
 
+    /** A sessão já tem um repositório git em disco. */
+    public boolean hasRepository(String sessionId) {
+        return Files.exists(getSessionDir(sessionId).resolve(".git"));
+    }
+
     /**
      * Get diff output for all files or a specific file.
      */
@@ -313,22 +667,22 @@ public class GitService {
             return Map.of("initialized", false, "diff", "");
         }
 
-        List<String> args = new ArrayList<>();
-        args.add("diff");
-        if (staged) {
-            args.add("--cached");
-        }
+        String path = null;
         if (filePath != null && !filePath.isBlank()) {
             // Validate filePath: must not contain path traversal
-            String sanitized = filePath.replace("\\", "/");
-            if (sanitized.contains("..")) {
+            path = filePath.replace("\\", "/");
+            if (path.contains("..")) {
                 throw new SecurityException("Path traversal detectado no filePath");
             }
-            args.add("--");
-            args.add(sanitized);
         }
 
-        String output = runGitCommand(dir, args.toArray(new String[0]));
+        String diffPath = path;
+        String output;
+        try {
+            output = read("diff", backend -> backend.diff(dir, diffPath, staged));
+        } catch (Exception e) {
+            output = String.valueOf(e.getMessage());
+        }
         return Map.of("initialized", true, "diff", output);
     }
 
@@ -406,24 +760,24 @@ public class GitService {
         // Clamp limit
         int safeLimit = Math.min(Math.max(limit, 1), 100);
 
-        String output = runGitCommand(dir, "log",
-                "--pretty=format:%H|%h|%an|%ae|%ar|%s",
-                "-n", String.valueOf(safeLimit));
+        List<GitBackend.CommitInfo> history;
+        try {
+            history = read("log", backend -> backend.log(dir, safeLimit));
+        } catch (Exception e) {
+            log.error("Erro ao ler git log da sessão {}: {}", sessionId, e.getMessage());
+            history = List.of();
+        }
 
         List<Map<String, String>> commits = new ArrayList<>();
-        for (String line : output.split("\n")) {
-            if (line.trim().isEmpty()) continue;
-            String[] parts = line.split("\\|", 6);
-            if (parts.length >= 6) {
-                commits.add(Map.of(
-                        "hash", parts[0],
-                        "shortHash", parts[1],
-                        "author", parts[2],
-                        "email", parts[3],
-                        "relativeDate", parts[4],
-                        "message", parts[5]
-                ));
-            }
+        for (GitBackend.CommitInfo commit : history) {
+            commits.add(Map.of(
+                    "hash", commit.hash(),
+                    "shortHash", commit.shortHash(),
+                    "author", commit.author(),
+                    "email", commit.email(),
+                    "relativeDate", commit.relativeDate(),
+                    "message", commit.message()
+            ));
         }
 
         return Map.of("initialized", true, "commits", commits);
@@ -441,6 +795,7 @@ public class GitService {
         try {
             if (Files.exists(dir)) {
                 // Limpar todos os arquivos da pasta para poder clonar sem erros
+                readBackend.invalidate(dir);
                 clearDirectory(dir);
             } else {
                 Files.createDirectories(dir);
@@ -463,7 +818,7 @@ public class GitService {
         runGitCommand(dir, "config", "user.email", "teamcode@local");
 
         // Sincroniza a árvore recém-clonada para o banco de dados
-        syncWorkspaceToDatabase(sessionId);
+        syncWorkspaceToDatabase(sessionId, null);
 
         return Map.of("success", true, "message", "Repositório clonado com sucesso", "treeUpdated", true);
     }
@@ -519,6 +874,7 @@ public class GitService {
             runGitCommand(dir, "remote", "set-url", "origin", tempRemoteUrl);
         }
 
+        String previousHead = headCommit(dir);
         String pullResult = runGitCommand(dir, "pull");
 
         if (hasToken && !originalRemoteUrl.startsWith("Erro")) {
@@ -531,7 +887,7 @@ public class GitService {
         }
 
         // Sincroniza a nova árvore com o banco
-        syncWorkspaceToDatabase(sessionId);
+        syncWorkspaceToDatabase(sessionId, previousHead);
 
         return Map.of("success", true, "output", pullResult, "treeUpdated", true);
     }
@@ -584,6 +940,7 @@ public class GitService {
             return Map.of("success", false, "error", "Nome da branch vazio");
         }
 
+        String previousHead = headCommit(dir);
         String checkoutResult;
         if (create) {
             checkoutResult = runGitCommand(dir, "checkout", "-b", branchName.trim());
@@ -596,7 +953,7 @@ public class GitService {
         }
 
         // Sincroniza a nova árvore com o banco
-        syncWorkspaceToDatabase(sessionId);
+        syncWorkspaceToDatabase(sessionId, previousHead);
 
         return Map.of("success", true, "message", "Checkout concluído: " + checkoutResult, "treeUpdated", true);
     }
@@ -610,23 +967,16 @@ public class GitService {
             return Map.of("initialized", false, "branches", List.of(), "currentBranch", "");
         }
 
-        // Obter branch atual
-        String currentOutput = runGitCommand(dir, "branch", "--show-current").trim();
-        if (currentOutput.startsWith("Erro")) {
+        String currentOutput;
+        List<String> branches;
+        try {
+            GitBackend.Branches result = read("branches", backend -> backend.branches(dir));
+            currentOutput = result.current();
+            branches = new ArrayList<>(result.all());
+        } catch (Exception e) {
+            log.error("Erro ao listar branches da sessão {}: {}", sessionId, e.getMessage());
             currentOutput = "main"; // fallback
-        }
-
-        // Obter todas as branches
-        String output = runGitCommand(dir, "branch", "-a").trim();
-        List<String> branches = new ArrayList<>();
-        
-        for (String line : output.split("\n")) {
-            if (line.trim().isEmpty()) continue;
-            // Remover o asterisco indicador de branch ativo e espaços
-            String clean = line.replace("*", "").trim();
-            if (!branches.contains(clean)) {
-                branches.add(clean);
-            }
+            branches = new ArrayList<>();
         }
 
         if (branches.isEmpty()) {
@@ -668,22 +1018,28 @@ public class GitService {
 
             Process process = pb.start();
 
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
+            Future<String> output = gitIoExecutor.submit(() -> {
+                StringBuilder out = new StringBuilder();
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        out.append(line).append("\n");
+                    }
                 }
-            }
+                return out.toString();
+            });
 
-            boolean finished = process.waitFor(15, TimeUnit.SECONDS);
+            long timeout = NETWORK_COMMANDS.contains(subCommand) ? networkTimeoutSeconds : commandTimeoutSeconds;
+            boolean finished = process.waitFor(timeout, TimeUnit.SECONDS);
             if (!finished) {
                 process.destroyForcibly();
+                output.cancel(true);
                 return "Timeout: comando git demorou muito";
             }
 
-            return output.toString().trim();
+            // o processo terminou: o stream chega ao fim logo a seguir
+            return output.get(5, TimeUnit.SECONDS).trim();
         } catch (Exception e) {
             log.error("Erro ao executar git {}: {}", subCommand, e.getMessage());
             return "Erro: " + e.getMessage();
@@ -0,0 +1,264 @@
+package com.codesync.syncservice.service;
+
+import com.codesync.syncservice.config.RedisRelayConfig;
+import com.codesync.syncservice.dto.GitStatusMessage;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Status git em cache por sessão. {@code GET /status} devolve a cópia em cache enquanto nada
+ * a invalidar (e não tiver mais de {@code git.status.max-age-ms}); saves, eventos da árvore e
+ * operações git invalidam-na e, passado {@code git.status.debounce-ms}, o status é recalculado
+ * uma vez e o que mudou segue para /topic/git/{sessionId}: DELTA com os ficheiros alterados e
+ * removidos, ou SNAPSHOT quando o repositório aparece/desaparece.
+ *
+ * Cada nó tem a sua cache e as mensagens chegam aos clientes de todos os nós pelo relay, por
+ * isso a versão sozinha não identifica um status: cada status em cache tem um epoch aleatório
+ * e um DELTA leva o epoch e a versão sobre a qual foi calculado ({@code baseVersion}). Um
+ * cliente só o aplica se o seu status (do GET ou de um SNAPSHOT) tiver esse epoch e essa
+ * versão; senão volta a pedir o status completo.
+ *
+ * Mudanças feitas só pelo terminal não geram eventos: aparecem no próximo GET depois do max-age.
+ */
+@Service
+public class GitStatusService {
+
+    private static final Logger log = LoggerFactory.getLogger(GitStatusService.class);
+
+    private final GitService gitService;
+    private final RedisRelayConfig.ScalableMessagingService messagingService;
+    private final long debounceMs;
+    private final long maxAgeMs;
+    private final long idleMs;
+    private final ScheduledExecutorService refresher;
+    private final Map<String, SessionStatus> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong recomputes = new AtomicLong();
+    private final AtomicLong deltasSent = new AtomicLong();
+    private final AtomicLong snapshotsSent = new AtomicLong();
+
+    public GitStatusService(GitService gitService,
+                            RedisRelayConfig.ScalableMessagingService messagingService,
+                            @Value("${git.status.debounce-ms:300}") long debounceMs,
+                            @Value("${git.status.max-age-ms:30000}") long maxAgeMs,
+                            @Value("${git.status.idle-minutes:60}") long idleMinutes,
+                            @Value("${git.status.threads:2}") int threads) {
+        this.gitService = gitService;
+        this.messagingService = messagingService;
+        this.debounceMs = Math.max(0, debounceMs);
+        this.maxAgeMs = maxAgeMs;
+        this.idleMs = TimeUnit.MINUTES.toMillis(idleMinutes);
+        AtomicInteger counter = new AtomicInteger();
+        this.refresher = Executors.newScheduledThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "git-status-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        refresher.shutdownNow();
+    }
+
+    /** Status para o GET: da cache se estiver válida, senão recalculado (com sincronização do banco). */
+    public Map<String, Object> getStatus(String sessionId) {
+        requests.incrementAndGet();
+        SessionStatus status = sessions.computeIfAbsent(sessionId, k -> new SessionStatus());
+        synchronized (status) {
+            status.lastUsed = System.currentTimeMillis();
+            if (status.isFresh(maxAgeMs)) {
+                cacheHits.incrementAndGet();
+                return status.response();
+            }
+            status.syncDatabase = true;
+        }
+        return refresh(sessionId, status);
+    }
+
+    /**
+     * Algo mudou no workspace da sessão: o status é recalculado depois do debounce e as
+     * diferenças publicadas. Invalidações seguidas juntam-se num só recálculo.
+     * @param syncDatabase o disco pode estar atrás do banco (eventos da árvore)
+     */
+    public void invalidate(String sessionId, boolean syncDatabase) {
+        invalidations.incrementAndGet();
+        SessionStatus status = sessions.get(sessionId);
+        if (status == null) {
+            // sem cache: só vale a pena se houver repositório para o painel mostrar
+            try {
+                if (!gitService.hasRepository(sessionId)) return;
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+            status = sessions.computeIfAbsent(sessionId, k -> new SessionStatus());
+        }
+        synchronized (status) {
+            status.stale = true;
+            status.syncDatabase |= syncDatabase;
+            status.lastUsed = System.currentTimeMillis();
+            if (status.scheduled) {
+                coalesced.incrementAndGet();
+                return;
+            }
+            status.scheduled = true;
+        }
+        SessionStatus target = status;
+        refresher.schedule(() -> {
+            synchronized (target) {
+                target.scheduled = false;
+            }
+            try {
+                refresh(sessionId, target);
+            } catch (RuntimeException e) {
+                log.warn("Erro ao recalcular o status git da sessão {}: {}", sessionId, e.getMessage());
+            }
+        }, debounceMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Sessões sem pedidos nem eventos há mais de git.status.idle-minutes saem da cache
+    @Scheduled(fixedDelayString = "${git.status.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMs;
+        sessions.entrySet().removeIf(entry -> {
+            synchronized (entry.getValue()) {
+                return !entry.getValue().scheduled && entry.getValue().lastUsed < cutoff;
+            }
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requests", requests.get());
+        stats.put("cacheHits", cacheHits.get());
+        stats.put("invalidations", invalidations.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("recomputes", recomputes.get());
+        stats.put("deltasSent", deltasSent.get());
+        stats.put("snapshotsSent", snapshotsSent.get());
+        stats.put("cachedSessions", sessions.size());
+        return stats;
+    }
+
+    /**
+     * Recalcula o status (um recálculo de cada vez por sessão), atualiza a cache e publica o que
+     * mudou em relação à versão anterior.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> refresh(String sessionId, SessionStatus status) {
+        synchronized (status.computeLock) {
+            boolean syncDatabase;
+            synchronized (status) {
+                // outro pedido pode ter recalculado enquanto este esperava
+                if (status.isFresh(maxAgeMs) && !status.syncDatabase) return status.response();
+                syncDatabase = status.syncDatabase;
+                status.stale = false;
+                status.syncDatabase = false;
+            }
+
+            recomputes.incrementAndGet();
+            Map<String, Object> result = gitService.getStatus(sessionId, syncDatabase);
+            if (result.containsKey("error")) {
+                synchronized (status) {
+                    status.stale = true;
+                }
+                return result;
+            }
+
+            boolean initialized = Boolean.TRUE.equals(result.get("initialized"));
+            Map<String, Map<String, String>> files = new LinkedHashMap<>();
+            for (Map<String, String> file : (List<Map<String, String>>) result.get("files")) {
+                files.put(file.get("path"), file);
+            }
+
+            GitStatusMessage message;
+            Map<String, Object> response;
+            synchronized (status) {
+                message = status.update(initialized, files);
+                response = status.response();
+            }
+            if (message != null) {
+                if (message.getType() == GitStatusMessage.Type.SNAPSHOT) {
+                    snapshotsSent.incrementAndGet();
+                } else {
+                    deltasSent.incrementAndGet();
+                }
+                messagingService.convertAndSend("/topic/git/" + sessionId, message);
+            }
+            return response;
+        }
+    }
+
+    private static final class SessionStatus {
+        final Object computeLock = new Object();
+        // Distingue este status do de outro nó, ou do desta sessão antes de sair da cache
+        final String epoch = UUID.randomUUID().toString();
+        boolean computed;
+        boolean stale;
+        boolean syncDatabase;
+        boolean scheduled;
+        long computedAt;
+        long lastUsed;
+        long version;
+        boolean initialized;
+        Map<String, Map<String, String>> files = Map.of();
+
+        boolean isFresh(long maxAgeMs) {
+            return computed && !stale && (maxAgeMs <= 0 || System.currentTimeMillis() - computedAt < maxAgeMs);
+        }
+
+        /** Guarda o novo status; devolve a mensagem a publicar, ou null se nada mudou. */
+        GitStatusMessage update(boolean nowInitialized, Map<String, Map<String, String>> nowFiles) {
+            boolean first = !computed;
+            computed = true;
+            computedAt = System.currentTimeMillis();
+
+            if (first || nowInitialized != initialized) {
+                initialized = nowInitialized;
+                files = nowFiles;
+                long base = version++;
+                return new GitStatusMessage(GitStatusMessage.Type.SNAPSHOT, epoch, base, version, initialized,
+                        new ArrayList<>(nowFiles.values()), List.of());
+            }
+
+            List<Map<String, String>> changed = new ArrayList<>();
+            for (Map.Entry<String, Map<String, String>> entry : nowFiles.entrySet()) {
+                if (!Objects.equals(files.get(entry.getKey()), entry.getValue())) changed.add(entry.getValue());
+            }
+            List<String> removed = new ArrayList<>();
+            for (String path : files.keySet()) {
+                if (!nowFiles.containsKey(path)) removed.add(path);
+            }
+            files = nowFiles;
+            if (changed.isEmpty() && removed.isEmpty()) return null;
+            long base = version++;
+            return new GitStatusMessage(GitStatusMessage.Type.DELTA, epoch, base, version, initialized, changed, removed);
+        }
+
+        Map<String, Object> response() {
+            return Map.of("initialized", initialized, "files", new ArrayList<>(files.values()),
+                    "epoch", epoch, "version", version);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.codesync.syncservice.service;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ListBranchCommand;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.util.RelativeDateFormatter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Leituras em processo com JGit, sem lançar um processo git por pedido. O {@link Repository}
+ * de cada sessão fica aberto num LRU limitado; cada leitura segura uma referência
+ * ({@code incrementOpen}/{@code close}), por isso um repositório despejado ou invalidado só
+ * fecha de facto quando a última leitura em curso acaba.
+ */
+final class JGitBackend implements GitBackend {
+
+    static final String NAME = "jgit";
+
+    private final Map<Path, Repository> repositories;
+
+    JGitBackend(int maxOpenRepositories) {
+        this.repositories = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Repository> eldest) {
+                if (size() <= maxOpenRepositories) return false;
+                eldest.getValue().close();
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public List<StatusEntry> status(Path repoDir) throws Exception {
+        try (Repository repo = acquire(repoDir)) {
+            Status status = Git.wrap(repo).status().call();
+            // XY como no porcelain: X = index vs HEAD, Y = worktree vs index
+            Map<String, char[]> codes = new TreeMap<>();
+            mark(codes, status.getAdded(), 0, 'A');
+            mark(codes, status.getChanged(), 0, 'M');
+            mark(codes, status.getRemoved(), 0, 'D');
+            mark(codes, status.getModified(), 1, 'M');
+            mark(codes, status.getMissing(), 1, 'D');
+            for (String path : status.getConflicting()) {
+                codes.put(path, new char[]{'U', 'U'});
+            }
+            for (String path : status.getUntracked()) {
+                codes.put(path, new char[]{'?', '?'});
+            }
+
+            List<StatusEntry> entries = new ArrayList<>(codes.size());
+            for (Map.Entry<String, char[]> entry : codes.entrySet()) {
+                entries.add(new StatusEntry(new String(entry.getValue()).trim(), entry.getKey()));
+            }
+            return entries;
+        }
+    }
+
+    private static void mark(Map<String, char[]> codes, Collection<String> paths, int column, char code) {
+        for (String path : paths) {
+            codes.computeIfAbsent(path, k -> new char[]{' ', ' '})[column] = code;
+        }
+    }
+
+    @Override
+    public String diff(Path repoDir, String path, boolean staged) throws Exception {
+        try (Repository repo = acquire(repoDir)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (DiffFormatter formatter = new DiffFormatter(out);
+                 ObjectReader reader = repo.newObjectReader()) {
+                formatter.setRepository(repo);
+                if (path != null) {
+                    formatter.setPathFilter(PathFilter.create(path));
+                }
+                List<DiffEntry> entries;
+                if (staged) {
+                    ObjectId headTree = repo.resolve(Constants.HEAD + "^{tree}");
+                    AbstractTreeIterator head = headTree != null
+                            ? new CanonicalTreeParser(null, reader, headTree)
+                            : new EmptyTreeIterator();
+                    entries = formatter.scan(head, new DirCacheIterator(repo.readDirCache()));
+                } else {
+                    // index vs worktree: os ADD são ficheiros por seguir, que o git diff não mostra
+                    entries = formatter.scan(new DirCacheIterator(repo.readDirCache()), new FileTreeIterator(repo));
+                    entries.removeIf(entry -> entry.getChangeType() == DiffEntry.ChangeType.ADD);
+                }
+                formatter.format(entries);
+            }
+            return out.toString(StandardCharsets.UTF_8).stripTrailing();
+        }
+    }
+
+    @Override
+    public List<CommitInfo> log(Path repoDir, int limit) throws Exception {
+        try (Repository repo = acquire(repoDir)) {
+            List<CommitInfo> commits = new ArrayList<>();
+            if (repo.resolve(Constants.HEAD) == null) {
+                return commits; // ainda sem commits
+            }
+            try (ObjectReader reader = repo.newObjectReader()) {
+                for (RevCommit commit : Git.wrap(repo).log().setMaxCount(limit).call()) {
+                    PersonIdent author = commit.getAuthorIdent();
+                    commits.add(new CommitInfo(
+                            commit.getName(),
+                            reader.abbreviate(commit, 7).name(),
+                            author.getName(),
+                            author.getEmailAddress(),
+                            RelativeDateFormatter.format(author.getWhen()),
+                            commit.getShortMessage()));
+                }
+            }
+            return commits;
+        }
+    }
+
+    @Override
+    public Branches branches(Path repoDir) throws Exception {
+        try (Repository repo = acquire(repoDir)) {
+            String fullBranch = repo.getFullBranch();
+            boolean detached = fullBranch == null || !fullBranch.startsWith(Constants.R_HEADS);
+            String current = detached ? "" : Repository.shortenRefName(fullBranch);
+
+            // nomes como no git branch -a
+            List<String> all = new ArrayList<>();
+            ObjectId head = detached ? repo.resolve(Constants.HEAD) : null;
+            if (head != null) {
+                all.add("(HEAD detached at " + head.abbreviate(7).name() + ")");
+            }
+            for (Ref ref : Git.wrap(repo).branchList().setListMode(ListBranchCommand.ListMode.ALL).call()) {
+                String name = ref.getName().startsWith(Constants.R_REMOTES)
+                        ? "remotes/" + ref.getName().substring(Constants.R_REMOTES.length())
+                        : Repository.shortenRefName(ref.getName());
+                if (ref.isSymbolic()) {
+                    name += " -> " + Repository.shortenRefName(ref.getTarget().getName());
+                }
+                if (!all.contains(name)) {
+                    all.add(name);
+                }
+            }
+            return new Branches(current, all);
+        }
+    }
+
+    @Override
+    public void invalidate(Path repoDir) {
+        Repository repo;
+        synchronized (repositories) {
+            repo = repositories.remove(repoDir);
+        }
+        if (repo != null) repo.close();
+    }
+
+    int openRepositories() {
+        synchronized (repositories) {
+            return repositories.size();
+        }
+    }
+
+    void closeAll() {
+        synchronized (repositories) {
+            repositories.values().forEach(Repository::close);
+            repositories.clear();
+        }
+    }
+
+    /** Repositório em cache com mais uma referência aberta; fechar depois de usar. */
+    private Repository acquire(Path repoDir) throws Exception {
+        synchronized (repositories) {
+            Repository repo = repositories.get(repoDir);
+            if (repo == null) {
+                repo = new FileRepositoryBuilder()
+                        .setWorkTree(repoDir.toFile())
+                        .setMustExist(true)
+                        .build();
+                repositories.put(repoDir, repo);
+            }
+            repo.incrementOpen();
+            return repo;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.codesync.syncservice.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latências com buckets fixos (ms). Os percentis são estimados pelo limite
+ * superior do bucket onde caem, o que chega para ver a cauda sem guardar amostras.
+ */
+final class LatencyHistogram {
+
+    private static final long[] BOUNDS_MS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_MS.length + 1];
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    void record(long nanos, boolean error) {
+        long ms = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int i = 0;
+        while (i < BOUNDS_MS.length && ms > BOUNDS_MS[i]) i++;
+        buckets[i].increment();
+        if (error) errors.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    Map<String, Object> snapshot() {
+        long[] counts = new long[buckets.length];
+        long n = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("count", n);
+        stats.put("errors", errors.sum());
+        stats.put("avgMs", n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / n));
+        stats.put("p50Ms", percentile(counts, n, 0.50));
+        stats.put("p95Ms", percentile(counts, n, 0.95));
+        stats.put("p99Ms", percentile(counts, n, 0.99));
+        stats.put("maxMs", TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            histogram.put(i < BOUNDS_MS.length ? "le" + BOUNDS_MS[i] : "gt" + BOUNDS_MS[BOUNDS_MS.length - 1], counts[i]);
+        }
+        stats.put("buckets", histogram);
+        return stats;
+    }
+
+    // Limite superior do bucket, sem passar do máximo observado
+    private long percentile(long[] counts, long n, double p) {
+        long maxMs = TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(n * p);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(BOUNDS_MS[i], maxMs);
+        }
+        return maxMs;
+    }
+}
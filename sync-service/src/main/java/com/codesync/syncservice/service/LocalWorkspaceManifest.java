@@ -0,0 +1,137 @@
+package com.codesync.syncservice.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Estado da última sincronização banco -> disco de uma sessão: o manifesto do session-service
+ * (caminho -> SHA-256 do conteúdo, com o ETag que o identifica) e, por ficheiro em disco, o
+ * tamanho/mtime em que o seu hash foi calculado. Um ficheiro cujo tamanho e mtime não mudaram
+ * não volta a ser lido.
+ */
+final class LocalWorkspaceManifest {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalWorkspaceManifest.class);
+
+    private record FileStamp(long size, FileTime modified, String hash) {
+    }
+
+    /** Resultado de {@link #reconcile}: ficheiros a pedir ao session-service e ficheiros apagados. */
+    record Plan(Set<String> toFetch, int deleted) {
+    }
+
+    private String etag;
+    private Map<String, String> remote = Map.of();
+    private final Map<String, FileStamp> local = new HashMap<>();
+    // Último uso pelo GitService, para a varredura de sessões inativas
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    String etag() {
+        return etag;
+    }
+
+    /** Hash do ficheiro no banco segundo o último manifesto (null se não existir). */
+    String remoteHash(String relativePath) {
+        return remote.get(relativePath);
+    }
+
+    Set<String> remotePaths() {
+        return remote.keySet();
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    long lastUsed() {
+        return lastUsed;
+    }
+
+    void updateRemote(String etag, Map<String, String> files) {
+        this.etag = etag;
+        this.remote = files;
+    }
+
+    /**
+     * Compara o disco com o manifesto remoto: ficheiros que não estão no manifesto são apagados
+     * (e as pastas que ficarem vazias), os que faltam ou têm outro hash vão para
+     * {@link Plan#toFetch}. O diretório .git é ignorado.
+     */
+    Plan reconcile(Path sessionDir) throws IOException {
+        Set<String> toFetch = new TreeSet<>(remote.keySet());
+        int[] deleted = {0};
+        scan(sessionDir, sessionDir, toFetch, deleted);
+        local.keySet().retainAll(remote.keySet());
+        return new Plan(toFetch, deleted[0]);
+    }
+
+    /** Regista um ficheiro acabado de escrever a partir do banco. */
+    void recordWritten(Path file, String relativePath, byte[] content) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        local.put(relativePath, new FileStamp(attrs.size(), attrs.lastModifiedTime(), sha256(content)));
+    }
+
+    private void scan(Path baseDir, Path dir, Set<String> toFetch, int[] deleted) throws IOException {
+        List<Path> children;
+        try (Stream<Path> stream = Files.list(dir)) {
+            children = stream.collect(Collectors.toList());
+        }
+        for (Path p : children) {
+            if (Files.isDirectory(p)) {
+                if (p.getFileName().toString().equals(".git")) {
+                    continue; // Ignorar diretório administrativo do Git
+                }
+                scan(baseDir, p, toFetch, deleted);
+                try (Stream<Path> emptyCheck = Files.list(p)) {
+                    if (emptyCheck.findAny().isEmpty()) Files.delete(p);
+                }
+                continue;
+            }
+            String relativePath = baseDir.relativize(p).toString().replace("\\", "/");
+            String remoteHash = remote.get(relativePath);
+            if (remoteHash == null) {
+                Files.delete(p);
+                local.remove(relativePath);
+                deleted[0]++;
+                log.info("Ficheiro órfão local deletado em sincronia com o banco: {}", relativePath);
+            } else if (remoteHash.equals(localHash(p, relativePath))) {
+                toFetch.remove(relativePath);
+            }
+        }
+    }
+
+    private String localHash(Path file, String relativePath) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        FileStamp stamp = local.get(relativePath);
+        if (stamp != null && stamp.size() == attrs.size() && stamp.modified().equals(attrs.lastModifiedTime())) {
+            return stamp.hash();
+        }
+        String hash = sha256(Files.readAllBytes(file));
+        local.put(relativePath, new FileStamp(attrs.size(), attrs.lastModifiedTime(), hash));
+        return hash;
+    }
+
+    static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.codesync.syncservice.service;
+
+import com.pty4j.PtyProcess;
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.WinSize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bash PTYs arrancados antes de serem precisos. Cada um corre o rcfile do pool, que desliga o
+ * echo, escreve {@link #READY_MARKER} e fica bloqueado num {@code read} à espera da diretoria da
+ * sessão; {@link #take} escreve essa diretoria e o rcfile faz {@code cd}, define HOME/prompt e
+ * limpa o ecrã ({@code ESC c}), tal como o .bashrc de um arranque a frio. O pool é reposto em
+ * background depois de cada {@link #take}.
+ */
+final class PtyPrewarmPool {
+
+    private static final Logger log = LoggerFactory.getLogger(PtyPrewarmPool.class);
+
+    static final String READY_MARKER = "__teamcode_pty_ready__";
+
+    // Com ponto no nome: nenhum sessionId válido aponta para esta diretoria
+    private static final Path POOL_DIR = Paths.get("/tmp", ".teamcode-pty-pool");
+
+    private static final String RCFILE =
+            "stty -echo\n" +
+            "printf '%s' '" + READY_MARKER + "'\n" +
+            "IFS= read -r TEAMCODE_WORKDIR\n" +
+            "stty echo\n" +
+            "cd \"$TEAMCODE_WORKDIR\" || exit 1\n" +
+            "export HOME=\"$TEAMCODE_WORKDIR\" HISTFILE=\"$TEAMCODE_WORKDIR/.bash_history\"\n" +
+            "unset TEAMCODE_WORKDIR\n" +
+            TerminalService.BASHRC_BODY;
+
+    private final int size;
+    private final Map<String, String> env;
+    private final BlockingQueue<PtyProcess> ready = new LinkedBlockingQueue<>();
+    private final AtomicInteger spawning = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final ExecutorService spawner = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "pty-prewarm");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean closed;
+
+    PtyPrewarmPool(int size, Map<String, String> env) {
+        this.size = size;
+        this.env = env;
+    }
+
+    void start() {
+        if (size <= 0) return;
+        try {
+            Files.createDirectories(POOL_DIR);
+            Files.write(POOL_DIR.resolve(".bashrc"), RCFILE.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            log.warn("PTY pre-warm pool disabled: {}", e.getMessage());
+            closed = true;
+            return;
+        }
+        refill();
+    }
+
+    /**
+     * Liga um PTY pronto à diretoria da sessão, ou devolve null se o pool estiver vazio
+     * (o chamador arranca então um a frio).
+     */
+    PtyProcess take(Path workDir, int cols, int rows) {
+        if (closed) return null;
+        PtyProcess pty;
+        while ((pty = ready.poll()) != null) {
+            if (!pty.isAlive()) continue;
+            try {
+                pty.setWinSize(new WinSize(cols, rows));
+                OutputStream in = pty.getOutputStream();
+                in.write((workDir + "\n").getBytes(StandardCharsets.UTF_8));
+                in.flush();
+                hits.incrementAndGet();
+                return pty;
+            } catch (IOException e) {
+                pty.destroyForcibly();
+            } finally {
+                refill();
+            }
+        }
+        misses.incrementAndGet();
+        refill();
+        return null;
+    }
+
+    int ready() {
+        return ready.size();
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    void close() {
+        closed = true;
+        spawner.shutdownNow();
+        PtyProcess pty;
+        while ((pty = ready.poll()) != null) {
+            pty.destroyForcibly();
+        }
+    }
+
+    private void refill() {
+        while (!closed && ready.size() + spawning.get() < size) {
+            spawning.incrementAndGet();
+            spawner.execute(() -> {
+                try {
+                    PtyProcess pty = spawn();
+                    if (pty == null) return;
+                    if (closed) pty.destroyForcibly();
+                    else ready.add(pty);
+                } finally {
+                    spawning.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    private PtyProcess spawn() {
+        PtyProcess pty = null;
+        try {
+            pty = new PtyProcessBuilder()
+                    .setCommand(new String[]{"/bin/bash", "--rcfile", POOL_DIR.resolve(".bashrc").toString(), "-i"})
+                    .setEnvironment(env)
+                    .setDirectory(POOL_DIR.toString())
+                    .setInitialColumns(80)
+                    .setInitialRows(24)
+                    .setConsole(false)
+                    .start();
+            // Consome o arranque até ao marcador; o resto do stream é da sessão que o receber
+            InputStream out = pty.getInputStream();
+            StringBuilder seen = new StringBuilder();
+            int b;
+            while ((b = out.read()) != -1) {
+                seen.append((char) b);
+                if (seen.indexOf(READY_MARKER) >= 0) return pty;
+            }
+            log.warn("Pre-warmed PTY exited before becoming ready");
+        } catch (IOException e) {
+            log.warn("Failed to pre-warm PTY: {}", e.getMessage());
+        }
+        if (pty != null) pty.destroyForcibly();
+        return null;
+    }
+}
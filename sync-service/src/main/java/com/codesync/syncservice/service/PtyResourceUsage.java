@@ -0,0 +1,53 @@
+package com.codesync.syncservice.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CPU e memória de um terminal lidos de /proc: o bash do PTY mais todos os descendentes
+ * (o que o utilizador estiver a correr). Fora de Linux, ou para processos que já terminaram,
+ * os valores ficam a zero.
+ */
+record PtyResourceUsage(int processes, double cpuSeconds, long rssKb) {
+
+    // USER_HZ; é 100 em praticamente todos os kernels Linux
+    private static final double CLOCK_TICKS_PER_SECOND = 100.0;
+
+    static PtyResourceUsage of(long pid) {
+        List<Long> pids = new ArrayList<>();
+        pids.add(pid);
+        ProcessHandle.of(pid).ifPresent(h -> h.descendants().forEach(d -> pids.add(d.pid())));
+
+        int processes = 0;
+        long ticks = 0;
+        long rssKb = 0;
+        for (long p : pids) {
+            try {
+                ticks += cpuTicks(Files.readString(Path.of("/proc", Long.toString(p), "stat")));
+                rssKb += rssKb(Files.readAllLines(Path.of("/proc", Long.toString(p), "status")));
+                processes++;
+            } catch (IOException | RuntimeException e) {
+                // o processo terminou entretanto (ou não há /proc)
+            }
+        }
+        return new PtyResourceUsage(processes, ticks / CLOCK_TICKS_PER_SECOND, rssKb);
+    }
+
+    // utime e stime são os campos 14 e 15; o nome (campo 2) pode ter espaços, por isso conta-se a partir do ')'
+    private static long cpuTicks(String stat) {
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        return Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+    }
+
+    private static long rssKb(List<String> status) {
+        for (String line : status) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.substring(6).trim().split("\\s+")[0]);
+            }
+        }
+        return 0; // zombies/kernel threads não têm VmRSS
+    }
+}
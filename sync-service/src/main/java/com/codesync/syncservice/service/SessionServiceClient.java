@@ -0,0 +1,172 @@
+package com.codesync.syncservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cliente HTTP único do sync-service para o session-service. Um só {@link HttpClient}
+ * (pool de ligações, HTTP/2 quando o servidor o aceita, executor de {@code io.threads}),
+ * timeouts configuráveis e gzip: corpos JSON acima de {@code session-service.gzip-min-bytes}
+ * seguem comprimidos e as respostas são pedidas com Accept-Encoding: gzip. Um session-service
+ * anterior ao filtro de gzip responde 400/415 a um corpo comprimido sem o cabeçalho
+ * {@value #GZIP_FILTER_HEADER}: o pedido é repetido sem compressão e, se esse passar, o gzip
+ * fica desligado até ao próximo arranque. Com o cabeçalho o 400 veio do próprio pedido (corpo
+ * acima do limite descomprimido, JSON inválido) e é devolvido tal como está. Cada chamada é
+ * contada num histograma de latência por endpoint (ver /metrics/session-client).
+ */
+@Service
+public class SessionServiceClient {
+
+    /** Resposta já descomprimida. */
+    public record Response(int statusCode, String body, HttpHeaders headers) {
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(SessionServiceClient.class);
+
+    // Posto pelo GzipRequestFilter do session-service em todas as respostas a corpos em gzip
+    static final String GZIP_FILTER_HEADER = "X-Gzip-Request";
+
+    private final ObjectMapper objectMapper;
+    private final HttpClient client;
+    private final String baseUrl;
+    private final Duration requestTimeout;
+    private final int gzipMinBytes;
+    private volatile boolean gzipRejected;
+    private final AtomicLong gzipFallbacks = new AtomicLong();
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    public SessionServiceClient(ObjectMapper objectMapper,
+                                @Value("${session-service.url:http://session-service:8080}") String baseUrl,
+                                @Value("${session-service.connect-timeout-ms:2000}") long connectTimeoutMs,
+                                @Value("${session-service.request-timeout-ms:10000}") long requestTimeoutMs,
+                                @Value("${session-service.http-version:HTTP_2}") String httpVersion,
+                                @Value("${session-service.gzip-min-bytes:8192}") int gzipMinBytes,
+                                @Value("${io.threads:platform}") String threadMode) {
+        this.objectMapper = objectMapper;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        this.gzipMinBytes = gzipMinBytes;
+        // Em http:// o HTTP/2 é tentado com upgrade h2c e fica em HTTP/1.1 se o servidor não o aceitar
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.valueOf(httpVersion))
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .executor(BlockingIoExecutors.create(threadMode, "session-client"))
+                .build();
+    }
+
+    /**
+     * GET {@code path} (relativo a session-service.url).
+     * @param endpoint nome do endpoint nas métricas
+     * @param headers  pares nome/valor extra (ex.: If-None-Match)
+     */
+    public Response get(String endpoint, String path, String... headers) throws IOException, InterruptedException {
+        HttpRequest.Builder request = newRequest(path, requestTimeout).GET();
+        if (headers.length > 0) request.headers(headers);
+        return send(endpoint, request);
+    }
+
+    /** {@code method} (POST/PUT) com {@code body} serializado em JSON. */
+    public Response sendJson(String endpoint, String method, String path, Object body)
+            throws IOException, InterruptedException {
+        return sendJson(endpoint, method, path, body, requestTimeout);
+    }
+
+    /** Como {@link #sendJson(String, String, String, Object)}, com outro timeout (ex.: árvore completa). */
+    public Response sendJson(String endpoint, String method, String path, Object body, Duration timeout)
+            throws IOException, InterruptedException {
+        byte[] json = objectMapper.writeValueAsBytes(body);
+        if (gzipRejected || gzipMinBytes < 0 || json.length < gzipMinBytes) {
+            return send(endpoint, jsonRequest(method, path, json, timeout));
+        }
+        Response response = send(endpoint, jsonRequest(method, path, gzip(json), timeout)
+                .header("Content-Encoding", "gzip"));
+        if (response.statusCode() != 400 && response.statusCode() != 415) return response;
+        if (response.headers().firstValue(GZIP_FILTER_HEADER).isPresent()) return response;
+
+        // session-service sem o filtro de gzip: repete sem compressão
+        gzipFallbacks.incrementAndGet();
+        Response plain = send(endpoint, jsonRequest(method, path, json, timeout));
+        if (plain.statusCode() != 400 && plain.statusCode() != 415 && !gzipRejected) {
+            gzipRejected = true;
+            log.warn("session-service rejeitou um corpo de pedido em gzip ({}); os próximos seguem sem compressão",
+                    response.statusCode());
+        }
+        return plain;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("httpVersion", client.version().name());
+        stats.put("gzipMinBytes", gzipMinBytes);
+        stats.put("gzipRejected", gzipRejected);
+        stats.put("gzipFallbacks", gzipFallbacks.get());
+        Map<String, Object> endpoints = new TreeMap<>();
+        latencies.forEach((name, histogram) -> endpoints.put(name, histogram.snapshot()));
+        stats.put("endpoints", endpoints);
+        return stats;
+    }
+
+    private HttpRequest.Builder newRequest(String path, Duration timeout) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + path))
+                .timeout(timeout)
+                .header("Accept-Encoding", "gzip");
+    }
+
+    private HttpRequest.Builder jsonRequest(String method, String path, byte[] body, Duration timeout) {
+        return newRequest(path, timeout)
+                .header("Content-Type", "application/json")
+                .method(method, HttpRequest.BodyPublishers.ofByteArray(body));
+    }
+
+    private Response send(String endpoint, HttpRequest.Builder request) throws IOException, InterruptedException {
+        LatencyHistogram histogram = latencies.computeIfAbsent(endpoint, k -> new LatencyHistogram());
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+            String body = readBody(response);
+            error = response.statusCode() >= 500;
+            return new Response(response.statusCode(), body, response.headers());
+        } finally {
+            histogram.record(System.nanoTime() - start, error);
+        }
+    }
+
+    private static String readBody(HttpResponse<InputStream> response) throws IOException {
+        boolean gzipped = response.headers().firstValue("Content-Encoding")
+                .map(v -> v.equalsIgnoreCase("gzip")).orElse(false);
+        try (InputStream in = gzipped ? new GZIPInputStream(response.body()) : response.body()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(data);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,123 @@
+package com.codesync.syncservice.service;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Output de um PTY a caminho do tópico do terminal. Os bytes lidos são descodificados em UTF-8
+ * guardando as sequências incompletas para a leitura seguinte, acumulados e enviados numa só
+ * frame quando chegam a {@code maxFrameChars} ou quando passa {@code flushIntervalMs} desde o
+ * primeiro byte pendente. {@link #write} bloqueia a thread leitora quando a sessão excede o
+ * débito máximo, o que trava o processo através do buffer do próprio PTY.
+ */
+final class TerminalOutputPipeline {
+
+    private final Consumer<String> sink;
+    private final ScheduledExecutorService scheduler;
+    private final long flushIntervalMs;
+    private final int maxFrameChars;
+    private final long maxBytesPerSec;
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer pendingBytes = ByteBuffer.allocate(8192);
+    private final CharBuffer decoded = CharBuffer.allocate(8192);
+    private final StringBuilder frame = new StringBuilder();
+    private boolean flushScheduled;
+
+    // Token bucket do débito (bytes); começa cheio para não atrasar rajadas curtas
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    TerminalOutputPipeline(Consumer<String> sink, ScheduledExecutorService scheduler,
+                           long flushIntervalMs, int maxFrameChars, long maxBytesPerSec) {
+        this.sink = sink;
+        this.scheduler = scheduler;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxFrameChars = maxFrameChars;
+        this.maxBytesPerSec = maxBytesPerSec;
+        this.tokens = maxBytesPerSec;
+    }
+
+    /** Chamado pela thread leitora do PTY. */
+    void write(byte[] buffer, int length) throws InterruptedException {
+        throttle(length);
+        synchronized (this) {
+            int offset = 0;
+            while (offset < length) {
+                int n = Math.min(pendingBytes.remaining(), length - offset);
+                pendingBytes.put(buffer, offset, n);
+                offset += n;
+                decode(false);
+            }
+            if (frame.length() >= maxFrameChars) {
+                flush();
+            } else if (frame.length() > 0 && !flushScheduled) {
+                flushScheduled = true;
+                scheduler.schedule(this::flush, flushIntervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /** Fim do stream: envia o que faltar, incluindo bytes de uma sequência UTF-8 truncada. */
+    synchronized void close() {
+        decode(true);
+        decoder.flush(decoded);
+        drainDecoded();
+        flush();
+    }
+
+    /** Executa {@code action} sem nenhuma frame a ser enviada em simultâneo. */
+    synchronized void runExclusive(Runnable action) {
+        action.run();
+    }
+
+    synchronized void flush() {
+        flushScheduled = false;
+        if (frame.length() == 0) return;
+        String out = frame.toString();
+        frame.setLength(0);
+        // enviado sob o lock para as frames saírem pela ordem em que foram lidas
+        sink.accept(out);
+    }
+
+    private void decode(boolean endOfInput) {
+        pendingBytes.flip();
+        CoderResult result;
+        do {
+            result = decoder.decode(pendingBytes, decoded, endOfInput);
+            drainDecoded();
+        } while (result.isOverflow());
+        // o que sobra é o início de uma sequência que continua na próxima leitura
+        pendingBytes.compact();
+    }
+
+    private void drainDecoded() {
+        decoded.flip();
+        frame.append(decoded);
+        decoded.clear();
+    }
+
+    private void throttle(int bytes) throws InterruptedException {
+        if (maxBytesPerSec <= 0) return;
+        while (true) {
+            long now = System.nanoTime();
+            tokens = Math.min(maxBytesPerSec, tokens + (now - lastRefillNanos) * maxBytesPerSec / 1e9);
+            lastRefillNanos = now;
+            if (tokens >= bytes || tokens >= maxBytesPerSec) {
+                tokens -= bytes;
+                return;
+            }
+            long waitNanos = (long) ((bytes - tokens) * 1e9 / maxBytesPerSec);
+            TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 1_000_000));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.codesync.syncservice.service;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Últimos {@code capacity} bytes (UTF-8) do output de um terminal, num buffer circular de tamanho
+ * fixo, para repor o ecrã a quem entra ou volta a ligar-se.
+ */
+final class TerminalScrollback {
+
+    private final byte[] ring;
+    private long written;
+
+    TerminalScrollback(int capacity) {
+        this.ring = new byte[capacity];
+    }
+
+    synchronized void append(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int from = Math.max(0, bytes.length - ring.length); // só cabe o fim
+        int pos = (int) ((written + from) % ring.length);
+        int n = bytes.length - from;
+        int first = Math.min(n, ring.length - pos);
+        System.arraycopy(bytes, from, ring, pos, first);
+        System.arraycopy(bytes, from + first, ring, 0, n - first);
+        written += bytes.length;
+    }
+
+    synchronized String snapshot() {
+        int size = (int) Math.min(written, ring.length);
+        byte[] out = new byte[size];
+        int start = (int) ((written - size) % ring.length);
+        int first = Math.min(size, ring.length - start);
+        System.arraycopy(ring, start, out, 0, first);
+        System.arraycopy(ring, 0, out, first, size - first);
+        // o início pode ter ficado a meio de um carácter: salta os bytes de continuação
+        int skip = 0;
+        while (skip < size && skip < 3 && (out[skip] & 0xC0) == 0x80) skip++;
+        return new String(out, skip, size - skip, StandardCharsets.UTF_8);
+    }
+}
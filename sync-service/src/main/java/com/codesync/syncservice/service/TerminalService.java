@@ -3,8 +3,12 @@ package com.codesync.syncservice.service;
 import com.pty4j.PtyProcess;
 import com.pty4j.PtyProcessBuilder;
 import com.pty4j.WinSize;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
@@ -14,11 +18,20 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 @Service
@@ -29,16 +42,82 @@ public class TerminalService {
     // Security: validate sessionId to prevent path traversal
     private static final Pattern SESSION_ID_PATTERN = Pattern.compile("^[a-zA-Z0-9_\\-]{1,64}$");
 
-    // Security: maximum number of concurrent terminal sessions
-    private static final int MAX_CONCURRENT_TERMINALS = 20;
-
     private final com.codesync.syncservice.config.RedisRelayConfig.ScalableMessagingService messagingService;
     private final Map<String, PtyProcess> activeProcesses = new ConcurrentHashMap<>();
     private final Map<String, OutputStream> processWriters = new ConcurrentHashMap<>();
-    private final ExecutorService processExecutor = Executors.newCachedThreadPool();
+    private final Map<String, TerminalOutputPipeline> outputs = new ConcurrentHashMap<>();
+    private final Map<String, TerminalScrollback> scrollbacks = new ConcurrentHashMap<>();
+    // Último input ou output de cada terminal (System.nanoTime), para o reaper
+    private final Map<String, Long> lastActivity = new ConcurrentHashMap<>();
+    // Uma thread de plataforma por terminal, bloqueada no read() nativo do PTY (nunca virtual:
+    // a chamada JNA prenderia a carrier thread)
+    private final ExecutorService processExecutor;
+    // Security: maximum number of concurrent terminal sessions
+    private final int maxConcurrentTerminals;
+    // Terminais a correr ou a arrancar; reservado antes do spawn para o limite valer entre sessões
+    private final AtomicInteger terminalSlots = new AtomicInteger();
+    // Arranques da mesma sessão são serializados; sessões diferentes arrancam em paralelo
+    private final Object[] startLocks = new Object[64];
+    // Contado quando o rcfile limpa o ecrã (ESC c): a shell já lê comandos
+    private final Map<String, CountDownLatch> readiness = new ConcurrentHashMap<>();
+    private final PtyPrewarmPool prewarmPool;
+    // Flush temporizado das frames de output (partilhado por todos os terminais)
+    private final ScheduledExecutorService outputFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "terminal-output-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @Value("${terminal.output.flush-interval-ms:16}")
+    private long outputFlushIntervalMs;
+
+    @Value("${terminal.output.max-frame-chars:16384}")
+    private int outputMaxFrameChars;
+
+    // 0 = sem limite de débito
+    @Value("${terminal.output.max-bytes-per-sec:1048576}")
+    private long outputMaxBytesPerSec;
+
+    // 0 = sem scrollback
+    @Value("${terminal.scrollback-bytes:262144}")
+    private int scrollbackBytes;
+
+    private final AtomicLong outputReads = new AtomicLong();
+    private final AtomicLong outputBytes = new AtomicLong();
+    private final AtomicLong outputFrames = new AtomicLong();
+    private final AtomicLong reclaimed = new AtomicLong();
+
+    // Prompt e restrições comuns ao .bashrc a frio e ao rcfile do pool. Termina com ESC c:
+    // limpa a linha em branco que o bash emite com --rcfile e serve de sinal de pronto.
+    static final String BASHRC_BODY =
+            "export PS1='\\[\\033[1;32m\\]TeamCode\\[\\033[0m\\]:\\[\\033[1;34m\\]\\w\\[\\033[0m\\]\\$ '\n" +
+            "# Security: restrict dangerous commands\n" +
+            "alias rm='rm --preserve-root'\n" +
+            "readonly TMOUT=3600\n" + // Auto-logout after 1 hour of inactivity
+            "printf '\\033c'\n";
+
+    // 0 = nunca termina terminais inativos
+    @Value("${terminal.idle-timeout-minutes:30}")
+    private long idleTimeoutMinutes;
 
-    public TerminalService(com.codesync.syncservice.config.RedisRelayConfig.ScalableMessagingService messagingService) {
+    public TerminalService(com.codesync.syncservice.config.RedisRelayConfig.ScalableMessagingService messagingService,
+                           @Value("${terminal.max-concurrent:20}") int maxConcurrentTerminals,
+                           @Value("${terminal.prewarm.size:2}") int prewarmSize) {
         this.messagingService = messagingService;
+        this.processExecutor = BlockingIoExecutors.platform("pty-reader");
+        this.maxConcurrentTerminals = maxConcurrentTerminals;
+        this.prewarmPool = new PtyPrewarmPool(prewarmSize, ptyEnvironment());
+        for (int i = 0; i < startLocks.length; i++) startLocks[i] = new Object();
+    }
+
+    @PostConstruct
+    void startPrewarmPool() {
+        prewarmPool.start();
+    }
+
+    @PreDestroy
+    void stopPrewarmPool() {
+        prewarmPool.close();
     }
 
     /**
@@ -52,102 +131,171 @@ public class TerminalService {
 
     /**
      * Starts a real PTY-backed bash process for the given session.
+     * Takes a pre-warmed PTY from the pool when one is ready, otherwise spawns bash.
+     * Starts for different sessions run in parallel; use {@link #awaitReady} before
+     * typing into a terminal that was just started.
      * @param sessionId the session identifier
      * @param cols      initial terminal columns (default 80)
      * @param rows      initial terminal rows (default 24)
      */
-    public synchronized void startProcess(String sessionId, int cols, int rows) {
+    public void startProcess(String sessionId, int cols, int rows) {
         // Security: validate sessionId
         validateSessionId(sessionId);
 
-        if (activeProcesses.containsKey(sessionId)) {
-            return; // PTY process already running
-        }
-
-        // Security: limit concurrent terminals
-        if (activeProcesses.size() >= MAX_CONCURRENT_TERMINALS) {
-            log.warn("Maximum concurrent terminals reached ({}). Rejecting session {}.", MAX_CONCURRENT_TERMINALS, sessionId);
-            messagingService.convertAndSend("/topic/terminal/" + sessionId,
-                    "\r\n\u001b[31m[Erro: Limite máximo de terminais simultâneos atingido]\u001b[0m\r\n");
-            return;
-        }
-
-        try {
-            // Ensure the working directory exists and is under /tmp
-            Path workDir = Paths.get("/tmp", sessionId).toAbsolutePath().normalize();
-            if (!workDir.startsWith("/tmp")) {
-                throw new SecurityException("Path traversal detectado no sessionId");
+        synchronized (startLocks[Math.floorMod(sessionId.hashCode(), startLocks.length)]) {
+            if (activeProcesses.containsKey(sessionId)) {
+                return; // PTY process already running
             }
-            if (!Files.exists(workDir)) {
-                Files.createDirectories(workDir);
+
+            // Security: limit concurrent terminals
+            if (!reserveTerminalSlot()) {
+                log.warn("Maximum concurrent terminals reached ({}). Rejecting session {}.", maxConcurrentTerminals, sessionId);
+                messagingService.convertAndSend("/topic/terminal/" + sessionId,
+                        "\r\n\u001b[31m[Erro: Limite máximo de terminais simultâneos atingido]\u001b[0m\r\n");
+                return;
             }
 
-            // Write a .bashrc into the work dir to set the prompt.
-            // The 'printf "\033c"' at the end resets the terminal state so the
-            // blank line that bash emits on startup with --rcfile is cleared.
-            String bashrcContent =
-                "export PS1='\\[\\033[1;32m\\]TeamCode\\[\\033[0m\\]:\\[\\033[1;34m\\]\\w\\[\\033[0m\\]\\$ '\n" +
-                "printf '\\033c'\n" +
-                "# Security: restrict dangerous commands\n" +
-                "alias rm='rm --preserve-root'\n" +
-                "readonly TMOUT=3600\n"; // Auto-logout after 1 hour of inactivity
-
-            java.nio.file.Files.write(
-                    workDir.resolve(".bashrc"),
-                    bashrcContent.getBytes(java.nio.charset.StandardCharsets.UTF_8),
-                    java.nio.file.StandardOpenOption.CREATE,
-                    java.nio.file.StandardOpenOption.TRUNCATE_EXISTING);
-
-            // Build the PTY environment
-            Map<String, String> env = new HashMap<>(System.getenv());
-            env.put("TERM", "xterm-256color");
-            env.put("LANG", "en_US.UTF-8");
-            env.put("HOME", workDir.toString()); // HOME points to work dir so .bashrc is loaded
-            // Security: restricted PATH — only standard binaries
-            env.put("PATH", "/usr/local/sbin:/usr/local/bin:/usr/sbin:/usr/bin:/sbin:/bin");
-
-            // Launch bash in interactive mode loading our .bashrc
-            String[] command = {"/bin/bash", "--rcfile", workDir.resolve(".bashrc").toString(), "-i"};
-
-            PtyProcess pty = new PtyProcessBuilder()
-                    .setCommand(command)
-                    .setEnvironment(env)
-                    .setDirectory(workDir.toString())
-                    .setInitialColumns(cols > 0 ? cols : 80)
-                    .setInitialRows(rows > 0 ? rows : 24)
-                    .setConsole(false)
-                    .start();
-
-            activeProcesses.put(sessionId, pty);
-            processWriters.put(sessionId, pty.getOutputStream());
-
-            // Background thread: stream PTY output to WebSocket topic
-            processExecutor.submit(() -> {
-                try (InputStream stdout = pty.getInputStream()) {
-                    byte[] buffer = new byte[4096];
-                    int read;
-                    while ((read = stdout.read(buffer)) != -1) {
-                        String output = new String(buffer, 0, read, StandardCharsets.UTF_8);
-                        messagingService.convertAndSend("/topic/terminal/" + sessionId, output);
-                    }
-                } catch (IOException e) {
-                    // Process exited — normal flow
-                } finally {
-                    removeProcess(sessionId);
-                    // Notify frontend the process ended
-                    messagingService.convertAndSend("/topic/terminal/" + sessionId, "\r\n\u001b[0m\u001b[1;33m[Terminal encerrado]\u001b[0m\r\n");
+            PtyProcess pty = null;
+            try {
+                // Ensure the working directory exists and is under /tmp
+                Path workDir = Paths.get("/tmp", sessionId).toAbsolutePath().normalize();
+                if (!workDir.startsWith("/tmp")) {
+                    throw new SecurityException("Path traversal detectado no sessionId");
+                }
+                if (!Files.exists(workDir)) {
+                    Files.createDirectories(workDir);
                 }
-            });
 
-            log.info("PTY started for session {} ({}x{})", sessionId, cols, rows);
+                int initialCols = cols > 0 ? cols : 80;
+                int initialRows = rows > 0 ? rows : 24;
+                pty = prewarmPool.take(workDir, initialCols, initialRows);
+                boolean prewarmed = pty != null;
+                if (pty == null) {
+                    pty = spawnBash(workDir, initialCols, initialRows);
+                }
+                attach(sessionId, pty);
 
-        } catch (IOException e) {
-            log.error("Failed to start PTY for session {}: {}", sessionId, e.getMessage());
-            messagingService.convertAndSend("/topic/terminal/" + sessionId,
-                    "\r\n\u001b[31m[Erro ao iniciar terminal]\u001b[0m\r\n");
+                log.info("PTY started for session {} ({}x{}, {})", sessionId, cols, rows, prewarmed ? "pre-warmed" : "cold");
+
+            } catch (Exception e) {
+                // Any failure (IOException, SecurityException, the reader being rejected in
+                // attach) must give back the slot and the PTY taken for this session
+                if (pty != null && activeProcesses.get(sessionId) == pty) {
+                    removeProcess(sessionId, pty);
+                } else {
+                    terminalSlots.decrementAndGet();
+                    if (pty != null && pty.isAlive()) pty.destroyForcibly();
+                }
+                log.error("Failed to start PTY for session {}: {}", sessionId, e.getMessage());
+                messagingService.convertAndSend("/topic/terminal/" + sessionId,
+                        "\r\n\u001b[31m[Erro ao iniciar terminal]\u001b[0m\r\n");
+            }
         }
     }
 
+    /**
+     * Waits until the session's bash has run its rcfile and cleared the screen, so
+     * input sent afterwards is read by the interactive shell.
+     * @return false if there is no terminal or it did not get ready within the timeout
+     */
+    public boolean awaitReady(String sessionId, long timeoutMs) {
+        CountDownLatch ready = readiness.get(sessionId);
+        if (ready == null) return false;
+        try {
+            return ready.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private boolean reserveTerminalSlot() {
+        if (terminalSlots.incrementAndGet() > maxConcurrentTerminals) {
+            terminalSlots.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private PtyProcess spawnBash(Path workDir, int cols, int rows) throws IOException {
+        // Write a .bashrc into the work dir to set the prompt.
+        Files.write(
+                workDir.resolve(".bashrc"),
+                BASHRC_BODY.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        Map<String, String> env = ptyEnvironment();
+        env.put("HOME", workDir.toString()); // HOME points to work dir so .bashrc is loaded
+
+        // Launch bash in interactive mode loading our .bashrc
+        String[] command = {"/bin/bash", "--rcfile", workDir.resolve(".bashrc").toString(), "-i"};
+
+        return new PtyProcessBuilder()
+                .setCommand(command)
+                .setEnvironment(env)
+                .setDirectory(workDir.toString())
+                .setInitialColumns(cols)
+                .setInitialRows(rows)
+                .setConsole(false)
+                .start();
+    }
+
+    // Build the PTY environment
+    private static Map<String, String> ptyEnvironment() {
+        Map<String, String> env = new HashMap<>(System.getenv());
+        env.put("TERM", "xterm-256color");
+        env.put("LANG", "en_US.UTF-8");
+        // Security: restricted PATH — only standard binaries
+        env.put("PATH", "/usr/local/sbin:/usr/local/bin:/usr/sbin:/usr/bin:/sbin:/bin");
+        return env;
+    }
+
+    private void attach(String sessionId, PtyProcess pty) {
+        CountDownLatch ready = new CountDownLatch(1);
+        readiness.put(sessionId, ready);
+        activeProcesses.put(sessionId, pty);
+        processWriters.put(sessionId, pty.getOutputStream());
+        lastActivity.put(sessionId, System.nanoTime());
+
+        // Background thread: stream PTY output to WebSocket topic, batched per frame
+        TerminalScrollback scrollback = scrollbackBytes > 0 ? new TerminalScrollback(scrollbackBytes) : null;
+        TerminalOutputPipeline output = new TerminalOutputPipeline(text -> {
+            if (scrollback != null) scrollback.append(text);
+            outputFrames.incrementAndGet();
+            messagingService.convertAndSend("/topic/terminal/" + sessionId, text);
+        }, outputFlusher, outputFlushIntervalMs, outputMaxFrameChars, outputMaxBytesPerSec);
+        outputs.put(sessionId, output);
+        if (scrollback != null) scrollbacks.put(sessionId, scrollback);
+        processExecutor.submit(() -> {
+            try (InputStream stdout = pty.getInputStream()) {
+                byte[] buffer = new byte[4096];
+                int read;
+                boolean afterEsc = false;
+                while ((read = stdout.read(buffer)) != -1) {
+                    outputReads.incrementAndGet();
+                    outputBytes.addAndGet(read);
+                    lastActivity.put(sessionId, System.nanoTime());
+                    // o rcfile termina com ESC c: a partir daí a shell está pronta
+                    for (int i = 0; i < read && ready.getCount() > 0; i++) {
+                        if (afterEsc && buffer[i] == 'c') ready.countDown();
+                        afterEsc = buffer[i] == 0x1b;
+                    }
+                    output.write(buffer, read);
+                }
+            } catch (IOException e) {
+                // Process exited — normal flow
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                output.close();
+                removeProcess(sessionId, pty);
+                // Notify frontend the process ended
+                messagingService.convertAndSend("/topic/terminal/" + sessionId, "\r\n\u001b[0m\u001b[1;33m[Terminal encerrado]\u001b[0m\r\n");
+            }
+        });
+    }
+
     /**
      * Backwards-compat overload with default terminal size.
      */
@@ -168,6 +316,7 @@ public class TerminalService {
                 input = input.substring(0, 8192);
             }
             try {
+                lastActivity.put(sessionId, System.nanoTime());
                 writer.write(input.getBytes(StandardCharsets.UTF_8));
                 writer.flush();
             } catch (IOException e) {
@@ -201,13 +350,100 @@ public class TerminalService {
      * Terminates and cleans up the PTY process for the given session.
      */
     public void removeProcess(String sessionId) {
-        PtyProcess pty = activeProcesses.remove(sessionId);
-        processWriters.remove(sessionId);
-        if (pty != null && pty.isAlive()) {
+        PtyProcess pty = activeProcesses.get(sessionId);
+        if (pty != null) removeProcess(sessionId, pty);
+    }
+
+    // Só remove se a sessão ainda estiver associada a este PTY (o leitor de um PTY antigo
+    // termina depois de a sessão já ter outro)
+    private void removeProcess(String sessionId, PtyProcess pty) {
+        if (activeProcesses.remove(sessionId, pty)) {
+            terminalSlots.decrementAndGet();
+            readiness.remove(sessionId);
+            processWriters.remove(sessionId);
+            outputs.remove(sessionId);
+            scrollbacks.remove(sessionId);
+            lastActivity.remove(sessionId);
+        }
+        if (pty.isAlive()) {
             pty.destroyForcibly();
         }
     }
 
+    /**
+     * Terminates terminals with no input or output for terminal.idle-timeout-minutes,
+     * so abandoned tabs stop holding a bash process, a reader thread and a slot.
+     */
+    @Scheduled(fixedDelayString = "${terminal.reaper.interval-ms:60000}")
+    public void reapIdleTerminals() {
+        if (idleTimeoutMinutes <= 0) return;
+        long cutoff = System.nanoTime() - TimeUnit.MINUTES.toNanos(idleTimeoutMinutes);
+        for (Map.Entry<String, PtyProcess> e : activeProcesses.entrySet()) {
+            String sessionId = e.getKey();
+            Long last = lastActivity.get(sessionId);
+            if (last == null || last - cutoff > 0) continue;
+            messagingService.convertAndSend("/topic/terminal/" + sessionId,
+                    "\r\n\u001b[1;33m[Terminal encerrado por inatividade]\u001b[0m\r\n");
+            removeProcess(sessionId, e.getValue());
+            reclaimed.incrementAndGet();
+            log.info("Reaped idle PTY for session {} (idle > {} min)", sessionId, idleTimeoutMinutes);
+        }
+    }
+
+    /**
+     * Sends the terminal's recent output to one client, on
+     * /topic/terminal.replay/{sessionId}/{clientId} (empty if there is none).
+     * The snapshot is taken while no frame is in flight, so everything the client
+     * received on /topic/terminal before this reply is already in it.
+     */
+    public void replay(String sessionId, String clientId) {
+        validateSessionId(sessionId);
+        String destination = "/topic/terminal.replay/" + sessionId + "/" + clientId;
+        TerminalOutputPipeline output = outputs.get(sessionId);
+        TerminalScrollback scrollback = scrollbacks.get(sessionId);
+        if (output == null || scrollback == null) {
+            messagingService.sendLocal(destination, "");
+            return;
+        }
+        output.runExclusive(() -> messagingService.sendLocal(destination, scrollback.snapshot()));
+    }
+
+    /** Output counters: PTY reads in vs frames sent to the topic. */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("activeTerminals", activeProcesses.size());
+        stats.put("maxTerminals", maxConcurrentTerminals);
+        stats.put("reclaimed", reclaimed.get());
+        stats.put("prewarmReady", prewarmPool.ready());
+        stats.put("prewarmHits", prewarmPool.hits());
+        stats.put("prewarmMisses", prewarmPool.misses());
+        // para medir o custo por terminal (ver scripts/terminal-soak-test.mjs)
+        Runtime rt = Runtime.getRuntime();
+        stats.put("jvmUsedBytes", rt.totalMemory() - rt.freeMemory());
+        stats.put("jvmThreads", Thread.activeCount());
+        stats.put("outputReads", outputReads.get());
+        stats.put("outputBytes", outputBytes.get());
+        stats.put("outputFrames", outputFrames.get());
+
+        long now = System.nanoTime();
+        // Per terminal, without the sessionId: it is the only thing that grants access to a
+        // workspace and its terminal, and this endpoint has no authentication
+        List<Map<String, Object>> terminals = new ArrayList<>();
+        for (Map.Entry<String, PtyProcess> e : activeProcesses.entrySet()) {
+            PtyResourceUsage usage = PtyResourceUsage.of(e.getValue().pid());
+            Long last = lastActivity.get(e.getKey());
+            Map<String, Object> t = new LinkedHashMap<>();
+            t.put("pid", e.getValue().pid());
+            t.put("processes", usage.processes());
+            t.put("cpuSeconds", usage.cpuSeconds());
+            t.put("rssKb", usage.rssKb());
+            t.put("idleSeconds", last == null ? 0 : TimeUnit.NANOSECONDS.toSeconds(now - last));
+            terminals.add(t);
+        }
+        stats.put("terminals", terminals);
+        return stats;
+    }
+
     /**
      * Returns true if a PTY process is currently alive for this session.
      */
@@ -0,0 +1,277 @@
+package com.codesync.syncservice.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Escrita dos ficheiros do workspace (/tmp/{sessionId}) fora das threads do STOMP.
+ * Saves seguidos ao mesmo ficheiro dentro de {@code files.write.debounce-ms} juntam-se numa
+ * só escrita com o conteúdo mais recente; se o conteúdo for igual ao último escrito e o
+ * ficheiro não tiver mudado no disco desde então, não se escreve nada. Cada escrita vai para
+ * um ficheiro temporário na mesma diretoria que depois substitui o original com um move atómico,
+ * por isso quem lê nunca vê um ficheiro a meio. O temporário fica com as permissões do original
+ * (mais leitura para o Nginx), para não se perder, por exemplo, o bit de execução de um script;
+ * um symlink não é substituído: escreve-se no ficheiro para onde aponta, dentro da sessão.
+ *
+ * As escritas de um mesmo ficheiro correm sempre na mesma thread, pela ordem em que chegaram.
+ */
+@Service
+public class WorkspaceFileWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkspaceFileWriter.class);
+
+    private static final FileAttribute<?> WORLD_READABLE =
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-r--r--"));
+
+    private final long debounceMs;
+    private final ScheduledExecutorService[] stripes;
+    private final Map<Path, PendingWrite> pending = new ConcurrentHashMap<>();
+    // último conteúdo escrito por ficheiro (LRU, acedido só com o lock do próprio mapa)
+    private final Map<Path, WrittenFile> written;
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong skippedUnchanged = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public WorkspaceFileWriter(@Value("${files.write.debounce-ms:150}") long debounceMs,
+                               @Value("${files.write.threads:2}") int threads,
+                               @Value("${files.write.tracked-files:10000}") int trackedFiles) {
+        this.debounceMs = debounceMs;
+        this.stripes = new ScheduledExecutorService[Math.max(1, threads)];
+        for (int i = 0; i < stripes.length; i++) {
+            String name = "file-writer-" + (i + 1);
+            stripes[i] = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        this.written = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, WrittenFile> eldest) {
+                return size() > trackedFiles;
+            }
+        };
+    }
+
+    @PreDestroy
+    public void stop() {
+        // o que ainda está pendente é escrito antes de sair
+        for (ScheduledExecutorService stripe : stripes) {
+            stripe.shutdown();
+        }
+        pending.forEach((file, write) -> {
+            if (pending.remove(file, write)) write(file, write);
+        });
+    }
+
+    /** Save do editor: escrita adiada e agrupada com os saves seguintes ao mesmo ficheiro. */
+    public CompletableFuture<Void> save(String sessionId, String fileName, String content) {
+        return submit(sessionId, fileName, content, debounceMs);
+    }
+
+    /**
+     * Escreve já (e junta a escrita a um save ainda pendente do mesmo ficheiro). O future
+     * completa quando o ficheiro está no disco.
+     */
+    public CompletableFuture<Void> writeNow(String sessionId, String fileName, String content) {
+        return submit(sessionId, fileName, content, 0);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requested", requested.get());
+        stats.put("writes", writes.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("skippedUnchanged", skippedUnchanged.get());
+        stats.put("failed", failed.get());
+        stats.put("pending", pending.size());
+        stats.put("debounceMs", debounceMs);
+        return stats;
+    }
+
+    private CompletableFuture<Void> submit(String sessionId, String fileName, String content, long delayMs) {
+        requested.incrementAndGet();
+        Path sessionDir;
+        Path file;
+        try {
+            sessionDir = sessionDir(sessionId);
+            file = resolve(sessionDir, fileName);
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        PendingWrite write = pending.compute(file, (k, current) -> {
+            if (current == null) return new PendingWrite(sessionDir, bytes);
+            coalesced.incrementAndGet();
+            current.content = bytes;
+            return current;
+        });
+        // Uma tarefa por pedido; só a primeira a correr encontra a escrita pendente
+        ScheduledExecutorService stripe = stripes[Math.floorMod(file.hashCode(), stripes.length)];
+        stripe.schedule(() -> {
+            if (pending.remove(file, write)) write(file, write);
+        }, delayMs, TimeUnit.MILLISECONDS);
+        return write.done;
+    }
+
+    private static Path sessionDir(String sessionId) {
+        return Paths.get("/tmp", sessionId).toAbsolutePath().normalize();
+    }
+
+    private static Path resolve(Path sessionDir, String fileName) {
+        // SECURITY FIX: Prevent Path Traversal
+        Path filePath = sessionDir.resolve(fileName).normalize();
+        if (!sessionDir.startsWith("/tmp") || !filePath.startsWith(sessionDir) || filePath.equals(sessionDir)) {
+            throw new SecurityException("Invalid file path: " + fileName);
+        }
+        return filePath;
+    }
+
+    private void write(Path path, PendingWrite write) {
+        byte[] content = write.content;
+        Path file = path;
+        try {
+            file = target(write.sessionDir, path);
+            byte[] hash = sha256(content);
+            if (isUnchanged(file, hash)) {
+                skippedUnchanged.incrementAndGet();
+            } else {
+                Files.createDirectories(file.getParent());
+                Path tmp = createTempFile(file);
+                try {
+                    Files.write(tmp, content);
+                    copyPermissions(file, tmp);
+                    try {
+                        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+                remember(file, hash);
+                writes.incrementAndGet();
+            }
+            write.done.complete(null);
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            log.warn("Error saving file {}: {}", file, e.getMessage());
+            write.done.completeExceptionally(e);
+        }
+    }
+
+    // Symlink: o ficheiro para onde aponta, que tem de continuar dentro da diretoria da sessão
+    private static Path target(Path sessionDir, Path file) throws IOException {
+        if (!Files.isSymbolicLink(file)) return file;
+        Path target;
+        try {
+            target = file.toRealPath();
+        } catch (NoSuchFileException e) {
+            // link pendente: o save cria o ficheiro de destino, como um write normal faria
+            target = file.getParent().toRealPath().resolve(Files.readSymbolicLink(file)).normalize();
+        }
+        Path realSessionDir = sessionDir.toRealPath();
+        if (!target.startsWith(realSessionDir) || target.equals(realSessionDir)) {
+            throw new SecurityException("Symlink points outside the session: " + file);
+        }
+        return target;
+    }
+
+    // Permissões do ficheiro existente mais OTHERS_READ; ficheiros novos ficam rw-r--r--
+    private static void copyPermissions(Path file, Path tmp) throws IOException {
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file);
+            permissions.add(PosixFilePermission.OTHERS_READ);
+            Files.setPosixFilePermissions(tmp, permissions);
+        } catch (NoSuchFileException | UnsupportedOperationException e) {
+            // ficheiro novo, ou sistema de ficheiros sem permissões POSIX
+        }
+    }
+
+    private static Path createTempFile(Path file) throws IOException {
+        String prefix = "." + file.getFileName() + ".";
+        try {
+            return Files.createTempFile(file.getParent(), prefix, ".tmp", WORLD_READABLE);
+        } catch (UnsupportedOperationException e) {
+            // Sistema de ficheiros sem permissões POSIX (ex.: mount de um host Windows)
+            return Files.createTempFile(file.getParent(), prefix, ".tmp");
+        }
+    }
+
+    // Igual ao último escrito e ninguém (terminal, git) lhe mexeu desde então
+    private boolean isUnchanged(Path file, byte[] hash) {
+        WrittenFile last;
+        synchronized (written) {
+            last = written.get(file);
+        }
+        if (last == null || !Arrays.equals(last.hash, hash)) return false;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return attrs.size() == last.size && attrs.lastModifiedTime().equals(last.modified);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void remember(Path file, byte[] hash) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        synchronized (written) {
+            written.put(file, new WrittenFile(hash, attrs.size(), attrs.lastModifiedTime()));
+        }
+    }
+
+    private static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class PendingWrite {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final Path sessionDir;
+        volatile byte[] content;
+
+        PendingWrite(Path sessionDir, byte[] content) {
+            this.sessionDir = sessionDir;
+            this.content = content;
+        }
+    }
+
+    private record WrittenFile(byte[] hash, long size, FileTime modified) {
+    }
+}
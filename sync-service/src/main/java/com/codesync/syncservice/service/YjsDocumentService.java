@@ -0,0 +1,451 @@
+package com.codesync.syncservice.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estado Yjs de cada ficheiro guardado no Redis, para que quem entra numa sessão receba o
+ * documento do servidor em vez de depender de outro browser ainda ligado.
+ *
+ * Cada update recebido por este nó é acrescentado a {@code teamcode:yjs:{sessão}:{ficheiro}:log}
+ * por uma thread própria, fora da thread STOMP e fora da fila do relay (que descarta quando
+ * enche): a fila dos appends é limitada e, cheia, o {@link #append} espera no máximo
+ * {@code yjs.log.offer-timeout-ms}; um pipeline que falhe é repetido com backoff até passar.
+ * Repetir um RPUSH que já tinha entrado só duplica o update no log, e juntar updates Yjs é
+ * idempotente.
+ *
+ * Um update descartado com a fila cheia deixa o log do ficheiro incompleto: o documento fica
+ * marcado para ressincronizar e os seus updates seguintes são descartados logo, até a thread
+ * de escrita apagar o estado no Redis. Quem abrir o ficheiro depois semeia-o de novo a partir
+ * do conteúdo do editor.
+ *
+ * O servidor não funde updates: o pedido de sync lê estado + log numa só transação MULTI/EXEC
+ * e devolve-os tal como estão, e é o cliente que os aplica com o yjs. Quando o log passa de
+ * {@code yjs.compaction.min-log-entries} a resposta pede ao cliente que devolva o resultado
+ * de {@code Y.mergeUpdates} sobre esses mesmos updates; {@link #compact} grava-o como novo
+ * {@code :state} e corta do log as entradas que ele cobre, só se a geração não tiver mudado
+ * desde o sync (outra compactação ou um reset pelo meio descartam-no).
+ *
+ * O ficheiro pode mudar por fora do Yjs (git pull/checkout, restauro do Time Machine, apagar
+ * e recriar no mesmo caminho, rename). Por isso guarda-se em {@code :base} o SHA-256 do
+ * conteúdo gravado por um cliente Yjs ({@link #recordSaved}); o sync recebe o hash do conteúdo
+ * que o cliente carregou do banco e, se for outro, o estado é apagado em vez de substituir o
+ * ficheiro pelo texto antigo.
+ */
+@Service
+public class YjsDocumentService {
+
+    private static final Logger log = LoggerFactory.getLogger(YjsDocumentService.class);
+    private static final String KEY_PREFIX = "teamcode:yjs:";
+    private static final long INITIAL_RETRY_BACKOFF_MS = 50;
+
+    // Grava o estado compactado e corta o log só se a geração for a do sync; muda a geração
+    // para uma segunda compactação feita sobre o mesmo sync não cortar o log outra vez
+    private static final byte[] COMPACT_SCRIPT = (
+            "if tonumber(redis.call('GET', KEYS[3]) or '0') ~= tonumber(ARGV[4]) then return 0 end "
+                    + "redis.call('PSETEX', KEYS[1], ARGV[2], ARGV[1]) "
+                    + "redis.call('LTRIM', KEYS[2], ARGV[3], -1) "
+                    + "redis.call('INCR', KEYS[3]) "
+                    + "redis.call('PEXPIRE', KEYS[3], ARGV[2]) "
+                    + "return 1").getBytes(StandardCharsets.UTF_8);
+
+    // Atualiza o hash do conteúdo gravado só se o documento ainda tiver estado ou log
+    private static final byte[] RECORD_BASE_SCRIPT = (
+            "if redis.call('EXISTS', KEYS[1], KEYS[2]) == 0 then return 0 end "
+                    + "redis.call('SET', KEYS[3], ARGV[1], 'PX', ARGV[2]) "
+                    + "return 1").getBytes(StandardCharsets.UTF_8);
+
+    /** Update a acrescentar ao log ou, com {@code update} null, hash do conteúdo gravado. */
+    private record PendingAppend(String key, byte[] update, String contentHash) {
+    }
+
+    /**
+     * Estado compactado (null se ainda não houver), entradas do log, geração (muda a cada
+     * reset e compactação) e hash do conteúdo a que o estado corresponde, lidos no mesmo instante.
+     */
+    private record Stored(byte[] state, List<byte[]> entries, long generation, String contentHash) {
+        List<byte[]> parts() {
+            List<byte[]> parts = new ArrayList<>(entries.size() + 1);
+            if (state != null) parts.add(state);
+            parts.addAll(entries);
+            return parts;
+        }
+    }
+
+    /**
+     * Resposta a um sync: estado compactado e entradas do log por ordem, sem fundir. Com
+     * {@code compact} o cliente deve devolver a fusão deles em {@link #compact}, com a
+     * {@code generation} e o {@code logEntries} recebidos.
+     */
+    public record Snapshot(List<byte[]> updates, long generation, int logEntries, boolean compact) {
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    // Documentos com updates descartados, cujo estado no Redis tem de ser apagado
+    private final Set<String> needsResync = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<PendingAppend> pending;
+    private final int maxBatchSize;
+    private final long maxRetryBackoffMs;
+    private final long offerTimeoutMs;
+    private volatile boolean running = true;
+    private Thread writer;
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong persisted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong backpressured = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    private final AtomicLong staleResets = new AtomicLong();
+    private final AtomicLong writeRetries = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong compactionConflicts = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong syncBytes = new AtomicLong();
+
+    @Value("${yjs.state.ttl-hours:72}")
+    private long ttlHours;
+
+    @Value("${yjs.compaction.min-log-entries:50}")
+    private int compactionMinLogEntries;
+
+    public YjsDocumentService(StringRedisTemplate redisTemplate,
+                              @Value("${yjs.log.queue-capacity:10000}") int queueCapacity,
+                              @Value("${yjs.log.max-batch-size:256}") int maxBatchSize,
+                              @Value("${yjs.log.max-retry-backoff-ms:5000}") long maxRetryBackoffMs,
+                              @Value("${yjs.log.offer-timeout-ms:100}") long offerTimeoutMs) {
+        this.redisTemplate = redisTemplate;
+        this.pending = new LinkedBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxRetryBackoffMs = Math.max(INITIAL_RETRY_BACKOFF_MS, maxRetryBackoffMs);
+        this.offerTimeoutMs = Math.max(0, offerTimeoutMs);
+    }
+
+    @PostConstruct
+    public void start() {
+        writer = new Thread(this::runWriter, "yjs-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.interrupt();
+        writer.join(5000);
+        if (writer.isAlive()) {
+            log.error("Redis indisponível no shutdown: {} update(s) Yjs por gravar no log", pending.size());
+        }
+    }
+
+    /**
+     * Regista um update (Base64, como chega do browser) no log do ficheiro. Com a fila de
+     * appends cheia (Redis em baixo ou muito atrasado) espera no máximo o offer-timeout; se
+     * mesmo assim não houver espaço o update é descartado e o documento marcado para
+     * ressincronizar, sem prender a thread STOMP.
+     */
+    public void append(String sessionId, String fileId, String updateBase64) {
+        if (fileId == null || updateBase64 == null) return;
+        byte[] update;
+        try {
+            update = Base64.getDecoder().decode(updateBase64);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        // um update ilegível no log estragaria todas as compactações e syncs do ficheiro
+        if (!YjsUpdates.isWellFormed(update)) {
+            rejected.incrementAndGet();
+            return;
+        }
+        String key = docKey(sessionId, fileId);
+        // o log já tem um buraco: gravar mais só alimentava um estado que vai ser apagado
+        if (needsResync.contains(key)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        PendingAppend append = new PendingAppend(key, update, null);
+        if (!pending.offer(append)) {
+            backpressured.incrementAndGet();
+            boolean queued;
+            try {
+                queued = pending.offer(append, offerTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+            if (!queued) {
+                dropped.incrementAndGet();
+                if (needsResync.add(key)) {
+                    log.warn("Fila do log Yjs cheia: update de {} descartado, o estado será ressincronizado", key);
+                }
+                return;
+            }
+        }
+        appended.incrementAndGet();
+    }
+
+    /**
+     * Regista o conteúdo que um cliente Yjs gravou no ficheiro: é a ele que o estado do
+     * servidor corresponde. Sem espaço na fila não espera; o hash fica antigo e o próximo
+     * sync só apaga o estado sem necessidade.
+     */
+    public void recordSaved(String sessionId, String fileId, String content) {
+        if (fileId == null || content == null) return;
+        String key = docKey(sessionId, fileId);
+        pending.offer(new PendingAppend(key, null,
+                LocalWorkspaceManifest.sha256(content.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * Estado e log do ficheiro, por fundir (o cliente aplica-os com o yjs). Devolve null se
+     * não houver estado.
+     *
+     * {@code contentHash} é o SHA-256 do conteúdo que o cliente carregou do banco. Se o
+     * estado corresponder a outro conteúdo, o ficheiro mudou por fora do Yjs: o estado é
+     * apagado e devolve null, para o cliente semear o documento com o que carregou. Sem hash
+     * (cliente antigo) o estado é usado como está.
+     */
+    public Snapshot sync(String sessionId, String fileId, String contentHash) {
+        if (fileId == null) return null;
+        String key = docKey(sessionId, fileId);
+        // estado com updates em falta, prestes a ser apagado: o cliente semeia do editor
+        if (needsResync.contains(key)) return null;
+        Stored stored = readStateAndLog(key);
+        List<byte[]> parts = stored.parts();
+        boolean hasHash = contentHash != null && !contentHash.isEmpty();
+        if (parts.isEmpty()) {
+            // o cliente vai semear o documento com este conteúdo
+            if (hasHash) redisTemplate.opsForValue().set(key + ":base", contentHash, Duration.ofHours(ttlHours));
+            return null;
+        }
+        if (hasHash && !contentHash.equals(stored.contentHash())) {
+            reset(key, contentHash);
+            staleResets.incrementAndGet();
+            log.debug("Estado Yjs {} não corresponde ao conteúdo do banco; apagado", key);
+            return null;
+        }
+
+        syncs.incrementAndGet();
+        for (byte[] part : parts) syncBytes.addAndGet(part.length);
+        int logEntries = stored.entries().size();
+        return new Snapshot(parts, stored.generation(), logEntries, logEntries >= compactionMinLogEntries);
+    }
+
+    /**
+     * Grava {@code stateBase64} (a fusão, feita pelo cliente, dos updates de um {@link Snapshot})
+     * como estado do ficheiro e corta as {@code logEntries} primeiras entradas do log. O que
+     * entrou no log depois do sync fica. Devolve false se o estado for ilegível ou a geração
+     * já não for a do sync.
+     */
+    public boolean compact(String sessionId, String fileId, String stateBase64, long generation, int logEntries) {
+        if (fileId == null || stateBase64 == null || logEntries <= 0) return false;
+        byte[] state;
+        try {
+            state = Base64.getDecoder().decode(stateBase64);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (!YjsUpdates.isWellFormed(state)) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        String key = docKey(sessionId, fileId);
+        if (needsResync.contains(key)) return false;
+
+        byte[] stateKey = (key + ":state").getBytes(StandardCharsets.UTF_8);
+        byte[] logKey = (key + ":log").getBytes(StandardCharsets.UTF_8);
+        byte[] genKey = (key + ":gen").getBytes(StandardCharsets.UTF_8);
+        long ttlMillis = Duration.ofHours(ttlHours).toMillis();
+        // num script para um sync nunca ver o estado novo com o log ainda por cortar (ou o contrário)
+        Long written = redisTemplate.execute((RedisCallback<Long>) c -> c.scriptingCommands().eval(
+                COMPACT_SCRIPT, ReturnType.INTEGER, 3, stateKey, logKey, genKey,
+                state, bytes(ttlMillis), bytes(logEntries), bytes(generation)));
+        if (written == null || written == 0) {
+            compactionConflicts.incrementAndGet();
+            log.debug("Estado Yjs {} mudou desde o sync; compactação descartada", key);
+            return false;
+        }
+        compactions.incrementAndGet();
+        log.debug("Estado Yjs {} compactado: {} update(s), {} bytes", key, logEntries, state.length);
+        return true;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("appended", appended.get());
+        stats.put("persisted", persisted.get());
+        stats.put("queued", pending.size());
+        stats.put("rejected", rejected.get());
+        stats.put("backpressured", backpressured.get());
+        stats.put("dropped", dropped.get());
+        stats.put("pendingResync", needsResync.size());
+        stats.put("resets", resets.get());
+        stats.put("staleResets", staleResets.get());
+        stats.put("writeRetries", writeRetries.get());
+        stats.put("compactions", compactions.get());
+        stats.put("compactionConflicts", compactionConflicts.get());
+        stats.put("syncs", syncs.get());
+        stats.put("syncBytes", syncBytes.get());
+        return stats;
+    }
+
+    // Grava os appends em lotes; um lote que falhe fica à cabeça e é repetido até passar
+    private void runWriter() {
+        List<PendingAppend> batch = new ArrayList<>(maxBatchSize);
+        long backoffMs = INITIAL_RETRY_BACKOFF_MS;
+        while (running || !batch.isEmpty() || !pending.isEmpty()) {
+            if (batch.isEmpty()) {
+                try {
+                    PendingAppend first = pending.poll(500, TimeUnit.MILLISECONDS);
+                    if (first == null && needsResync.isEmpty()) continue;
+                    if (first != null) batch.add(first);
+                } catch (InterruptedException e) {
+                    continue; // stop(): o ciclo acaba quando a fila estiver vazia
+                }
+                pending.drainTo(batch, maxBatchSize - 1);
+            }
+            try {
+                // updates de um documento a ressincronizar já não servem: o estado vai ser apagado
+                batch.removeIf(p -> needsResync.contains(p.key()));
+                if (!batch.isEmpty()) {
+                    writeBatch(batch);
+                    for (PendingAppend p : batch) {
+                        if (p.update() != null) persisted.incrementAndGet();
+                    }
+                    batch.clear();
+                }
+                resetDropped();
+                backoffMs = INITIAL_RETRY_BACKOFF_MS;
+            } catch (Exception e) {
+                long n = writeRetries.incrementAndGet();
+                if (n == 1 || n % 100 == 0) {
+                    log.warn("Falha ao gravar {} update(s) Yjs no log, a repetir: {}", batch.size(), e.getMessage());
+                }
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ignored) {
+                    // stop(): continua a tentar enquanto o shutdown esperar
+                }
+                backoffMs = Math.min(backoffMs * 2, maxRetryBackoffMs);
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingAppend> batch) {
+        long ttlMillis = Duration.ofHours(ttlHours).toMillis();
+        redisTemplate.executePipelined((RedisCallback<Object>) c -> {
+            for (PendingAppend p : batch) {
+                byte[] logKey = (p.key() + ":log").getBytes(StandardCharsets.UTF_8);
+                if (p.update() == null) {
+                    byte[] stateKey = (p.key() + ":state").getBytes(StandardCharsets.UTF_8);
+                    byte[] baseKey = (p.key() + ":base").getBytes(StandardCharsets.UTF_8);
+                    c.scriptingCommands().eval(RECORD_BASE_SCRIPT, ReturnType.INTEGER, 3, stateKey, logKey, baseKey,
+                            p.contentHash().getBytes(StandardCharsets.US_ASCII), bytes(ttlMillis));
+                    continue;
+                }
+                c.listCommands().rPush(logKey, p.update());
+                c.keyCommands().pExpire(logKey, ttlMillis);
+            }
+            return null;
+        });
+    }
+
+    // Apaga o estado dos documentos com updates descartados; só depois voltam a aceitar appends
+    private void resetDropped() {
+        for (String key : List.copyOf(needsResync)) {
+            reset(key, null);
+            needsResync.remove(key);
+        }
+    }
+
+    /**
+     * Apaga estado e log e muda a geração, para uma compactação pedida antes não os repor.
+     * {@code contentHash} passa a ser o conteúdo do documento (null = nenhum conhecido).
+     */
+    private void reset(String key, String contentHash) {
+        byte[] stateKey = (key + ":state").getBytes(StandardCharsets.UTF_8);
+        byte[] logKey = (key + ":log").getBytes(StandardCharsets.UTF_8);
+        byte[] genKey = (key + ":gen").getBytes(StandardCharsets.UTF_8);
+        byte[] baseKey = (key + ":base").getBytes(StandardCharsets.UTF_8);
+        long ttlMillis = Duration.ofHours(ttlHours).toMillis();
+        List<Object> results = redisTemplate.execute((RedisCallback<List<Object>>) c -> {
+            c.multi();
+            c.keyCommands().del(stateKey, logKey, baseKey);
+            c.stringCommands().incr(genKey);
+            c.keyCommands().pExpire(genKey, ttlMillis);
+            if (contentHash != null) {
+                c.stringCommands().pSetEx(baseKey, ttlMillis, contentHash.getBytes(StandardCharsets.US_ASCII));
+            }
+            return c.exec();
+        });
+        if (results == null || results.isEmpty()) {
+            throw new IllegalStateException("Transação de reset do estado Yjs abortada");
+        }
+        resets.incrementAndGet();
+    }
+
+    private Stored readStateAndLog(String key) {
+        byte[] stateKey = (key + ":state").getBytes(StandardCharsets.UTF_8);
+        byte[] logKey = (key + ":log").getBytes(StandardCharsets.UTF_8);
+        byte[] genKey = (key + ":gen").getBytes(StandardCharsets.UTF_8);
+        byte[] baseKey = (key + ":base").getBytes(StandardCharsets.UTF_8);
+        // MULTI/EXEC: uma compactação ou um reset não podem cair entre as leituras
+        List<Object> results = redisTemplate.execute((RedisCallback<List<Object>>) c -> {
+            c.multi();
+            c.stringCommands().get(stateKey);
+            c.listCommands().lRange(logKey, 0, -1);
+            c.stringCommands().get(genKey);
+            c.stringCommands().get(baseKey);
+            return c.exec();
+        });
+
+        byte[] state = null;
+        List<byte[]> entries = new ArrayList<>();
+        long generation = 0;
+        String contentHash = null;
+        if (results != null && results.size() == 4) {
+            if (results.get(0) instanceof byte[] bytes) state = bytes;
+            if (results.get(1) instanceof List<?> list) {
+                for (Object entry : list) {
+                    if (entry instanceof byte[] update) entries.add(update);
+                }
+            }
+            if (results.get(2) instanceof byte[] gen) {
+                generation = Long.parseLong(new String(gen, StandardCharsets.US_ASCII));
+            }
+            if (results.get(3) instanceof byte[] base) {
+                contentHash = new String(base, StandardCharsets.US_ASCII);
+            }
+        }
+        return new Stored(state, entries, generation, contentHash);
+    }
+
+    private static byte[] bytes(long value) {
+        return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String docKey(String sessionId, String fileId) {
+        return KEY_PREFIX + sessionId + ":" + fileId;
+    }
+}
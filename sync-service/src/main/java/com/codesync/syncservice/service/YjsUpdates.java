@@ -0,0 +1,189 @@
+package com.codesync.syncservice.service;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Validação de updates Yjs (formato v1, o que o browser produz com {@code Y.encodeStateAsUpdate},
+ * no evento {@code 'update'} e com {@code Y.mergeUpdates}) antes de entrarem no Redis: um update
+ * ilegível no log partia o sync de quem abrisse o ficheiro depois. O servidor não junta nem
+ * corta updates; isso fica para o yjs do cliente.
+ */
+final class YjsUpdates {
+
+    private static final int REF_GC = 0;
+    private static final int REF_DELETED = 1;
+    private static final int REF_JSON = 2;
+    private static final int REF_BINARY = 3;
+    private static final int REF_STRING = 4;
+    private static final int REF_EMBED = 5;
+    private static final int REF_FORMAT = 6;
+    private static final int REF_TYPE = 7;
+    private static final int REF_ANY = 8;
+    private static final int REF_DOC = 9;
+    private static final int REF_SKIP = 10;
+
+    private static final int TYPE_XML_ELEMENT = 3;
+    private static final int TYPE_XML_HOOK = 5;
+
+    /** Update vazio: zero clientes com structs e delete set vazio. */
+    static final byte[] EMPTY = {0, 0};
+
+    private YjsUpdates() {
+    }
+
+    /** true se {@code update} é um update v1 que se consegue ler por inteiro. */
+    static boolean isWellFormed(byte[] update) {
+        try {
+            Decoder d = new Decoder(update);
+            skipStructs(d);
+            skipDeleteSet(d);
+            return d.pos == update.length;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static void skipStructs(Decoder d) {
+        long groups = d.readVarUint();
+        for (long g = 0; g < groups; g++) {
+            long count = d.readVarUint();
+            d.readVarUint(); // cliente
+            d.readVarUint(); // clock inicial
+            for (long i = 0; i < count; i++) {
+                int info = d.readUint8();
+                if (info == REF_SKIP || (info & 0x1F) == REF_GC) {
+                    d.readVarUint(); // comprimento
+                } else {
+                    skipItem(d, info);
+                }
+            }
+        }
+    }
+
+    private static void skipItem(Decoder d, int info) {
+        if ((info & 0x80) != 0) { // origin
+            d.readVarUint();
+            d.readVarUint();
+        }
+        if ((info & 0x40) != 0) { // right origin
+            d.readVarUint();
+            d.readVarUint();
+        }
+        if ((info & 0xC0) == 0) { // parent
+            if (d.readVarUint() == 1) {
+                d.skipVarString();
+            } else {
+                d.readVarUint();
+                d.readVarUint();
+            }
+            if ((info & 0x20) != 0) d.skipVarString();
+        }
+
+        int ref = info & 0x1F;
+        switch (ref) {
+            case REF_DELETED -> d.readVarUint();
+            case REF_STRING, REF_EMBED -> d.skipVarString();
+            case REF_JSON -> {
+                long n = d.readVarUint();
+                for (long i = 0; i < n; i++) d.skipVarString();
+            }
+            case REF_ANY -> {
+                long n = d.readVarUint();
+                for (long i = 0; i < n; i++) d.skipAny();
+            }
+            case REF_BINARY -> d.skip(Math.toIntExact(d.readVarUint()));
+            case REF_FORMAT -> {
+                d.skipVarString();
+                d.skipVarString();
+            }
+            case REF_TYPE -> {
+                long typeRef = d.readVarUint();
+                if (typeRef == TYPE_XML_ELEMENT || typeRef == TYPE_XML_HOOK) d.skipVarString();
+            }
+            case REF_DOC -> {
+                d.skipVarString();
+                d.skipAny();
+            }
+            default -> throw new IllegalArgumentException("Conteúdo Yjs desconhecido: " + ref);
+        }
+    }
+
+    private static void skipDeleteSet(Decoder d) {
+        long clients = d.readVarUint();
+        for (long i = 0; i < clients; i++) {
+            d.readVarUint(); // cliente
+            long n = d.readVarUint();
+            for (long j = 0; j < n; j++) {
+                d.readVarUint(); // clock
+                d.readVarUint(); // comprimento
+            }
+        }
+    }
+
+    // -------- lib0 encoding --------
+
+    private static final class Decoder {
+        private final byte[] buf;
+        private int pos;
+
+        Decoder(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readUint8() {
+            if (pos >= buf.length) throw new IllegalArgumentException("Update Yjs truncado");
+            return buf[pos++] & 0xFF;
+        }
+
+        long readVarUint() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                int b = readUint8();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+                shift += 7;
+                if (shift > 56) throw new IllegalArgumentException("VarUint Yjs inválido");
+            }
+        }
+
+        void skipVarString() {
+            skip(Math.toIntExact(readVarUint()));
+        }
+
+        void skip(int n) {
+            if (n < 0 || pos + n > buf.length) throw new IllegalArgumentException("Update Yjs truncado");
+            pos += n;
+        }
+
+        // Salta um valor lib0 "any" (ContentAny, opções de ContentDoc)
+        void skipAny() {
+            int type = readUint8();
+            switch (type) {
+                case 127, 126, 121, 120 -> {
+                } // undefined, null, false, true
+                case 125 -> { // varInt
+                    while ((readUint8() & 0x80) != 0) {
+                        // continua
+                    }
+                }
+                case 124 -> skip(4); // float32
+                case 123, 122 -> skip(8); // float64, bigint64
+                case 119 -> skipVarString(); // string
+                case 118 -> { // object
+                    long n = readVarUint();
+                    for (long i = 0; i < n; i++) {
+                        skipVarString();
+                        skipAny();
+                    }
+                }
+                case 117 -> { // array
+                    long n = readVarUint();
+                    for (long i = 0; i < n; i++) skipAny();
+                }
+                case 116 -> skipVarString(); // Uint8Array
+                default -> throw new IllegalArgumentException("Valor Yjs desconhecido: " + type);
+            }
+        }
+    }
+}
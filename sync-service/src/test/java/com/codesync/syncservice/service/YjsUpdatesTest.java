@@ -0,0 +1,47 @@
+package com.codesync.syncservice.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Updates v1 como o yjs os codifica: "abc" inserido pelo cliente 1 no Y.Text "t", um "X"
+ * do cliente 2 à direita dele e um delete set do cliente 1.
+ */
+class YjsUpdatesTest {
+
+    private static final Base64.Decoder BASE64 = Base64.getDecoder();
+    private static final byte[] INSERT = BASE64.decode("AQEBAAQBAXQDYWJjAA==");
+    private static final byte[] INSERT_AFTER = BASE64.decode("AQECAIQBAgFYAA==");
+    private static final byte[] DELETE = BASE64.decode("AAEBAQEB");
+
+    @Test
+    void encodedUpdatesAreWellFormed() {
+        assertTrue(YjsUpdates.isWellFormed(INSERT));
+        assertTrue(YjsUpdates.isWellFormed(INSERT_AFTER));
+        assertTrue(YjsUpdates.isWellFormed(DELETE));
+        assertTrue(YjsUpdates.isWellFormed(YjsUpdates.EMPTY));
+    }
+
+    @Test
+    void truncatedUpdateIsNotWellFormed() {
+        assertFalse(YjsUpdates.isWellFormed(Arrays.copyOf(INSERT, INSERT.length - 3)));
+        assertFalse(YjsUpdates.isWellFormed(new byte[0]));
+    }
+
+    @Test
+    void trailingBytesAreNotWellFormed() {
+        assertFalse(YjsUpdates.isWellFormed(Arrays.copyOf(INSERT, INSERT.length + 1)));
+    }
+
+    @Test
+    void unknownContentIsNotWellFormed() {
+        byte[] update = INSERT.clone();
+        update[4] = 0x0B; // info com um tipo de conteúdo que não existe
+        assertFalse(YjsUpdates.isWellFormed(update));
+    }
+}